@@ -0,0 +1,212 @@
+package sentiment;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.sun.net.httpserver.HttpServer;
+
+import sentiment.stats.FileReviewStore;
+import sentiment.stats.MemoryReviewStore;
+import sentiment.stats.ReviewGenerator;
+import sentiment.stats.ReviewStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test of LocalServer backed by DynamoDB Local or a local review store.
+ * Seeds the store with generated reviews, starts a server in this process, and sends stats
+ * requests for random date windows from concurrent clients for a fixed time. Reports throughput
+ * and latency percentiles. Set STATS_CACHE_SIZE=0, and leave INCREMENTAL_ROLLUPS unset or set
+ * DAILY_ROLLUP_CACHE_WEIGHT=0, to measure only uncached requests.
+ * Start DynamoDB Local (e.g. docker run -p 8000:8000 amazon/dynamodb-local), then run
+ * TABLE_NAME=reviews-local DYNAMODB_ENDPOINT=http://localhost:8000 DEPLOY_REGION=us-east-1
+ * AWS_ACCESS_KEY_ID=local AWS_SECRET_ACCESS_KEY=local mvn -P benchmark test-compile exec:java
+ * -Dexec.classpathScope=test -Dexec.mainClass=sentiment.LoadTest -Dexec.args="20000 16 30"
+ * where the arguments are the number of reviews, concurrent clients and seconds. A fourth
+ * argument of "memory" or a file path serves the reviews from a MemoryReviewStore or
+ * FileReviewStore instead, without DynamoDB.
+ */
+public class LoadTest {
+  private static final int BATCH_SIZE = 25;
+  private static final long THROUGHPUT = 1000L;
+  private static final String STATS = "[{\"numReviews\":null},{\"overallSentiment\":null},"
+      + "{\"sentimentOverTime\":null},{\"keywords\":null}]";
+
+  /**
+   * Seeds the table, runs the clients against a local server and prints the results.
+   * @param args The number of reviews, concurrent clients and seconds
+   */
+  public static void main(final String[] args) throws Exception {
+    int reviews = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    String storeName = args.length > 3 ? args[3] : "dynamodb";
+
+    ClientRegistry clients = ClientRegistry.getInstance();
+    List<Map<String, AttributeValue>> items = new ReviewGenerator(42).generate(reviews);
+    ReviewStore store = null;
+    if (storeName.equals("memory")) {
+      MemoryReviewStore memoryStore = new MemoryReviewStore();
+      memoryStore.addAll(items);
+      store = memoryStore;
+    } else if (!storeName.equals("dynamodb")) {
+      FileReviewStore fileStore = new FileReviewStore(Paths.get(storeName));
+      fileStore.addAll(items);
+      store = fileStore;
+    } else {
+      String table = System.getenv("TABLE_NAME");
+      if (table == null || System.getenv("DYNAMODB_ENDPOINT") == null) {
+        System.err.println("Set TABLE_NAME and DYNAMODB_ENDPOINT to a DynamoDB Local table");
+        System.exit(1);
+      }
+      seed(clients.getDynamoDb(), table, items);
+    }
+    System.out.println("Seeded " + reviews + " reviews into " + storeName);
+
+    HttpServer server =
+        LocalServer.start(0, clients, store, LocalServer.createExecutor(64));
+    URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/stats");
+
+    ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+    long deadline = System.nanoTime() + seconds * 1000000000L;
+    List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+    for (int i = 0; i < concurrency; i++) {
+      Random random = new Random(i);
+      results.add(pool.submit(() -> runClient(url, random, deadline)));
+    }
+
+    List<Long> latencies = new ArrayList<Long>();
+    for (Future<long[]> result : results) {
+      for (long latency : result.get()) {
+        latencies.add(latency);
+      }
+    }
+    pool.shutdown();
+    server.stop(0);
+
+    Collections.sort(latencies);
+    System.out.println(String.format("%d requests, %.1f requests/s",
+        latencies.size(), latencies.size() / (double) seconds));
+    for (double percentile : new double[]{ 50, 90, 99, 100 }) {
+      int index = (int) Math.ceil(percentile / 100 * latencies.size()) - 1;
+      long latency = latencies.isEmpty() ? 0 : latencies.get(Math.max(index, 0));
+      System.out.println(String.format("p%.0f %.2f ms", percentile, latency / 1e6));
+    }
+  }
+
+  /**
+   * Sends requests one after another until the deadline.
+   * @return The latency of each request, in nanoseconds
+   */
+  private static long[] runClient(URL url, Random random, long deadline) throws IOException {
+    long[] latencies = new long[1024];
+    int count = 0;
+    while (System.nanoTime() < deadline) {
+      int first = random.nextInt(ReviewGenerator.DAYS);
+      int last = first + random.nextInt(ReviewGenerator.DAYS - first);
+      byte[] body = requestBody(ReviewGenerator.START_DATE.plusDays(first),
+          ReviewGenerator.START_DATE.plusDays(last)).getBytes(StandardCharsets.UTF_8);
+
+      long start = System.nanoTime();
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      try (OutputStream output = connection.getOutputStream()) {
+        output.write(body);
+      }
+      try (InputStream input = connection.getInputStream()) {
+        while (input.read() != -1) {
+          continue;
+        }
+      }
+      if (connection.getResponseCode() != 200) {
+        throw new IOException("Request failed with " + connection.getResponseCode());
+      }
+
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = System.nanoTime() - start;
+    }
+    return Arrays.copyOf(latencies, count);
+  }
+
+  private static String requestBody(LocalDate startDate, LocalDate endDate) {
+    return "{\"appIdStore\":\"" + ReviewGenerator.APP_ID_STORE + "\","
+        + "\"version\":\"" + ReviewGenerator.VERSION + "\","
+        + "\"startDate\":\"" + startDate + "T00:00:00.000Z\","
+        + "\"endDate\":\"" + endDate + "T23:59:59.999Z\","
+        + "\"stats\":" + STATS + "}";
+  }
+
+  /**
+   * Creates the reviews table with its date index if it doesn't exist, and writes the reviews.
+   */
+  private static void seed(
+      AmazonDynamoDB db, String table, List<Map<String, AttributeValue>> items) {
+    ProvisionedThroughput throughput = new ProvisionedThroughput(THROUGHPUT, THROUGHPUT);
+    try {
+      db.createTable(new CreateTableRequest()
+          .withTableName(table)
+          .withAttributeDefinitions(
+              new AttributeDefinition("appIdStore", ScalarAttributeType.S),
+              new AttributeDefinition("reviewHash", ScalarAttributeType.S),
+              new AttributeDefinition("date", ScalarAttributeType.S))
+          .withKeySchema(
+              new KeySchemaElement("appIdStore", KeyType.HASH),
+              new KeySchemaElement("reviewHash", KeyType.RANGE))
+          .withProvisionedThroughput(throughput)
+          .withGlobalSecondaryIndexes(new GlobalSecondaryIndex()
+              .withIndexName("date")
+              .withKeySchema(
+                  new KeySchemaElement("appIdStore", KeyType.HASH),
+                  new KeySchemaElement("date", KeyType.RANGE))
+              .withProjection(new Projection().withProjectionType(ProjectionType.ALL))
+              .withProvisionedThroughput(throughput)));
+    } catch (ResourceInUseException exp) {
+      // The table is left from an earlier run; the same reviews are written over it
+    }
+
+    for (int from = 0; from < items.size(); from += BATCH_SIZE) {
+      List<WriteRequest> writes = new ArrayList<WriteRequest>();
+      for (Map<String, AttributeValue> item : items.subList(
+          from, Math.min(from + BATCH_SIZE, items.size()))) {
+        writes.add(new WriteRequest(new PutRequest(item)));
+      }
+
+      Map<String, List<WriteRequest>> unprocessed = Collections.singletonMap(table, writes);
+      while (!unprocessed.isEmpty()) {
+        unprocessed = db.batchWriteItem(
+            new BatchWriteItemRequest().withRequestItems(unprocessed)).getUnprocessedItems();
+      }
+    }
+  }
+}
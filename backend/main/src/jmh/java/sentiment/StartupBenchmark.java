@@ -0,0 +1,34 @@
+package sentiment;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time-to-first-response of a cold handler, once per forked JVM.
+ * Compare runs with and without a class-data-sharing archive built by the cds profile, e.g.
+ * -Djmh.args="StartupBenchmark -jvmArgsAppend -XX:SharedArchiveFile=target/sentiment.jsa".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10)
+public class StartupBenchmark {
+  /**
+   * Boots a handler and serves its first request.
+   */
+  @Benchmark
+  public Object firstResponse() {
+    return ColdStart.firstResponse();
+  }
+}
@@ -0,0 +1,116 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic DynamoDB review items for benchmarks.
+ * Sentiments follow the mix seen in production app stores, and keywords are drawn from a
+ * Zipf-like distribution so a few keywords are very common and most are rare.
+ */
+public class ReviewGenerator {
+  public static final String APP_ID_STORE = "com.example.app*Google Play";
+  public static final String VERSION = "1.0.0";
+
+  /**
+   * The first day of generated reviews.
+   */
+  public static final LocalDate START_DATE = LocalDate.of(2018, 9, 1);
+
+  /**
+   * The number of days generated reviews are spread across.
+   */
+  public static final int DAYS = 90;
+
+  private static final int VOCABULARY_SIZE = 5000;
+  private static final int MAX_KEYWORDS_PER_REVIEW = 6;
+
+  /**
+   * Sentiment names and their cumulative probabilities.
+   */
+  private static final String[] SENTIMENTS = { "POSITIVE", "NEGATIVE", "NEUTRAL", "MIXED" };
+  private static final double[] SENTIMENT_CUMULATIVE = { 0.45, 0.75, 0.90, 1.0 };
+
+  private final Random random;
+  private final String[] vocabulary;
+
+  /**
+   * The cumulative probability of drawing each vocabulary entry.
+   */
+  private final double[] keywordCumulative;
+
+  /**
+   * Creates a generator.
+   * @param seed The random seed, so runs are repeatable.
+   */
+  public ReviewGenerator(long seed) {
+    this.random = new Random(seed);
+    this.vocabulary = new String[VOCABULARY_SIZE];
+    this.keywordCumulative = new double[VOCABULARY_SIZE];
+
+    double total = 0;
+    for (int i = 0; i < VOCABULARY_SIZE; i++) {
+      // Mix cases so the calculation has keywords to normalize
+      vocabulary[i] = (i % 7 == 0 ? "Keyword" : "keyword") + i;
+      total += 1.0 / (i + 1);
+      keywordCumulative[i] = total;
+    }
+    for (int i = 0; i < VOCABULARY_SIZE; i++) {
+      keywordCumulative[i] /= total;
+    }
+  }
+
+  /**
+   * Generates review items.
+   * @param count The number of reviews to generate.
+   * @return The reviews, in date order.
+   */
+  public List<Map<String, AttributeValue>> generate(int count) {
+    List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>(count);
+    for (int i = 0; i < count; i++) {
+      LocalDate day = START_DATE.plusDays((long) i * DAYS / count);
+      items.add(generateReview(i, day));
+    }
+    return items;
+  }
+
+  private Map<String, AttributeValue> generateReview(int index, LocalDate day) {
+    String date = String.format("%sT%02d:%02d:%02d.000Z",
+        day, random.nextInt(24), random.nextInt(60), random.nextInt(60));
+
+    Map<String, AttributeValue> review = new HashMap<String, AttributeValue>();
+    review.put("appIdStore", new AttributeValue().withS(APP_ID_STORE));
+    review.put("reviewHash", new AttributeValue().withS(Integer.toHexString(index)));
+    review.put("date", new AttributeValue().withS(date));
+    review.put("version", new AttributeValue().withS(VERSION));
+    review.put("sentiment", new AttributeValue().withS(pick(SENTIMENTS, SENTIMENT_CUMULATIVE)));
+    review.put("sentimentScore", new AttributeValue().withS(Double.toString(random.nextDouble())));
+
+    int keywordCount = random.nextInt(MAX_KEYWORDS_PER_REVIEW + 1);
+    List<AttributeValue> keywords = new ArrayList<AttributeValue>(keywordCount);
+    for (int i = 0; i < keywordCount; i++) {
+      keywords.add(new AttributeValue().withS(pick(vocabulary, keywordCumulative)));
+    }
+    review.put("keywords", new AttributeValue().withL(keywords));
+
+    return review;
+  }
+
+  /**
+   * Draws a value given the cumulative probability of each.
+   */
+  private String pick(String[] values, double[] cumulative) {
+    int index = Arrays.binarySearch(cumulative, random.nextDouble());
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return values[Math.min(index, values.length - 1)];
+  }
+}
@@ -0,0 +1,96 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the hot window of an app into a ReviewBatch, from DynamoDB items in memory
+ * versus from a review segment. Both exclude the network, so the difference is the cost of
+ * building and encoding items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class SegmentBenchmark {
+  private static final LocalDate END_DATE =
+      ReviewGenerator.START_DATE.plusDays(ReviewGenerator.DAYS - 1);
+
+  @Param({ "10000", "100000", "1000000" })
+  public int reviews;
+
+  /**
+   * The version to read, or "all" for every version.
+   */
+  @Param({ "all", ReviewGenerator.VERSION })
+  public String version;
+
+  private MemoryReviewStore memory;
+  private SegmentReviewStore segments;
+  private Path directory;
+
+  /**
+   * Generates the reviews and writes them as a segment.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    List<Map<String, AttributeValue>> items = new ReviewGenerator(42).generate(reviews);
+    memory = new MemoryReviewStore();
+    memory.addAll(items);
+
+    directory = Files.createTempDirectory("segments");
+    ReviewSegment.write(SegmentReviewStore.getPath(directory, ReviewGenerator.APP_ID_STORE),
+        items, ReviewGenerator.START_DATE, END_DATE);
+    segments = new SegmentReviewStore(directory, memory);
+  }
+
+  /**
+   * Removes the segment.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.delete(SegmentReviewStore.getPath(directory, ReviewGenerator.APP_ID_STORE));
+    Files.delete(directory);
+  }
+
+  /**
+   * Encodes the window from DynamoDB items.
+   */
+  @Benchmark
+  public ReviewBatch readFromItems() throws Exception {
+    return memory.queryBatch(ReviewGenerator.APP_ID_STORE,
+        version.equals("all") ? null : version, ReviewGenerator.START_DATE, END_DATE);
+  }
+
+  /**
+   * Copies the window from the segment's mapping.
+   */
+  @Benchmark
+  public ReviewBatch readFromSegment() throws Exception {
+    return segments.queryBatch(ReviewGenerator.APP_ID_STORE,
+        version.equals("all") ? null : version, ReviewGenerator.START_DATE, END_DATE);
+  }
+}
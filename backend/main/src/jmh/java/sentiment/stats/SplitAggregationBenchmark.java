@@ -0,0 +1,95 @@
+package sentiment.stats;
+
+import com.amazonaws.services.simplesystemsmanagement.AbstractAWSSimpleSystemsManagement;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
+import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single stat aggregated in one pass against the same stat split into a chunk per
+ * thread. The batch size where a parallelism above 1 first wins is the crossover point that
+ * STATS_SPLIT_THRESHOLD should be set to for the target machine.
+ * Select a subset with jmh.args, e.g. -Djmh.args="SplitAggregationBenchmark -p stat=keywords".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class SplitAggregationBenchmark {
+  @Param({ "1000", "5000", "20000", "50000", "200000" })
+  public int reviews;
+
+  @Param({ "numReviews", "overallSentiment", "sentimentOverTime", "keywords" })
+  public String stat;
+
+  /**
+   * The number of chunks, where 1 is a single sequential pass.
+   */
+  @Param({ "1", "2", "4" })
+  public int parallelism;
+
+  private ReviewBatch batch;
+  private LocalDate startDate;
+  private LocalDate endDate;
+  private StaticSsm ssm = new StaticSsm();
+
+  /**
+   * Generates and encodes the reviews.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    startDate = ReviewGenerator.START_DATE;
+    endDate = ReviewGenerator.START_DATE.plusDays(ReviewGenerator.DAYS - 1);
+    batch = ReviewBatch.fromItems(new ReviewGenerator(42).generate(reviews), false);
+  }
+
+  /**
+   * Aggregates the stat, splitting the batch whenever parallelism is above 1.
+   */
+  @Benchmark
+  public OutgoingStat<?, ?>[] aggregate() {
+    return new StatPipeline(batch, parallelism, 0).register(createCalculation()).run();
+  }
+
+  private StatCalculation createCalculation() {
+    switch (stat) {
+      case "numReviews":
+        return new NumReviewsCalculation(batch);
+      case "overallSentiment":
+        return new OverallSentimentCalculation(batch);
+      case "sentimentOverTime":
+        return new SentimentOverTimeCalculation(batch, startDate, endDate);
+      default:
+        return new KeywordsCalculation(batch, ssm);
+    }
+  }
+
+  /**
+   * Serves a fixed keyword ignore list.
+   */
+  private static class StaticSsm extends AbstractAWSSimpleSystemsManagement {
+    @Override
+    public GetParameterResult getParameter(GetParameterRequest request) {
+      return new GetParameterResult().withParameter(
+          new Parameter().withName(request.getName()).withValue("[\"keyword13\",\"keyword42\"]"));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.simplesystemsmanagement.AbstractAWSSimpleSystemsManagement;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
+import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
+import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sentiment.ClientRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stats calculations over synthetic reviews.
+ * Run with the gc profiler (the benchmark profile's default) to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+// The raw items stay reachable for the whole trial, unlike in the Lambda, so allow more heap
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class StatsBenchmark {
+  private static final String[] ALL_STATS = {
+    "numReviews", "overallSentiment", "sentimentOverTime", "keywords", "rawReviews"
+  };
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  public int reviews;
+
+  /**
+   * The stat to calculate, or "all" for every stat in a single request.
+   * "approximateKeywords" is the keywords stat counted in constant memory.
+   */
+  @Param({ "numReviews", "overallSentiment", "sentimentOverTime", "keywords",
+      "approximateKeywords", "rawReviews", "all" })
+  public String stat;
+
+  private StatsRequest request;
+  private IncomingStat[] stats;
+  private List<Map<String, AttributeValue>> items;
+  private ReviewBatch batch;
+
+  /**
+   * Generates the reviews and builds the request.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    String[] names = stat.equals("all") ? ALL_STATS : new String[]{ stat };
+    stats = new IncomingStat[names.length];
+    for (int i = 0; i < names.length; i++) {
+      stats[i] = new IncomingStat();
+      if (names[i].equals("approximateKeywords")) {
+        stats[i].setData("keywords", new String[]{ "4", "approximate" });
+      } else {
+        stats[i].setData(names[i], null);
+      }
+    }
+
+    String startDate = ReviewGenerator.START_DATE + "T00:00:00.000Z";
+    String endDate = ReviewGenerator.START_DATE.plusDays(ReviewGenerator.DAYS - 1) 
+        + "T00:00:00.000Z";
+    request = new StatsRequest(
+        ReviewGenerator.APP_ID_STORE, ReviewGenerator.VERSION, startDate, endDate, stats);
+    request.setClients(new ClientRegistry(null, new StaticSsm(), null, null));
+
+    items = new ReviewGenerator(42).generate(reviews);
+    batch = ReviewBatch.fromItems(items, names == ALL_STATS || stat.equals("rawReviews"));
+  }
+
+  /**
+   * Encodes the DynamoDB items and calculates the stats, as a request does.
+   */
+  @Benchmark
+  public OutgoingStat<?, ?>[] calculateStatsFromItems() {
+    return request.calculateStats(items, stats);
+  }
+
+  /**
+   * Calculates the stats from already encoded reviews.
+   */
+  @Benchmark
+  public OutgoingStat<?, ?>[] calculateStatsFromBatch() {
+    return request.calculateStats(batch, stats);
+  }
+
+  /**
+   * Serves a fixed keyword ignore list.
+   */
+  private static class StaticSsm extends AbstractAWSSimpleSystemsManagement {
+    @Override
+    public GetParameterResult getParameter(GetParameterRequest request) {
+      return new GetParameterResult().withParameter(
+          new Parameter().withName(request.getName()).withValue("[\"keyword13\",\"keyword42\"]"));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package sentiment;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.cloudwatchevents.AmazonCloudWatchEvents;
+import com.amazonaws.services.cloudwatchevents.AmazonCloudWatchEventsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
+import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
+
+/**
+ * Shared, lazily-initialized AWS clients.
+ * A single registry lives for the lifetime of the Lambda container, so warm invocations
+ * reuse the credentials, connection pools and TLS sessions set up by earlier ones.
+ */
+public class ClientRegistry {
+  private static final String REGION = System.getenv("DEPLOY_REGION");
+
+  /**
+   * The maximum number of open HTTP connections per client.
+   */
+  private static final String MAX_CONNECTIONS = System.getenv("AWS_MAX_CONNECTIONS");
+
+  /**
+   * An alternative DynamoDB endpoint, e.g. DynamoDB Local for load tests.
+   */
+  private static final String DYNAMODB_ENDPOINT = System.getenv("DYNAMODB_ENDPOINT");
+
+  private static final ClientRegistry INSTANCE = new ClientRegistry();
+
+  private volatile AmazonDynamoDB dynamoDb;
+  private volatile AWSSimpleSystemsManagement ssm;
+  private volatile AWSLambda lambda;
+  private volatile AmazonCloudWatchEvents cloudWatchEvents;
+
+  /**
+   * Creates a registry that builds each client on first use.
+   */
+  public ClientRegistry() { }
+
+  /**
+   * Creates a registry with pre-built clients (e.g. mocks).
+   * Any client passed as null is built on first use.
+   * @param dynamoDb The DynamoDB client.
+   * @param ssm The SSM client.
+   * @param lambda The Lambda client.
+   * @param cloudWatchEvents The CloudWatch Events client.
+   */
+  public ClientRegistry(
+      AmazonDynamoDB dynamoDb,
+      AWSSimpleSystemsManagement ssm,
+      AWSLambda lambda,
+      AmazonCloudWatchEvents cloudWatchEvents) {
+    this.dynamoDb = dynamoDb;
+    this.ssm = ssm;
+    this.lambda = lambda;
+    this.cloudWatchEvents = cloudWatchEvents;
+  }
+
+  /**
+   * Returns the registry shared by every request in this container.
+   */
+  public static ClientRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the DynamoDB client, building it on first use.
+   */
+  public AmazonDynamoDB getDynamoDb() {
+    if (dynamoDb == null) {
+      synchronized (this) {
+        if (dynamoDb == null) {
+          dynamoDb = configure(AmazonDynamoDBClientBuilder.standard(), DYNAMODB_ENDPOINT).build();
+        }
+      }
+    }
+    return dynamoDb;
+  }
+
+  /**
+   * Returns the SSM client, building it on first use.
+   */
+  public AWSSimpleSystemsManagement getSsm() {
+    if (ssm == null) {
+      synchronized (this) {
+        if (ssm == null) {
+          ssm = configure(AWSSimpleSystemsManagementClientBuilder.standard(), null).build();
+        }
+      }
+    }
+    return ssm;
+  }
+
+  /**
+   * Returns the Lambda client, building it on first use.
+   */
+  public AWSLambda getLambda() {
+    if (lambda == null) {
+      synchronized (this) {
+        if (lambda == null) {
+          lambda = configure(AWSLambdaClientBuilder.standard(), null).build();
+        }
+      }
+    }
+    return lambda;
+  }
+
+  /**
+   * Returns the CloudWatch Events client, building it on first use.
+   */
+  public AmazonCloudWatchEvents getCloudWatchEvents() {
+    if (cloudWatchEvents == null) {
+      synchronized (this) {
+        if (cloudWatchEvents == null) {
+          cloudWatchEvents =
+              configure(AmazonCloudWatchEventsClientBuilder.standard(), null).build();
+        }
+      }
+    }
+    return cloudWatchEvents;
+  }
+
+  /**
+   * Applies the shared region and connection pool settings to a client builder.
+   * @param builder The builder to configure.
+   * @param endpoint An endpoint to use instead of the region's, or null.
+   * @return The same builder.
+   */
+  private static <T extends AwsClientBuilder<T, ?>> T configure(T builder, String endpoint) {
+    ClientConfiguration config = new ClientConfiguration();
+    if (MAX_CONNECTIONS != null) {
+      config.setMaxConnections(Integer.parseInt(MAX_CONNECTIONS));
+    }
+    builder.setClientConfiguration(config);
+
+    // An endpoint and a region can't both be set, so the region only signs requests
+    if (endpoint != null) {
+      builder.setEndpointConfiguration(new EndpointConfiguration(endpoint, REGION));
+    } else if (REGION != null) {
+      builder.setRegion(REGION);
+    }
+    return builder;
+  }
+}
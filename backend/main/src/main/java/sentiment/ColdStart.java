@@ -0,0 +1,45 @@
+package sentiment;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+/**
+ * Measures the time from a fresh JVM to the first response of the Lambda handler.
+ * The request asks for no stats, so it covers booting the Spring context, binding the JSON
+ * and running the handler without any AWS access. The cds Maven profile also runs it to record
+ * the classes a cold start loads.
+ */
+public class ColdStart {
+  /**
+   * A stats request that is answered without reading DynamoDB.
+   */
+  static final String REQUEST_BODY = "{\"appIdStore\":\"coldStart*Apple\",\"version\":\"1.0\","
+      + "\"startDate\":\"2018-01-01T00:00:00.000Z\",\"endDate\":\"2018-01-02T00:00:00.000Z\","
+      + "\"stats\":[]}";
+
+  /**
+   * Sends a single request through a new handler and prints how long it took.
+   * @param args Unused
+   */
+  public static void main(final String[] args) {
+    long start = System.nanoTime();
+    Object response = firstResponse();
+    long elapsed = System.nanoTime() - start;
+    System.out.println("First response in " + elapsed / 1000000 + " ms: " + response);
+  }
+
+  /**
+   * Boots a new handler and sends it a stats request.
+   * @return The API Gateway response
+   */
+  public static Object firstResponse() {
+    if (System.getProperty("function.name") == null && System.getenv("FUNCTION_NAME") == null) {
+      System.setProperty("function.name", "stats");
+    }
+
+    APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent()
+        .withPath("/stats")
+        .withHttpMethod("POST")
+        .withBody(REQUEST_BODY);
+    return new Handler().handleRequest(event, null);
+  }
+}
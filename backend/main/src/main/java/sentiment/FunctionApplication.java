@@ -23,24 +23,33 @@ public class FunctionApplication {
     SpringApplication.run(FunctionApplication.class, args);
   }
 
+  /**
+   * AWS clients shared by every request handled in this container.
+   * @return The container-wide client registry
+   */
+  @Bean
+  public ClientRegistry clientRegistry() {
+    return ClientRegistry.getInstance();
+  }
+
   /**
    * Lambda function to process sentiment stats.
+   * @param clients The AWS clients to hand to each request
    * @return Response to pass to API Gateway handler
    */
   @Bean
-  public Function<Message<Request>, Message<Response>> stats() {
+  public Function<Message<Request>, Message<Response>> stats(ClientRegistry clients) {
     return messageRequest -> {
       Request request = messageRequest.getPayload();
+      request.setClients(clients);
       Response response = request.process();
 
       Message<Response> messageResponse = MessageBuilder
           .withPayload(response)
-          .setHeader("Access-Control-Allow-Origin", "*")
+          .copyHeaders(ResponseHeaders.forRequest(request))
           .build();
         
       return messageResponse;
     };
   }
-
- 
 }
@@ -18,6 +18,15 @@ public class Handler extends SpringBootApiGatewayRequestHandler {
 
   private String path;
 
+  /**
+   * Creates the handler for the sentiment application.
+   * Naming the configuration class spares a cold start from searching every jar manifest on
+   * the classpath for a Start-Class.
+   */
+  public Handler() {
+    super(FunctionApplication.class);
+  }
+
   @Override
   protected Class<?> getInputType() {
     System.out.println("The path is: " + this.path);
@@ -0,0 +1,243 @@
+package sentiment;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import sentiment.stats.FileReviewStore;
+import sentiment.stats.ReviewStore;
+import sentiment.stats.StatsCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the API over HTTP from a long-lived process instead of Lambda.
+ * Requests are routed on the same paths as Handler and processed by the same Request classes.
+ * The caches and AWS clients live as long as the process, so they stay warm between requests.
+ * Each request runs on its own virtual thread where the JDK supports them (21+), and on a
+ * bounded pool of platform threads otherwise. Reviews are read from DynamoDB, or from a local
+ * replica file when REVIEW_STORE_FILE is set.
+ * The server has no authentication, so it listens on the loopback interface unless
+ * BIND_ADDRESS is set, and only serves the paths that read (stats, apps and settings/get)
+ * unless ENABLE_WRITES=true.
+ * Run with e.g. PORT=8080 TABLE_NAME=... DEPLOY_REGION=... java -cp sentiment-1.0-aws.jar
+ * sentiment.LocalServer
+ */
+public class LocalServer implements HttpHandler {
+  private static final int DEFAULT_PORT = 8080;
+
+  /**
+   * The number of platform threads to serve requests on when virtual threads are unavailable.
+   * Requests mostly wait on DynamoDB, so this is well above the number of cores.
+   */
+  private static final int DEFAULT_THREADS = 64;
+
+  /**
+   * The number of connections the OS may queue before they are accepted.
+   */
+  private static final int BACKLOG = 1024;
+
+  /**
+   * The paths served when writes are disabled, none of which change settings.
+   */
+  private static final Set<String> READ_PATHS =
+      new HashSet<String>(Arrays.asList("/stats", "/apps", "/settings/get"));
+
+  private final ClientRegistry clients;
+
+  /**
+   * The store to read reviews from, or null for DynamoDB.
+   */
+  private final ReviewStore store;
+
+  /**
+   * Constructs a handler.
+   * @param clients The AWS clients to hand to each request
+   * @param store The store to read reviews from, or null for DynamoDB
+   */
+  LocalServer(ClientRegistry clients, ReviewStore store) {
+    this.clients = clients;
+    this.store = store;
+  }
+
+  /**
+   * Starts a server with settings from the environment.
+   * @param args Unused
+   */
+  public static void main(final String[] args) throws IOException {
+    int port = StatsCache.parseSetting("PORT", DEFAULT_PORT);
+    String bindAddress = System.getenv("BIND_ADDRESS");
+    InetSocketAddress address = bindAddress != null
+        ? new InetSocketAddress(bindAddress, port)
+        : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    boolean writable = Boolean.parseBoolean(System.getenv("ENABLE_WRITES"));
+    ExecutorService executor =
+        createExecutor(StatsCache.parseSetting("SERVER_THREADS", DEFAULT_THREADS));
+
+    String storeFile = System.getenv("REVIEW_STORE_FILE");
+    ReviewStore store = storeFile != null ? new FileReviewStore(Paths.get(storeFile)) : null;
+
+    // Pay for the DynamoDB client's setup before the first request rather than during it
+    ClientRegistry clients = ClientRegistry.getInstance();
+    if (store == null) {
+      clients.getDynamoDb();
+    }
+
+    HttpServer server = start(address, clients, store, writable, executor);
+    System.out.println("Listening on " + server.getAddress()
+        + (writable ? "" : ", serving only " + READ_PATHS));
+  }
+
+  /**
+   * Starts a read-only server on the loopback interface.
+   * @param port The port to listen on, or 0 for any free port
+   * @param clients The AWS clients to hand to each request
+   * @param executor The executor to process requests on
+   * @return The running server
+   */
+  public static HttpServer start(int port, ClientRegistry clients, ExecutorService executor)
+      throws IOException {
+    return start(port, clients, null, executor);
+  }
+
+  /**
+   * Starts a read-only server on the loopback interface that reads reviews from a store.
+   * @param port The port to listen on, or 0 for any free port
+   * @param clients The AWS clients to hand to each request
+   * @param store The store to read reviews from, or null for DynamoDB
+   * @param executor The executor to process requests on
+   * @return The running server
+   */
+  public static HttpServer start(int port, ClientRegistry clients, ReviewStore store,
+      ExecutorService executor) throws IOException {
+    return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+        clients, store, false, executor);
+  }
+
+  /**
+   * Starts a server that reads reviews from a store.
+   * @param address The address to listen on
+   * @param clients The AWS clients to hand to each request
+   * @param store The store to read reviews from, or null for DynamoDB
+   * @param writable Whether to serve the paths that change settings, rather than 404 them
+   * @param executor The executor to process requests on
+   * @return The running server
+   */
+  public static HttpServer start(InetSocketAddress address, ClientRegistry clients,
+      ReviewStore store, boolean writable, ExecutorService executor) throws IOException {
+    HttpServer server = HttpServer.create(address, BACKLOG);
+    LocalServer handler = new LocalServer(clients, store);
+    for (String path : StreamHandler.getPaths()) {
+      if (writable || READ_PATHS.contains(path)) {
+        server.createContext(path, handler);
+      }
+    }
+    server.setExecutor(executor);
+    server.start();
+    return server;
+  }
+
+  /**
+   * Creates the executor to process requests on.
+   * @param threads The number of platform threads to use if virtual threads are unavailable
+   * @return A virtual thread per task executor, or a fixed pool of platform threads
+   */
+  public static ExecutorService createExecutor(int threads) {
+    try {
+      // Looked up by reflection so the server still builds and runs on Java 8
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException exp) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(
+          threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "local-server");
+            thread.setDaemon(true);
+            return thread;
+          });
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+  }
+
+  /**
+   * Processes a request and sends its response.
+   * @param exchange The HTTP request and response
+   */
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      Headers headers = exchange.getResponseHeaders();
+      if (exchange.getRequestMethod().equals("OPTIONS")) {
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+        headers.set("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        exchange.sendResponseHeaders(204, -1);
+        return;
+      }
+
+      // Contexts match by prefix, so route on the context rather than the full path
+      String path = exchange.getHttpContext().getPath();
+      String body = readBody(exchange.getRequestBody());
+      Request request = StreamHandler.readRequest(path, body.isEmpty() ? null : body);
+
+      int status = 200;
+      Response response;
+      if (request == null) {
+        response = new Response("Error parsing request");
+      } else {
+        request.setClients(clients);
+        if (store != null) {
+          request.setReviewStore(store);
+        }
+        try {
+          response = request.process();
+        } catch (RuntimeException exp) {
+          System.err.println("Error processing request for " + path + ": " + exp);
+          status = 500;
+          response = new Response("Error processing request");
+        }
+      }
+
+      byte[] json = StreamHandler.MAPPER.writeValueAsBytes(response);
+      headers.set("Content-Type", "application/json");
+      for (Map.Entry<String, String> header : ResponseHeaders.forRequest(request).entrySet()) {
+        headers.set(header.getKey(), header.getValue());
+      }
+      exchange.sendResponseHeaders(status, json.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(json);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static String readBody(InputStream input) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      body.write(buffer, 0, read);
+    }
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
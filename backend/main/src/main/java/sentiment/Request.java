@@ -1,12 +1,62 @@
 package sentiment;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import sentiment.stats.DynamoReviewStore;
+import sentiment.stats.ReviewStore;
+import sentiment.stats.SegmentReviewStore;
+
+import java.nio.file.Paths;
+
 /**
  * Request superclass for the sentiment dashboard API.
  */
 public abstract class Request {
 
+  /**
+   * A directory of review segments to serve hot windows from, or null to read only DynamoDB.
+   */
+  private static final String SEGMENT_DIR = System.getenv("REVIEW_SEGMENT_DIR");
+
+  /**
+   * The AWS clients to use while processing this request.
+   */
+  private ClientRegistry clients = ClientRegistry.getInstance();
+
+  /**
+   * The store to read reviews from, or null for the DynamoDB reviews table.
+   */
+  private ReviewStore reviewStore = null;
+
   public Request() {}
 
   public abstract Response process();
-  
+
+  @JsonIgnore
+  public void setClients(ClientRegistry clients) {
+    this.clients = clients;
+  }
+
+  protected ClientRegistry getClients() {
+    return this.clients;
+  }
+
+  @JsonIgnore
+  public void setReviewStore(ReviewStore reviewStore) {
+    this.reviewStore = reviewStore;
+  }
+
+  /**
+   * Returns the store to read reviews from.
+   * Unless another store was set, this is a new reader of the DynamoDB reviews table, behind
+   * the review segments in REVIEW_SEGMENT_DIR if it is set.
+   */
+  protected ReviewStore getReviewStore() {
+    if (this.reviewStore != null) {
+      return this.reviewStore;
+    }
+    ReviewStore store = new DynamoReviewStore(getClients().getDynamoDb());
+    return SEGMENT_DIR != null ? new SegmentReviewStore(Paths.get(SEGMENT_DIR), store) : store;
+  }
+
 }
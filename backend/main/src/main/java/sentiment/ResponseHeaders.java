@@ -0,0 +1,35 @@
+package sentiment;
+
+import sentiment.stats.StatsCache;
+import sentiment.stats.StatsRequest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The HTTP headers sent with every API response, whichever handler served the request.
+ */
+public class ResponseHeaders {
+  private ResponseHeaders() { }
+
+  /**
+   * Builds the headers for the response to a request.
+   * The stats cache hits and misses are running totals of the container that served the
+   * request, so they describe the cache rather than the request. Only the consumed read
+   * capacity is measured for the request alone.
+   * @param request The processed request
+   * @return The header names and values
+   */
+  public static Map<String, String> forRequest(Request request) {
+    StatsCache cache = StatsCache.getInstance();
+    Map<String, String> headers = new LinkedHashMap<String, String>();
+    headers.put("Access-Control-Allow-Origin", "*");
+    headers.put("X-Stats-Cache-Hits", String.valueOf(cache.getHits()));
+    headers.put("X-Stats-Cache-Misses", String.valueOf(cache.getMisses()));
+    if (request instanceof StatsRequest) {
+      headers.put("X-Consumed-Read-Capacity", 
+          String.valueOf(((StatsRequest) request).getConsumedCapacity()));
+    }
+    return headers;
+  }
+}
@@ -0,0 +1,173 @@
+package sentiment;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import sentiment.apps.AppsRequest;
+import sentiment.settings.AppListRequest;
+import sentiment.settings.GetSettingsRequest;
+import sentiment.settings.IgnoreListRequest;
+import sentiment.settings.SetSettingsRequest;
+import sentiment.stats.StatsRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Direct API Gateway -> Lambda handler that bypasses Spring Cloud Function.
+ * The proxy event is streamed for its path and body only, the body is bound with a reader
+ * chosen by path, and the response is written straight to Lambda's output stream.
+ * It routes exactly like Handler, and holds no per-request state, so both can be deployed
+ * side by side to compare latency and memory.
+ */
+public class StreamHandler implements RequestStreamHandler {
+  static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+  /**
+   * A path prefix to remove before routing, for when this handler is mounted beside Handler.
+   */
+  private static final String PATH_PREFIX = System.getenv("PATH_PREFIX");
+
+  /**
+   * The reader for the request body of each path.
+   */
+  private static final Map<String, ObjectReader> READERS = new HashMap<String, ObjectReader>();
+  private static final ObjectReader DEFAULT_READER = MAPPER.readerFor(StatsRequest.class);
+
+  static {
+    READERS.put("/stats", DEFAULT_READER);
+    READERS.put("/apps", MAPPER.readerFor(AppsRequest.class));
+    READERS.put("/settings/apps", MAPPER.readerFor(AppListRequest.class));
+    READERS.put("/settings/keywords", MAPPER.readerFor(IgnoreListRequest.class));
+    READERS.put("/settings/get", MAPPER.readerFor(GetSettingsRequest.class));
+    READERS.put("/settings/set", MAPPER.readerFor(SetSettingsRequest.class));
+  }
+
+  private final ClientRegistry clients;
+
+  public StreamHandler() {
+    this(ClientRegistry.getInstance());
+  }
+
+  /**
+   * Constructs a handler.
+   * @param clients The AWS clients to hand to each request
+   */
+  StreamHandler(ClientRegistry clients) {
+    this.clients = clients;
+  }
+
+  /**
+   * Processes an API Gateway proxy event and writes the proxy response.
+   * @param input The event JSON
+   * @param output The stream to write the response JSON to
+   * @param context The Lambda context
+   */
+  @Override
+  public void handleRequest(InputStream input, OutputStream output, Context context)
+      throws IOException {
+    String path = null;
+    String body = null;
+
+    try (JsonParser parser = FACTORY.createParser(input)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Expected an API Gateway proxy event");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("path") && value == JsonToken.VALUE_STRING) {
+          path = parser.getText();
+        } else if (field.equals("body") && value == JsonToken.VALUE_STRING) {
+          body = parser.getText();
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+
+    Request request = readRequest(path, body);
+    Response response;
+    if (request != null) {
+      request.setClients(clients);
+      response = request.process();
+    } else {
+      response = new Response("Error parsing request");
+    }
+
+    writeResponse(output, request, response);
+  }
+
+  /**
+   * Binds a request body to the request class of its path.
+   * @param path The request path
+   * @param body The request JSON, or null for an empty request
+   * @return The request, or null if it could not be read
+   */
+  static Request readRequest(String path, String body) {
+    try {
+      return getReader(path).readValue(body != null ? body : "{}");
+    } catch (IOException e) {
+      // Jackson wraps exceptions thrown by request constructors, e.g. for an invalid date
+      System.err.println("Error parsing request for " + path + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Returns the paths requests are routed on.
+   */
+  static Set<String> getPaths() {
+    return Collections.unmodifiableSet(READERS.keySet());
+  }
+
+  /**
+   * Finds the reader for a request path.
+   * @param path The path of the API Gateway event
+   * @return The reader for the path, or the stats reader for an unknown path
+   */
+  static ObjectReader getReader(String path) {
+    if (path != null && PATH_PREFIX != null && path.startsWith(PATH_PREFIX)) {
+      path = path.substring(PATH_PREFIX.length());
+    }
+    ObjectReader reader = path != null ? READERS.get(path) : null;
+    return reader != null ? reader : DEFAULT_READER;
+  }
+
+  /**
+   * Writes an API Gateway proxy response.
+   * @param output The stream to write to
+   * @param request The processed request, or null if it could not be read
+   * @param response The response to send as the body
+   */
+  private static void writeResponse(OutputStream output, Request request, Response response)
+      throws IOException {
+    try (JsonGenerator generator = FACTORY.createGenerator(output)) {
+      generator.writeStartObject();
+      generator.writeNumberField("statusCode", 200);
+
+      generator.writeObjectFieldStart("headers");
+      generator.writeStringField("Content-Type", "application/json");
+      for (Map.Entry<String, String> header : ResponseHeaders.forRequest(request).entrySet()) {
+        generator.writeStringField(header.getKey(), header.getValue());
+      }
+      generator.writeEndObject();
+
+      // The proxy integration expects the body as a string of JSON
+      generator.writeStringField("body", MAPPER.writeValueAsString(response));
+      generator.writeEndObject();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package sentiment.apps;
+
+import sentiment.stats.StatsRequest;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The review date range and versions of an app, as derived from DynamoDB.
+ */
+public class AppMetadata {
+  private LocalDate minDate;
+  private LocalDate maxDate;
+  private String[] versions;
+
+  /**
+   * The time this metadata was read from DynamoDB, in milliseconds.
+   */
+  private long created;
+
+  /**
+   * Primary constructor.
+   * @param minDate The date of the earliest review.
+   * @param maxDate The date of the latest review.
+   * @param versions The versions that have reviews, in sorted order.
+   * @param created The time this metadata was read, in milliseconds.
+   */
+  public AppMetadata(LocalDate minDate, LocalDate maxDate, String[] versions, long created) {
+    this.minDate = minDate;
+    this.maxDate = maxDate;
+    this.versions = versions;
+    this.created = created;
+  }
+
+  /**
+   * Derives the metadata from the sort keys of an app's daily rollups.
+   * The rollups of every version, under the "all" version, only count towards the dates.
+   * @param versionDays The "version#yyyy-mm-dd" sort key of each rollup.
+   * @param created The time the rollups were read, in milliseconds.
+   * @return The metadata, or null if there are no rollups.
+   */
+  public static AppMetadata fromVersionDays(Collection<String> versionDays, long created) {
+    LocalDate minDate = null;
+    LocalDate maxDate = null;
+    Set<String> versions = new TreeSet<String>();
+
+    for (String versionDay : versionDays) {
+      // Versions could contain '#', but the day never does
+      int separator = versionDay.lastIndexOf('#');
+      LocalDate day = LocalDate.parse(versionDay.substring(separator + 1));
+      String version = versionDay.substring(0, separator);
+      if (!version.equals(StatsRequest.ALL_VERSIONS)) {
+        versions.add(version);
+      }
+
+      if (minDate == null || day.isBefore(minDate)) {
+        minDate = day;
+      }
+      if (maxDate == null || day.isAfter(maxDate)) {
+        maxDate = day;
+      }
+    }
+
+    if (minDate == null) {
+      return null;
+    }
+    return new AppMetadata(minDate, maxDate, versions.toArray(new String[0]), created);
+  }
+
+  public LocalDate getMinDate() {
+    return this.minDate;
+  }
+
+  public LocalDate getMaxDate() {
+    return this.maxDate;
+  }
+
+  public String[] getVersions() {
+    return this.versions;
+  }
+
+  public long getCreated() {
+    return this.created;
+  }
+}
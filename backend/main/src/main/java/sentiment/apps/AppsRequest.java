@@ -1,12 +1,7 @@
 package sentiment.apps;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.QueryRequest;
-import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
 import com.amazonaws.services.simplesystemsmanagement.model.ParameterNotFoundException;
@@ -16,24 +11,62 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import sentiment.Request;
 import sentiment.Response;
 import sentiment.settings.App;
+import sentiment.stats.ReviewStore;
+import sentiment.stats.RollupStore;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A query for the apps list to populate the frontend forms.
  */
 public class AppsRequest extends Request {
-  private static final String REGION = System.getenv("DEPLOY_REGION");
   private static final String STAGE = System.getenv("STAGE");
-  private static final String TABLE = System.getenv("TABLE_NAME");
+
+  /**
+   * Whether the daily rollup table is populated and may be used to derive app metadata.
+   */
+  private static final boolean USE_ROLLUPS = Boolean.parseBoolean(System.getenv("USE_ROLLUPS"));
+
+  /**
+   * How long app metadata is served before it is read from DynamoDB again, in milliseconds.
+   * Older metadata is still served while the new read runs in the background.
+   */
+  private static final long METADATA_TTL_MILLIS = 60 * 1000;
+
+  /**
+   * The maximum number of apps whose metadata is read at once.
+   */
+  private static final int MAX_CONCURRENT_APPS = 8;
+
+  /**
+   * Shared across invocations so warm containers don't pay for thread creation.
+   * Threads are daemons so they never keep the JVM alive.
+   */
+  private static final ExecutorService EXECUTOR =
+      Executors.newFixedThreadPool(MAX_CONCURRENT_APPS, runnable -> {
+        Thread thread = new Thread(runnable, "app-metadata");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * The most recently read metadata of each app, by appIdStore.
+   */
+  private static final Map<String, AppMetadata> metadataCache =
+      new ConcurrentHashMap<String, AppMetadata>();
+
+  /**
+   * The apps whose metadata is being read again in the background.
+   */
+  private static final Set<String> refreshing = ConcurrentHashMap.newKeySet();
 
   @JsonCreator
   public AppsRequest() { }
@@ -43,7 +76,7 @@ public class AppsRequest extends Request {
    */
   public Response process() {
     // Get app list from SSM
-    AWSSimpleSystemsManagement ssmClient = AWSSimpleSystemsManagementClientBuilder.defaultClient();
+    AWSSimpleSystemsManagement ssmClient = getClients().getSsm();
 
     GetParameterResult result = null;
     String value = null;
@@ -61,113 +94,132 @@ public class AppsRequest extends Request {
       return new AppsResponse("Unable to parse app list from JSON.");
     }
 
-    List<AppInfo> apps = new ArrayList<AppInfo>();
-
-    AmazonDynamoDB dynamoDbClient = 
-        AmazonDynamoDBClientBuilder.standard().withRegion(REGION).build();
+    ReviewStore store = getReviewStore();
 
+    // Read every app's metadata concurrently
+    List<CompletableFuture<AppMetadata>> metadata = new ArrayList<CompletableFuture<AppMetadata>>();
     for (int i = 0; i < appList.length; i++) {
       String appIdStore = appList[i].getAppId() + "*" + appList[i].getStore();
-      String appName = appList[i].getName() + " (" + appList[i].getStore() + ")";
-      AppInfo info = 
-          getAppInfoFromDb(dynamoDbClient, appIdStore, appName, appList[i].getSlackReport());
-      if (info != null) {
+      metadata.add(CompletableFuture.supplyAsync(
+          () -> getAppMetadata(store, appIdStore), EXECUTOR));
+    }
+
+    List<AppInfo> apps = new ArrayList<AppInfo>();
+    for (int i = 0; i < appList.length; i++) {
+      AppMetadata appMetadata = metadata.get(i).join();
+      if (appMetadata != null) {
         // We have reviews for this app
-        apps.add(info);
+        String appIdStore = appList[i].getAppId() + "*" + appList[i].getStore();
+        String appName = appList[i].getName() + " (" + appList[i].getStore() + ")";
+        apps.add(new AppInfo(
+            appIdStore, 
+            appName, 
+            appList[i].getSlackReport(), 
+            appMetadata.getMinDate().toString(), 
+            appMetadata.getMaxDate().toString(), 
+            appMetadata.getVersions()));
       }
     }
 
     return new AppsResponse(apps.toArray(new AppInfo[0]));
   }
 
-  private AppInfo getAppInfoFromDb(
-      AmazonDynamoDB db, 
-      String appIdStore, 
-      String name, 
-      boolean slackReport) {
-    HashMap<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
-    valueMap.put(":id", new AttributeValue().withS(appIdStore));
-
-    // Run two DynamoDB queries - one for max date value and one for min date value
-    // Each query sorts reviews for this app by date and takes the first result
-    QueryRequest minDateQuery = new QueryRequest()
-        .withTableName(TABLE).withIndexName("date")
-        .withKeyConditionExpression("appIdStore = :id")
-        .withExpressionAttributeValues(valueMap)
-        .withLimit(1);
-
-    QueryRequest maxDateQuery = new QueryRequest()
-        .withTableName(TABLE).withIndexName("date")
-        .withKeyConditionExpression("appIdStore = :id")
-        .withExpressionAttributeValues(valueMap)
-        .withLimit(1)
-        .withScanIndexForward(false);
-    
-    QueryResult queryResult = null;
-    String date = null;
-
-    DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
-    LocalDate minDate = null;
-    LocalDate maxDate = null;
-
-    try {
-      queryResult = db.query(minDateQuery);
-      if (queryResult.getCount() == 0) {
-        // No reviews for this app yet
-        return null;
-      }
+  /**
+   * Get an app's review date range and versions, reusing previously read metadata.
+   * Only an app's first read is waited for; once metadata is older than the TTL it is still
+   * returned, and read again in the background for later requests.
+   * @param store The review store to use
+   * @param appIdStore The App ID and Store for the app
+   * @return The app's metadata, or null if it has no reviews or could not be read
+   */
+  private AppMetadata getAppMetadata(ReviewStore store, String appIdStore) {
+    AppMetadata cached = metadataCache.get(appIdStore);
+    if (cached == null) {
+      return readAppMetadata(store, appIdStore);
+    }
 
-      date = queryResult.getItems().get(0).get("date").getS();
-      minDate = LocalDate.parse(date, formatter);
+    if (System.currentTimeMillis() - cached.getCreated() >= METADATA_TTL_MILLIS
+        && refreshing.add(appIdStore)) {
+      // One read per app at a time; a frozen Lambda container finishes it when next invoked
+      EXECUTOR.execute(() -> {
+        try {
+          readAppMetadata(store, appIdStore);
+        } finally {
+          refreshing.remove(appIdStore);
+        }
+      });
+    }
+    return cached;
+  }
 
-      queryResult = db.query(maxDateQuery);
-      if (queryResult.getCount() == 0) {
-        // No reviews for this app yet
-        return null;
-      }
+  /**
+   * Read an app's review date range and versions, and cache them if they could be read.
+   * Failed reads leave any previously cached metadata in place.
+   * @param store The review store to use
+   * @param appIdStore The App ID and Store for the app
+   * @return The app's metadata, or null if it has no reviews or could not be read
+   */
+  private AppMetadata readAppMetadata(ReviewStore store, String appIdStore) {
+    long now = System.currentTimeMillis();
+    AppMetadata metadata = USE_ROLLUPS
+        ? getAppMetadataFromRollups(getClients().getDynamoDb(), appIdStore, now)
+        : getAppMetadataFromReviews(store, appIdStore, now);
+    if (metadata != null) {
+      metadataCache.put(appIdStore, metadata);
+    }
+    return metadata;
+  }
 
-      date = queryResult.getItems().get(0).get("date").getS();
-      maxDate = LocalDate.parse(date, formatter);
-      
+  /**
+   * Derive an app's metadata from the keys of its daily rollups with a single query.
+   * @param db The DynamoDB client to use
+   * @param appIdStore The App ID and Store for the app
+   * @param now The current time, in milliseconds
+   * @return The app's metadata, or null if it has no reviews or could not be read
+   */
+  private AppMetadata getAppMetadataFromRollups(AmazonDynamoDB db, String appIdStore, long now) {
+    try {
+      return AppMetadata.fromVersionDays(new RollupStore(db).fetchVersionDays(appIdStore), now);
     } catch (Exception exp) {
-      System.err.println("Unable to get date range from DyanmoDB for app " + appIdStore);
+      System.err.println("Unable to get rollups from DyanmoDB for app " + appIdStore);
       System.err.println(exp.getMessage());
+      return null;
     }
+  }
 
-    // Run one DynamoDB query to get a list of the version numbers for this app's reviews
-    // The resulting list is then inserted into a HashSet to remove duplicates
-    QueryRequest versionsQuery = new QueryRequest()
-        .withTableName(TABLE).withIndexName("date")
-        .withKeyConditionExpression("appIdStore = :id")
-        .withExpressionAttributeValues(valueMap)
-        .withProjectionExpression("version");
-    
-    queryResult = null;
-    List<Map<String, AttributeValue>> items = null;
-    Set<String> versionsSet = new HashSet<String>();
+  /**
+   * Read an app's date range and versions from the review store.
+   * @param store The review store to use
+   * @param appIdStore The App ID and Store for the app
+   * @param now The current time, in milliseconds
+   * @return The app's metadata, or null if it has no reviews or could not be read
+   */
+  private AppMetadata getAppMetadataFromReviews(ReviewStore store, String appIdStore, long now) {
+    LocalDate minDate = null;
+    LocalDate maxDate = null;
 
     try {
-      queryResult = db.query(versionsQuery);
-      items = queryResult.getItems();
+      minDate = store.getMinDate(appIdStore);
+      maxDate = store.getMaxDate(appIdStore);
+    } catch (Exception exp) {
+      System.err.println("Unable to get date range from the review store for app " + appIdStore);
+      System.err.println(exp.getMessage());
+      return null;
+    }
 
-      for (Map<String, AttributeValue> item : items) {
-        versionsSet.add(item.get("version").getS());
-      }
+    if (minDate == null || maxDate == null) {
+      // No reviews for this app yet
+      return null;
+    }
+
+    String[] versions = new String[0];
+    try {
+      versions = store.getVersions(appIdStore);
     } catch (Exception exp) {
-      System.err.println("Unable to get version values from DyanmoDB for app " + appIdStore);
+      System.err.println("Unable to get versions from the review store for app " + appIdStore);
       System.err.println(exp.getMessage());
     }
 
-    String[] versions = versionsSet.toArray(new String[0]);
-    Arrays.sort(versions);
-
-    // Create an AppInfo object
-    return new AppInfo(
-        appIdStore, 
-        name, 
-        slackReport, 
-        minDate.toString(), 
-        maxDate.toString(), 
-        versions);
+    return new AppMetadata(minDate, maxDate, versions, now);
   }
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package sentiment.settings;
 
 import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
 import com.amazonaws.services.lambda.model.InvocationType;
 import com.amazonaws.services.lambda.model.InvokeRequest;
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
@@ -44,9 +43,7 @@ public class AppListRequest extends ListRequest<App> {
    * Runs the scraper Lambda.
    */
   private void runScraper() {
-    AWSLambda client = AWSLambdaClientBuilder.standard()
-        .withRegion(Constants.REGION)
-        .build();
+    AWSLambda client = getClients().getLambda();
     
     String functionName = "sentiment-dashboard-" + Constants.STAGE + "-reviews";
     InvokeRequest req = new InvokeRequest()
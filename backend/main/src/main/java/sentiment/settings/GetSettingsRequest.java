@@ -1,7 +1,6 @@
 package sentiment.settings;
 
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
 import com.amazonaws.services.simplesystemsmanagement.model.ParameterNotFoundException;
@@ -27,12 +26,14 @@ public class GetSettingsRequest extends Request {
    * Process the data for this request and return a response.
    */
   public Response process() {
+    AWSSimpleSystemsManagement client = getClients().getSsm();
+
     Setting[] results = new Setting[this.names.length];
     for (int i = 0; i < this.names.length; i++) {
       String settingName = this.names[i];
 
       // We add the stage to maintain parameter isolation between stages in SSM.
-      String settingValue = this.getSetting(Constants.concatStage(this.names[i]));
+      String settingValue = this.getSetting(client, Constants.concatStage(this.names[i]));
 
       if (settingValue == null) {
         return new GetSettingsResponse( "Could not retrieve " + settingName + " from SSM.");
@@ -44,9 +45,7 @@ public class GetSettingsRequest extends Request {
     return new GetSettingsResponse(results);
   }
 
-  private String getSetting(String name) {
-    AWSSimpleSystemsManagement client = AWSSimpleSystemsManagementClientBuilder.defaultClient();
-
+  private String getSetting(AWSSimpleSystemsManagement client, String name) {
     GetParameterResult result = null;
     String value = null;
     try {
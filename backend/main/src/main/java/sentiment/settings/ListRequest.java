@@ -1,7 +1,6 @@
 package sentiment.settings;
 
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
 import com.amazonaws.services.simplesystemsmanagement.model.ParameterNotFoundException;
@@ -50,7 +49,7 @@ public abstract class ListRequest<T> extends Request {
    * Process the data for this request and return a response.
    */
   public Response process() {
-    AWSSimpleSystemsManagement client = AWSSimpleSystemsManagementClientBuilder.defaultClient();
+    AWSSimpleSystemsManagement client = getClients().getSsm();
     String message = getList(client);
 
     if (!message.isEmpty()) {
@@ -1,10 +1,8 @@
 package sentiment.settings;
 
 import com.amazonaws.services.cloudwatchevents.AmazonCloudWatchEvents;
-import com.amazonaws.services.cloudwatchevents.AmazonCloudWatchEventsClient;
 import com.amazonaws.services.cloudwatchevents.model.PutRuleRequest;
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
 import com.amazonaws.services.simplesystemsmanagement.model.ParameterType;
 import com.amazonaws.services.simplesystemsmanagement.model.PutParameterRequest;
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -51,7 +49,7 @@ public class SetSettingsRequest extends Request {
   }
 
   private String setSetting(String name, String value) {
-    AWSSimpleSystemsManagement client = AWSSimpleSystemsManagementClientBuilder.defaultClient();
+    AWSSimpleSystemsManagement client = getClients().getSsm();
 
     try {
       client.putParameter(new PutParameterRequest()
@@ -106,7 +104,7 @@ public class SetSettingsRequest extends Request {
     }
 
     // Update CloudWatch Event to set new Lambda interval, if necessary
-    AmazonCloudWatchEvents cwe = AmazonCloudWatchEventsClient.builder().build();
+    AmazonCloudWatchEvents cwe = getClients().getCloudWatchEvents();
 
     PutRuleRequest request = new PutRuleRequest()
         .withName(cloudWatchEventName)
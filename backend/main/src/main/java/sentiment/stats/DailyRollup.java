@@ -0,0 +1,124 @@
+package sentiment.stats;
+
+/**
+ * Pre-aggregated review counts for one app version on one day.
+ * Holds the per-sentiment review counts and the raw keyword histograms of positive and
+ * negative reviews, which is everything the sentiment and keyword stats need.
+ */
+public class DailyRollup {
+  private int epochDay;
+
+  /**
+   * The total number of reviews, including any with an unrecognized sentiment.
+   */
+  private int total = 0;
+
+  /**
+   * The number of reviews with each sentiment, indexed by Sentiment ordinal.
+   */
+  private int[] sentimentCounts = new int[Sentiment.values().length];
+
+  /**
+   * Keyword occurrences in positive reviews, before lowercasing or ignore-list filtering.
+   */
+  private KeywordCounter positiveKeywords = new KeywordCounter();
+
+  /**
+   * Keyword occurrences in negative reviews, before lowercasing or ignore-list filtering.
+   */
+  private KeywordCounter negativeKeywords = new KeywordCounter();
+
+  /**
+   * Whether keyword occurrences are counted, or only reviews.
+   */
+  private boolean countsKeywords;
+
+  public DailyRollup(int epochDay) {
+    this(epochDay, true);
+  }
+
+  /**
+   * Creates an empty rollup.
+   * @param epochDay The day, in days since 1970-01-01.
+   * @param countsKeywords Whether to count keyword occurrences, which only keyword stats need.
+   */
+  public DailyRollup(int epochDay, boolean countsKeywords) {
+    this.epochDay = epochDay;
+    this.countsKeywords = countsKeywords;
+  }
+
+  /**
+   * Adds a single review to this rollup.
+   * @param batch The batch containing the review.
+   * @param row The review's row in the batch.
+   */
+  public void add(ReviewBatch batch, int row) {
+    total++;
+
+    Sentiment sentiment = batch.getSentiment(row);
+    if (sentiment == null) {
+      return;
+    }
+    sentimentCounts[sentiment.ordinal()]++;
+
+    KeywordCounter keywords = getKeywords(sentiment);
+    if (keywords != null && countsKeywords) {
+      for (int i = batch.getKeywordStart(row); i < batch.getKeywordEnd(row); i++) {
+        keywords.increment(batch.getKeyword(batch.getKeywordId(i)));
+      }
+    }
+  }
+
+  /**
+   * Adds another rollup's counts to this one.
+   * @param other The rollup to merge in.
+   */
+  public void merge(DailyRollup other) {
+    total += other.total;
+    for (int i = 0; i < sentimentCounts.length; i++) {
+      sentimentCounts[i] += other.sentimentCounts[i];
+    }
+    other.positiveKeywords.forEach(positiveKeywords::add);
+    other.negativeKeywords.forEach(negativeKeywords::add);
+  }
+
+  public int getEpochDay() {
+    return this.epochDay;
+  }
+
+  public boolean countsKeywords() {
+    return this.countsKeywords;
+  }
+
+  public int getTotal() {
+    return this.total;
+  }
+
+  public int getSentimentCount(Sentiment sentiment) {
+    return this.sentimentCounts[sentiment.ordinal()];
+  }
+
+  /**
+   * Returns the keyword histogram for reviews with the given sentiment.
+   * @param sentiment The review sentiment.
+   * @return The histogram, or null if keywords are not tracked for this sentiment.
+   */
+  public KeywordCounter getKeywords(Sentiment sentiment) {
+    switch (sentiment) {
+      case POSITIVE:
+        return positiveKeywords;
+      case NEGATIVE:
+        return negativeKeywords;
+      default:
+        return null;
+    }
+  }
+
+  void addTotal(int count) {
+    total += count;
+  }
+
+  void addSentimentCount(Sentiment sentiment, int count) {
+    sentimentCounts[sentiment.ordinal()] += count;
+  }
+}
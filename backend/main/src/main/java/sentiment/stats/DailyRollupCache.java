@@ -0,0 +1,189 @@
+package sentiment.stats;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A weight-bounded, expiring cache of the daily aggregates of days that no longer receive
+ * reviews as they are written.
+ * Windows that end today are recalculated by merging the cached days with queries for only
+ * the days that aren't cached, so a refresh reads the new reviews rather than the whole window.
+ * A scrape can still store late reviews of a cached day, so days expire and are read again.
+ * Each day weighs one plus its number of distinct keywords, which dominate its size.
+ * The cache is held statically so warm Lambda containers reuse days across requests.
+ */
+public class DailyRollupCache {
+  private static final long DEFAULT_MAX_WEIGHT = 1 << 20;
+  private static final long DEFAULT_TTL_SECONDS = 3600;
+
+  /**
+   * The number of days before today that may still receive late reviews.
+   */
+  private static final int MUTABLE_DAYS = 1;
+
+  private static final DailyRollupCache INSTANCE = new DailyRollupCache(
+      StatsCache.parseSetting("DAILY_ROLLUP_CACHE_WEIGHT", DEFAULT_MAX_WEIGHT),
+      StatsCache.parseSetting("DAILY_ROLLUP_CACHE_TTL_SECONDS", DEFAULT_TTL_SECONDS) * 1000,
+      System::currentTimeMillis);
+
+  /**
+   * The cached days, least recently used first. Cached rollups are shared and must not be
+   * modified.
+   */
+  private final LinkedHashMap<Key, CachedDay> days;
+
+  /**
+   * The total weight of the days to keep before evicting the least recently used.
+   */
+  private final long maxWeight;
+
+  /**
+   * How long a day may be served after it was aggregated, in milliseconds.
+   */
+  private final long ttlMillis;
+
+  /**
+   * The clock used to expire days, in milliseconds.
+   */
+  private final LongSupplier clock;
+
+  /**
+   * The total weight of the cached days.
+   */
+  private long weight = 0;
+
+  /**
+   * Creates a cache.
+   * @param maxWeight The total weight of the days to keep before evicting the least recently
+   *     used.
+   * @param ttlMillis How long a day may be served, in milliseconds.
+   * @param clock The current time, in milliseconds.
+   */
+  DailyRollupCache(long maxWeight, long ttlMillis, LongSupplier clock) {
+    this.maxWeight = maxWeight;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.days = new LinkedHashMap<Key, CachedDay>(16, 0.75f, true);
+  }
+
+  public static DailyRollupCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the last day whose reviews are no longer written by each scrape.
+   * @return The day, in days since 1970-01-01
+   */
+  public static int getLastImmutableDay() {
+    return (int) LocalDate.now(ZoneOffset.UTC).minusDays(MUTABLE_DAYS + 1).toEpochDay();
+  }
+
+  /**
+   * Looks up the aggregate of a day.
+   * @param appIdStore The appId and store of the reviews
+   * @param version The app version of the reviews, or null for every version
+   * @param epochDay The day, in days since 1970-01-01
+   * @param needsKeywords Whether the aggregate must have counted keyword occurrences
+   * @return The aggregate, or null if the day is not cached, has expired, or has no keywords
+   */
+  public DailyRollup get(String appIdStore, String version, int epochDay, boolean needsKeywords) {
+    Key key = new Key(appIdStore, version, epochDay);
+    long now = clock.getAsLong();
+    synchronized (days) {
+      CachedDay cached = days.get(key);
+      if (cached == null) {
+        return null;
+      }
+      if (now - cached.created >= ttlMillis) {
+        days.remove(key);
+        weight -= cached.weight;
+        return null;
+      }
+      return !needsKeywords || cached.rollup.countsKeywords() ? cached.rollup : null;
+    }
+  }
+
+  /**
+   * Stores the aggregate of an immutable day, replacing any aggregate of it.
+   * @param appIdStore The appId and store of the reviews
+   * @param version The app version of the reviews, or null for every version
+   * @param rollup The aggregate, which must not be modified afterwards
+   */
+  public void put(String appIdStore, String version, DailyRollup rollup) {
+    Key key = new Key(appIdStore, version, rollup.getEpochDay());
+    CachedDay day = new CachedDay(rollup, clock.getAsLong());
+    synchronized (days) {
+      CachedDay previous = days.put(key, day);
+      if (previous != null) {
+        weight -= previous.weight;
+      }
+      weight += day.weight;
+
+      Iterator<CachedDay> eldest = days.values().iterator();
+      while (weight > maxWeight && eldest.hasNext()) {
+        weight -= eldest.next().weight;
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the total weight of the cached days.
+   */
+  long getWeight() {
+    synchronized (days) {
+      return weight;
+    }
+  }
+
+  /**
+   * A cached aggregate, with the time it was aggregated.
+   */
+  private static final class CachedDay {
+    private final DailyRollup rollup;
+    private final long created;
+    private final long weight;
+
+    private CachedDay(DailyRollup rollup, long created) {
+      this.rollup = rollup;
+      this.created = created;
+      this.weight = 1 + rollup.getKeywords(Sentiment.POSITIVE).size()
+          + rollup.getKeywords(Sentiment.NEGATIVE).size();
+    }
+  }
+
+  /**
+   * The reviews a day was aggregated from.
+   */
+  private static final class Key {
+    private final String appIdStore;
+    private final String version;
+    private final int epochDay;
+
+    private Key(String appIdStore, String version, int epochDay) {
+      this.appIdStore = appIdStore;
+      this.version = version;
+      this.epochDay = epochDay;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return Objects.equals(appIdStore, key.appIdStore)
+          && Objects.equals(version, key.version)
+          && epochDay == key.epochDay;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(appIdStore, version, epochDay);
+    }
+  }
+}
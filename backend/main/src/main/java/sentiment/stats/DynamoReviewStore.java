@@ -0,0 +1,125 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Reads reviews from the DynamoDB reviews table.
+ * Date ranges are read through a ReviewFetcher, and an app's date range and versions from the
+ * date index.
+ */
+public class DynamoReviewStore implements ReviewStore {
+  private static final String TABLE = System.getenv("TABLE_NAME");
+
+  /**
+   * The DynamoDB client to use.
+   */
+  private final AmazonDynamoDB db;
+
+  private final ReviewFetcher fetcher;
+
+  /**
+   * The read capacity consumed by date and version queries.
+   */
+  private final DoubleAdder consumedCapacity = new DoubleAdder();
+
+  /**
+   * Constructs a store.
+   * @param db The DynamoDB client to use
+   */
+  public DynamoReviewStore(AmazonDynamoDB db) {
+    this.db = db;
+    this.fetcher = new ReviewFetcher(db);
+  }
+
+  public AmazonDynamoDB getDb() {
+    return this.db;
+  }
+
+  @Override
+  public List<Map<String, AttributeValue>> query(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate)
+      throws Exception {
+    return fetcher.fetch(appIdStore, version, startDate, endDate);
+  }
+
+  @Override
+  public LocalDate getMinDate(String appIdStore) {
+    return getEdgeDate(appIdStore, true);
+  }
+
+  @Override
+  public LocalDate getMaxDate(String appIdStore) {
+    return getEdgeDate(appIdStore, false);
+  }
+
+  /**
+   * Query every page of version numbers for this app's reviews.
+   * The results are inserted into a sorted set to remove duplicates.
+   */
+  @Override
+  public String[] getVersions(String appIdStore) {
+    QueryRequest versionsQuery = createAppQuery(appIdStore)
+        .withProjectionExpression("version");
+
+    Set<String> versions = new TreeSet<String>();
+    Map<String, AttributeValue> lastKey = null;
+    do {
+      QueryResult result = db.query(versionsQuery.withExclusiveStartKey(lastKey));
+      consumedCapacity.add(ReviewQueryPlanner.getCapacityUnits(result));
+      for (Map<String, AttributeValue> item : result.getItems()) {
+        versions.add(item.get("version").getS());
+      }
+      lastKey = result.getLastEvaluatedKey();
+    } while (lastKey != null && !lastKey.isEmpty());
+
+    return versions.toArray(new String[0]);
+  }
+
+  @Override
+  public double getConsumedCapacity() {
+    return fetcher.getConsumedCapacity() + consumedCapacity.sum();
+  }
+
+  /**
+   * Sort an app's reviews by date and take the first or last.
+   * @param appIdStore The App ID and Store for the app
+   * @param first True for the first review, false for the last
+   * @return The date of the review, or null if the app has no reviews
+   */
+  private LocalDate getEdgeDate(String appIdStore, boolean first) {
+    QueryResult result = db.query(createAppQuery(appIdStore)
+        .withLimit(1)
+        .withScanIndexForward(first));
+    consumedCapacity.add(ReviewQueryPlanner.getCapacityUnits(result));
+    if (result.getCount() == 0) {
+      return null;
+    }
+
+    String date = result.getItems().get(0).get("date").getS();
+    return LocalDate.parse(date, DateTimeFormatter.ISO_DATE_TIME);
+  }
+
+  private static QueryRequest createAppQuery(String appIdStore) {
+    HashMap<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+    valueMap.put(":id", new AttributeValue().withS(appIdStore));
+
+    return new QueryRequest()
+        .withTableName(TABLE).withIndexName(ReviewQueryPlanner.DATE_INDEX)
+        .withKeyConditionExpression("appIdStore = :id")
+        .withExpressionAttributeValues(valueMap)
+        .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+  }
+}
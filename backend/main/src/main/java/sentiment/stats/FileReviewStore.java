@@ -0,0 +1,311 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds reviews in an append-only file that is memory-mapped for reading.
+ * Each record is a length followed by the review's attributes, and a zero length marks the end
+ * of the records. Opening the file scans the records once to rebuild a sorted index of their
+ * offsets, and queries decode the records in range straight from the mapping.
+ * The mapping grows by doubling, up to the 2 GB a single mapping can address.
+ */
+public class FileReviewStore implements ReviewStore, Closeable {
+  private static final int DEFAULT_INITIAL_SIZE = 1 << 20;
+  private static final int LENGTH_BYTES = Integer.BYTES;
+
+  private static final byte TYPE_STRING = 'S';
+  private static final byte TYPE_NUMBER = 'N';
+  private static final byte TYPE_BOOLEAN = 'B';
+  private static final byte TYPE_NULL = '0';
+  private static final byte TYPE_LIST = 'L';
+  private static final byte TYPE_MAP = 'M';
+  private static final byte TYPE_STRING_SET = 's';
+  private static final byte TYPE_NUMBER_SET = 'n';
+
+  private final FileChannel channel;
+
+  /**
+   * The current mapping of the file. Readers work on duplicates, so it may be replaced while
+   * they read the previous one.
+   */
+  private volatile MappedByteBuffer mapping;
+
+  /**
+   * The offset after the last record. Guarded by this.
+   */
+  private int end;
+
+  private final ReviewIndex<Location> index = new ReviewIndex<Location>();
+
+  /**
+   * Opens a store, creating the file if it doesn't exist.
+   * @param path The file
+   * @throws IOException If the file could not be opened or holds an invalid record
+   */
+  public FileReviewStore(Path path) throws IOException {
+    this(path, DEFAULT_INITIAL_SIZE);
+  }
+
+  /**
+   * Opens a store.
+   * @param path The file
+   * @param initialSize The size to map a new or smaller file at, in bytes
+   * @throws IOException If the file could not be opened or holds an invalid record
+   */
+  FileReviewStore(Path path, int initialSize) throws IOException {
+    this.channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.mapping = map(Math.max(channel.size(), initialSize));
+
+    // Rebuild the index from the records written before
+    ByteBuffer view = mapping.duplicate();
+    int offset = 0;
+    while (offset + LENGTH_BYTES <= view.capacity()) {
+      int length = view.getInt(offset);
+      if (length == 0) {
+        break;
+      }
+      try {
+        view.position(offset + LENGTH_BYTES);
+        Map<String, AttributeValue> item = readItem(view);
+        index.put(item, new Location(offset, item.get("version").getS()));
+      } catch (RuntimeException exp) {
+        channel.close();
+        throw new IOException("Invalid review record at offset " + offset, exp);
+      }
+      offset += LENGTH_BYTES + length;
+    }
+    this.end = offset;
+  }
+
+  /**
+   * Appends a review. A later review with the same app, date and hash replaces it.
+   * @param item The review
+   * @throws IOException If the file could not grow
+   */
+  public synchronized void add(Map<String, AttributeValue> item) throws IOException {
+    byte[] record = encode(item);
+    // Room is kept for the zero length that ends the records
+    long needed = (long) end + LENGTH_BYTES + record.length + LENGTH_BYTES;
+    if (needed > mapping.capacity()) {
+      if (needed > Integer.MAX_VALUE) {
+        throw new IOException("Review file is full");
+      }
+      mapping = map(Math.min(Math.max(needed, 2L * mapping.capacity()), Integer.MAX_VALUE));
+    }
+
+    ByteBuffer view = mapping.duplicate();
+    view.position(end + LENGTH_BYTES);
+    view.put(record);
+    // The length is written last, so a partly written record is never read back
+    view.putInt(end, record.length);
+
+    index.put(item, new Location(end, item.get("version").getS()));
+    end += LENGTH_BYTES + record.length;
+  }
+
+  /**
+   * Appends reviews.
+   * @param items The reviews
+   * @throws IOException If the file could not grow
+   */
+  public synchronized void addAll(List<Map<String, AttributeValue>> items) throws IOException {
+    for (Map<String, AttributeValue> item : items) {
+      add(item);
+    }
+  }
+
+  /**
+   * Writes every mapped change to the file.
+   */
+  public void flush() {
+    mapping.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    channel.close();
+  }
+
+  @Override
+  public List<Map<String, AttributeValue>> query(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate) {
+    ByteBuffer view = mapping.duplicate();
+    List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+    for (Location location : index.range(appIdStore, startDate, endDate)) {
+      if (version == null || version.equals(location.version)) {
+        view.position(location.offset + LENGTH_BYTES);
+        items.add(readItem(view));
+      }
+    }
+    return items;
+  }
+
+  @Override
+  public LocalDate getMinDate(String appIdStore) {
+    return index.getMinDate(appIdStore);
+  }
+
+  @Override
+  public LocalDate getMaxDate(String appIdStore) {
+    return index.getMaxDate(appIdStore);
+  }
+
+  @Override
+  public String[] getVersions(String appIdStore) {
+    return index.getVersions(appIdStore);
+  }
+
+  private MappedByteBuffer map(long size) throws IOException {
+    // Mapping past the end of the file extends it
+    return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private static byte[] encode(Map<String, AttributeValue> item) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    writeItem(output, item);
+    output.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeItem(DataOutputStream output, Map<String, AttributeValue> item)
+      throws IOException {
+    output.writeInt(item.size());
+    for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+      writeString(output, attribute.getKey());
+      writeValue(output, attribute.getValue());
+    }
+  }
+
+  private static void writeValue(DataOutputStream output, AttributeValue value)
+      throws IOException {
+    if (value.getS() != null) {
+      output.writeByte(TYPE_STRING);
+      writeString(output, value.getS());
+    } else if (value.getN() != null) {
+      output.writeByte(TYPE_NUMBER);
+      writeString(output, value.getN());
+    } else if (value.getBOOL() != null) {
+      output.writeByte(TYPE_BOOLEAN);
+      output.writeBoolean(value.getBOOL());
+    } else if (value.getL() != null) {
+      output.writeByte(TYPE_LIST);
+      output.writeInt(value.getL().size());
+      for (AttributeValue element : value.getL()) {
+        writeValue(output, element);
+      }
+    } else if (value.getM() != null) {
+      output.writeByte(TYPE_MAP);
+      writeItem(output, value.getM());
+    } else if (value.getSS() != null) {
+      output.writeByte(TYPE_STRING_SET);
+      writeStrings(output, value.getSS());
+    } else if (value.getNS() != null) {
+      output.writeByte(TYPE_NUMBER_SET);
+      writeStrings(output, value.getNS());
+    } else if (Boolean.TRUE.equals(value.getNULL())) {
+      output.writeByte(TYPE_NULL);
+    } else {
+      throw new IOException("Unsupported attribute value " + value);
+    }
+  }
+
+  private static void writeStrings(DataOutputStream output, List<String> values)
+      throws IOException {
+    output.writeInt(values.size());
+    for (String value : values) {
+      writeString(output, value);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static Map<String, AttributeValue> readItem(ByteBuffer input) {
+    int size = input.getInt();
+    Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(size * 2);
+    for (int i = 0; i < size; i++) {
+      String name = readString(input);
+      item.put(name, readValue(input));
+    }
+    return item;
+  }
+
+  private static AttributeValue readValue(ByteBuffer input) {
+    byte type = input.get();
+    switch (type) {
+      case TYPE_STRING:
+        return new AttributeValue().withS(readString(input));
+      case TYPE_NUMBER:
+        return new AttributeValue().withN(readString(input));
+      case TYPE_BOOLEAN:
+        return new AttributeValue().withBOOL(input.get() != 0);
+      case TYPE_NULL:
+        return new AttributeValue().withNULL(true);
+      case TYPE_LIST:
+        int size = input.getInt();
+        List<AttributeValue> list = new ArrayList<AttributeValue>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(input));
+        }
+        return new AttributeValue().withL(list);
+      case TYPE_MAP:
+        return new AttributeValue().withM(readItem(input));
+      case TYPE_STRING_SET:
+        return new AttributeValue().withSS(readStrings(input));
+      case TYPE_NUMBER_SET:
+        return new AttributeValue().withNS(readStrings(input));
+      default:
+        throw new IllegalStateException("Invalid attribute type " + type);
+    }
+  }
+
+  private static List<String> readStrings(ByteBuffer input) {
+    int size = input.getInt();
+    List<String> values = new ArrayList<String>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(readString(input));
+    }
+    return values;
+  }
+
+  private static String readString(ByteBuffer input) {
+    byte[] bytes = new byte[input.getInt()];
+    input.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Where a review's record starts, and its version for filtering without decoding it.
+   */
+  private static final class Location {
+    private final int offset;
+    private final String version;
+
+    private Location(int offset, String version) {
+      this.offset = offset;
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package sentiment.stats;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The size of the time buckets a chart's reviews are counted in.
+ * Buckets are numbered by their offset from the epoch, so consecutive buckets have
+ * consecutive numbers and bucketing a review is pure integer arithmetic.
+ */
+public enum Granularity {
+  HOUR("MMMM dd HH:mm") {
+    long bucket(int epochDay, int hour) {
+      return (long) epochDay * 24 + hour;
+    }
+
+    LocalDateTime start(long bucket) {
+      return LocalDate.ofEpochDay(Math.floorDiv(bucket, 24))
+          .atTime((int) Math.floorMod(bucket, 24), 0);
+    }
+  },
+  DAY("MMMM dd") {
+    long bucket(int epochDay, int hour) {
+      return epochDay;
+    }
+
+    LocalDateTime start(long bucket) {
+      return LocalDate.ofEpochDay(bucket).atStartOfDay();
+    }
+  },
+  WEEK("MMMM dd") {
+    long bucket(int epochDay, int hour) {
+      // ISO weeks start on Monday, and 1970-01-01 was a Thursday
+      return Math.floorDiv(epochDay + 3, 7);
+    }
+
+    LocalDateTime start(long bucket) {
+      return LocalDate.ofEpochDay(bucket * 7 - 3).atStartOfDay();
+    }
+  },
+  MONTH("MMMM yyyy") {
+    long bucket(int epochDay, int hour) {
+      return IsoDates.toEpochMonth(epochDay);
+    }
+
+    LocalDateTime start(long bucket) {
+      return LocalDate.of((int) Math.floorDiv(bucket, 12), (int) Math.floorMod(bucket, 12) + 1, 1)
+          .atStartOfDay();
+    }
+  };
+
+  /**
+   * Formats the chart label of each bucket.
+   */
+  private final DateTimeFormatter labelFormatter;
+
+  Granularity(String labelPattern) {
+    this.labelFormatter = DateTimeFormatter.ofPattern(labelPattern);
+  }
+
+  /**
+   * Returns the bucket containing a time.
+   * @param epochDay The number of days since 1970-01-01.
+   * @param hour The hour of day, only used by HOUR.
+   * @return The bucket number.
+   */
+  abstract long bucket(int epochDay, int hour);
+
+  /**
+   * Returns the start of a bucket.
+   * @param bucket The bucket number.
+   * @return The first moment in the bucket.
+   */
+  abstract LocalDateTime start(long bucket);
+
+  /**
+   * Creates the chart label for a bucket.
+   * @param bucket The bucket number.
+   * @param windowStart The start of the chart, which may fall partway through the first bucket.
+   * @return The label.
+   */
+  String label(long bucket, LocalDateTime windowStart) {
+    LocalDateTime start = start(bucket);
+    return (start.isBefore(windowStart) ? windowStart : start).format(labelFormatter);
+  }
+
+  /**
+   * Returns the next larger granularity.
+   * @return The granularity, or this one if it is already the largest.
+   */
+  Granularity coarser() {
+    return this == MONTH ? MONTH : values()[ordinal() + 1];
+  }
+
+  /**
+   * Parses a granularity name, ignoring case.
+   * @param name The name, such as "week".
+   * @return The granularity, or null if the name is not recognized.
+   */
+  public static Granularity parse(String name) {
+    for (Granularity granularity : values()) {
+      if (granularity.name().equalsIgnoreCase(name)) {
+        return granularity;
+      }
+    }
+    return null;
+  }
+}
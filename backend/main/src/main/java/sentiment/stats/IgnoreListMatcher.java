@@ -0,0 +1,172 @@
+package sentiment.stats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton over the keyword ignore list.
+ * Checks whether a keyword contains any ignored word in a single pass over the keyword,
+ * regardless of how many words are on the list.
+ */
+public class IgnoreListMatcher {
+  private static final int ROOT = 0;
+
+  /**
+   * Sorted outgoing edge labels for each node.
+   */
+  private char[][] labels;
+
+  /**
+   * Edge targets for each node, parallel to labels.
+   */
+  private int[][] targets;
+
+  /**
+   * Failure link for each node: the longest proper suffix that is also a trie path.
+   */
+  private int[] fail;
+
+  /**
+   * Whether reaching each node means some ignored word has been matched.
+   */
+  private boolean[] output;
+
+  /**
+   * Whether the list contains the empty string, which is contained in every keyword.
+   */
+  private boolean matchesEverything;
+
+  /**
+   * Compiles an ignore list into a matcher.
+   * @param words The words to ignore.
+   */
+  public IgnoreListMatcher(List<String> words) {
+    List<char[]> nodeLabels = new ArrayList<char[]>();
+    List<int[]> nodeTargets = new ArrayList<int[]>();
+    List<Boolean> nodeOutput = new ArrayList<Boolean>();
+    nodeLabels.add(new char[0]);
+    nodeTargets.add(new int[0]);
+    nodeOutput.add(false);
+
+    // Build the trie
+    for (String word : words) {
+      if (word.isEmpty()) {
+        matchesEverything = true;
+        continue;
+      }
+
+      int node = ROOT;
+      for (int i = 0; i < word.length(); i++) {
+        char c = word.charAt(i);
+        char[] nodeChars = nodeLabels.get(node);
+        int index = Arrays.binarySearch(nodeChars, c);
+        if (index >= 0) {
+          node = nodeTargets.get(node)[index];
+          continue;
+        }
+
+        // Insert a new edge, keeping the labels sorted
+        int next = nodeLabels.size();
+        nodeLabels.add(new char[0]);
+        nodeTargets.add(new int[0]);
+        nodeOutput.add(false);
+
+        int insertAt = -index - 1;
+        nodeLabels.set(node, insert(nodeChars, insertAt, c));
+        nodeTargets.set(node, insert(nodeTargets.get(node), insertAt, next));
+        node = next;
+      }
+      nodeOutput.set(node, true);
+    }
+
+    int size = nodeLabels.size();
+    labels = nodeLabels.toArray(new char[size][]);
+    targets = nodeTargets.toArray(new int[size][]);
+    output = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      output[i] = nodeOutput.get(i);
+    }
+
+    // Breadth-first pass to set failure links and propagate outputs along them
+    fail = new int[size];
+    Queue<Integer> queue = new ArrayDeque<Integer>();
+    for (int child : targets[ROOT]) {
+      fail[child] = ROOT;
+      queue.add(child);
+    }
+
+    while (!queue.isEmpty()) {
+      int node = queue.remove();
+      for (int i = 0; i < labels[node].length; i++) {
+        char c = labels[node][i];
+        int child = targets[node][i];
+
+        int state = fail[node];
+        while (state != ROOT && step(state, c) < 0) {
+          state = fail[state];
+        }
+        int target = step(state, c);
+        fail[child] = target < 0 ? ROOT : target;
+        output[child] |= output[fail[child]];
+
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * Checks whether a keyword contains any of the ignored words.
+   * @param keyword The keyword to check.
+   * @return True if the keyword should be ignored.
+   */
+  public boolean matches(String keyword) {
+    if (matchesEverything) {
+      return true;
+    }
+
+    int state = ROOT;
+    for (int i = 0; i < keyword.length(); i++) {
+      char c = keyword.charAt(i);
+
+      int next = step(state, c);
+      while (next < 0 && state != ROOT) {
+        state = fail[state];
+        next = step(state, c);
+      }
+      state = next < 0 ? ROOT : next;
+
+      if (output[state]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Follows the trie edge labelled c out of a node.
+   * @return The target node, or -1 if there is no such edge.
+   */
+  private int step(int node, char c) {
+    int index = Arrays.binarySearch(labels[node], c);
+    return index < 0 ? -1 : targets[node][index];
+  }
+
+  private static char[] insert(char[] array, int index, char value) {
+    char[] result = new char[array.length + 1];
+    System.arraycopy(array, 0, result, 0, index);
+    result[index] = value;
+    System.arraycopy(array, index, result, index + 1, array.length - index);
+    return result;
+  }
+
+  private static int[] insert(int[] array, int index, int value) {
+    int[] result = new int[array.length + 1];
+    System.arraycopy(array, 0, result, 0, index);
+    result[index] = value;
+    System.arraycopy(array, index, result, index + 1, array.length - index);
+    return result;
+  }
+}
@@ -0,0 +1,111 @@
+package sentiment.stats;
+
+/**
+ * Allocation-free parsing of ISO-8601 date strings.
+ */
+public final class IsoDates {
+  /**
+   * Returned for strings that don't start with a valid yyyy-mm-dd date.
+   */
+  public static final int INVALID = Integer.MIN_VALUE;
+
+  /**
+   * Days from 0000-03-01 to 1970-01-01 in the proleptic Gregorian calendar.
+   */
+  private static final int DAYS_0000_TO_1970 = 719468;
+
+  private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+  private IsoDates() { }
+
+  /**
+   * Parses the yyyy-mm-dd prefix of an ISO date or date-time string into an epoch day.
+   * Any time or offset after the date is ignored, as LocalDate.parse does with
+   * ISO_DATE_TIME.
+   * @param value The string to parse.
+   * @return The number of days since 1970-01-01, or INVALID.
+   */
+  public static int parseEpochDay(CharSequence value) {
+    if (value.length() < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+      return INVALID;
+    }
+
+    int year = parseDigits(value, 0, 4);
+    int month = parseDigits(value, 5, 7);
+    int day = parseDigits(value, 8, 10);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]
+        || (month == 2 && day == 29 && !isLeapYear(year))) {
+      return INVALID;
+    }
+
+    return toEpochDay(year, month, day);
+  }
+
+  /**
+   * Parses the hour of an ISO date-time string, as in yyyy-mm-ddThh.
+   * @param value The string to parse.
+   * @return The hour of day from 0 to 23, or -1 if the string has no valid hour.
+   */
+  public static int parseHour(CharSequence value) {
+    if (value.length() < 13 || value.charAt(10) != 'T') {
+      return -1;
+    }
+
+    int hour = parseDigits(value, 11, 13);
+    return hour > 23 ? -1 : hour;
+  }
+
+  /**
+   * Converts an epoch day to the number of months since year 0.
+   * @param epochDay The number of days since 1970-01-01.
+   * @return The year times 12 plus the zero-based month.
+   */
+  public static int toEpochMonth(int epochDay) {
+    int shifted = epochDay + DAYS_0000_TO_1970;
+    int era = Math.floorDiv(shifted, 146097);
+    int dayOfEra = shifted - era * 146097;
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int marchMonth = (5 * dayOfYear + 2) / 153;
+    int month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+    int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return year * 12 + month - 1;
+  }
+
+  /**
+   * Converts a date to an epoch day.
+   * Counts from March so the leap day falls at the end of each year.
+   * @param year The year, from 0 to 9999.
+   * @param month The month, from 1 to 12.
+   * @param day The day of the month.
+   * @return The number of days since 1970-01-01.
+   */
+  static int toEpochDay(int year, int month, int day) {
+    int marchYear = month <= 2 ? year - 1 : year;
+    int era = Math.floorDiv(marchYear, 400);
+    int yearOfEra = marchYear - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - DAYS_0000_TO_1970;
+  }
+
+  private static boolean isLeapYear(int year) {
+    return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+  }
+
+  /**
+   * Parses a run of decimal digits.
+   * @return The value, or -1 if any character is not a digit.
+   */
+  private static int parseDigits(CharSequence value, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+}
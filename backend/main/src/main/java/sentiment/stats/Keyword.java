@@ -1,14 +1,32 @@
 package sentiment.stats;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class Keyword {
   private String keyword;
   private double percentage;
 
+  /**
+   * How far the percentage may exceed the true percentage, or null if it is exact.
+   */
+  private Double error;
+
   public Keyword(String keyword, double percentage) {
     this.keyword = keyword;
     this.percentage = percentage;
   }
 
+  /**
+   * Constructs an approximate Keyword.
+   * @param keyword The keyword.
+   * @param percentage The estimated percentage of reviews the keyword occurs in.
+   * @param error How far the percentage may exceed the true percentage.
+   */
+  public Keyword(String keyword, double percentage, double error) {
+    this(keyword, percentage);
+    this.error = error;
+  }
+
   public String getKeyword() {
     return this.keyword;
   }
@@ -16,4 +34,9 @@ public class Keyword {
   public double getPercentage() {
     return this.percentage;
   }
-}
\ No newline at end of file
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Double getError() {
+    return this.error;
+  }
+}
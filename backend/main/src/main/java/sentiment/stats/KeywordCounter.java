@@ -0,0 +1,157 @@
+package sentiment.stats;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * An open-addressing String to int count map.
+ * Avoids boxing an Integer on every increment, which a HashMap would need.
+ */
+public class KeywordCounter {
+  /**
+   * Orders entries by count, then alphabetically, so that the top N is deterministic.
+   */
+  private static final Comparator<Map.Entry<String, Integer>> RANKING =
+      Comparator.<Map.Entry<String, Integer>>comparingInt(Map.Entry::getValue)
+          .reversed()
+          .thenComparing(Map.Entry::getKey);
+
+  private String[] keys;
+  private int[] counts;
+  private int size = 0;
+
+  public KeywordCounter() {
+    this(16);
+  }
+
+  /**
+   * Creates a counter.
+   * @param expectedKeys The expected number of distinct keys.
+   */
+  public KeywordCounter(int expectedKeys) {
+    int capacity = 16;
+    while (capacity < expectedKeys * 2) {
+      capacity <<= 1;
+    }
+    keys = new String[capacity];
+    counts = new int[capacity];
+  }
+
+  /**
+   * Adds to the count for a key.
+   * @param key The key to count.
+   * @param amount The amount to add.
+   */
+  public void add(String key, int amount) {
+    int slot = find(key);
+    if (keys[slot] == null) {
+      keys[slot] = key;
+      size++;
+      if (size * 2 > keys.length) {
+        counts[slot] = amount;
+        resize();
+        return;
+      }
+    }
+    counts[slot] += amount;
+  }
+
+  public void increment(String key) {
+    add(key, 1);
+  }
+
+  /**
+   * Returns the count for a key.
+   * @param key The key to look up.
+   * @return The count, or 0 if the key has not been counted.
+   */
+  public int get(String key) {
+    int slot = find(key);
+    return keys[slot] == null ? 0 : counts[slot];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Calls an action for every key and its count, in no particular order.
+   * @param action The action to call.
+   */
+  public void forEach(ObjIntConsumer<String> action) {
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != null) {
+        action.accept(keys[slot], counts[slot]);
+      }
+    }
+  }
+
+  /**
+   * Selects the n keys with the highest counts using a bounded min-heap.
+   * Ties are broken alphabetically.
+   * @param n The number of keys to select.
+   * @return The selected keys and counts, highest count first.
+   */
+  public List<Map.Entry<String, Integer>> top(int n) {
+    if (n <= 0) {
+      return Collections.emptyList();
+    }
+
+    // The heap root is the weakest of the current top n
+    PriorityQueue<Map.Entry<String, Integer>> heap =
+        new PriorityQueue<Map.Entry<String, Integer>>(n + 1, RANKING.reversed());
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] == null) {
+        continue;
+      }
+
+      if (heap.size() == n) {
+        Map.Entry<String, Integer> weakest = heap.peek();
+        int count = counts[slot];
+        if (count < weakest.getValue()
+            || (count == weakest.getValue() && keys[slot].compareTo(weakest.getKey()) > 0)) {
+          continue;
+        }
+        heap.poll();
+      }
+      heap.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(keys[slot], counts[slot]));
+    }
+
+    List<Map.Entry<String, Integer>> result = new ArrayList<Map.Entry<String, Integer>>(heap);
+    result.sort(RANKING);
+    return result;
+  }
+
+  /**
+   * Finds the slot holding a key, or the empty slot where it would be inserted.
+   */
+  private int find(String key) {
+    int mask = keys.length - 1;
+    int hash = key.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (keys[slot] != null && !keys[slot].equals(key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void resize() {
+    String[] oldKeys = keys;
+    int[] oldCounts = counts;
+    keys = new String[oldKeys.length * 2];
+    counts = new int[oldKeys.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        counts[slot] = oldCounts[i];
+      }
+    }
+  }
+}
@@ -9,10 +9,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Handles calculation of top N keywords from a list of DynamoDB reviews.
@@ -21,19 +23,60 @@ public class KeywordsCalculation extends StatCalculation {
   private static final String STAGE = System.getenv("STAGE");
 
   /**
-   * The number of keywords to return for each review category.
+   * The default number of keywords to return for each review category.
    */
   private static final int NUM_KEYWORDS = 4;
 
   /**
-   * The list of keywords present in at least one positive review.
+   * The largest number of keywords a request may ask for.
+   */
+  private static final int MAX_KEYWORDS = 100;
+
+  /**
+   * The default number of keywords an approximate count tracks for each review category.
+   */
+  private static final int SKETCH_CAPACITY = 1024;
+
+  /**
+   * The largest number of keywords an approximate count may track.
+   */
+  private static final int MAX_SKETCH_CAPACITY = 65536;
+
+  /**
+   * The most recently compiled ignore list, reused while the SSM value is unchanged.
+   */
+  private static volatile CompiledIgnoreList compiledIgnoreList = null;
+
+  /**
+   * Reads ignore lists from SSM in the background.
+   * Threads are daemons so they never keep the JVM alive.
+   */
+  private static final ExecutorService EXECUTOR =
+      Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ignore-list");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Occurrences of each raw keyword in positive reviews.
+   */
+  private KeywordCounter positiveKeywords = new KeywordCounter();
+
+  /**
+   * Occurrences of each raw keyword in negative reviews.
+   */
+  private KeywordCounter negativeKeywords = new KeywordCounter();
+
+  /**
+   * Approximate occurrences of raw keywords in positive reviews, or null for exact counts.
    */
-  private List<String> positiveKeywords = new ArrayList<String>();
+  private SpaceSavingCounter positiveSketch = null;
 
   /**
-   * The list of keywords present in at least one negative review.
+   * Approximate occurrences of raw keywords in negative reviews, or null for exact counts.
    */
-  private List<String> negativeKeywords = new ArrayList<String>();
+  private SpaceSavingCounter negativeSketch = null;
 
   /**
    * The total number of positive reviews.
@@ -50,6 +93,72 @@ public class KeywordsCalculation extends StatCalculation {
    */
   private AWSSimpleSystemsManagement client;
 
+  /**
+   * The ignore list's SSM value if it is already being read, or null to read it when needed.
+   */
+  private CompletableFuture<String> ignoreListValue = null;
+
+  /**
+   * The number of keywords to return for each review category.
+   */
+  private int numKeywords = NUM_KEYWORDS;
+
+  public KeywordsCalculation(ReviewBatch batch, AWSSimpleSystemsManagement client) {
+    super(batch);
+    this.client = client;
+  }
+
+  /**
+   * Constructs a KeywordsCalculation.
+   * @param batch The reviews to process.
+   * @param client The SSM client to use.
+   * @param params The stat parameters, all optional: the number of keywords, the counting
+   *     mode ("exact" or "approximate") and the number of keywords an approximate count tracks.
+   *     Approximate counts use constant memory however many distinct keywords there are.
+   */
+  public KeywordsCalculation(
+      ReviewBatch batch, AWSSimpleSystemsManagement client, String[] params) {
+    this(batch, client);
+
+    if (params != null && params.length > 0) {
+      try {
+        this.numKeywords = Math.min(Math.max(Integer.parseInt(params[0]), 0), MAX_KEYWORDS);
+      } catch (NumberFormatException exp) {
+        System.err.println("Invalid keyword count " + params[0] + ", using default");
+      }
+    }
+
+    if (params != null && params.length > 1 && "approximate".equalsIgnoreCase(params[1])) {
+      int capacity = SKETCH_CAPACITY;
+      if (params.length > 2) {
+        try {
+          capacity = Math.min(Integer.parseInt(params[2]), MAX_SKETCH_CAPACITY);
+        } catch (NumberFormatException exp) {
+          System.err.println("Invalid keyword capacity " + params[2] + ", using default");
+        }
+      }
+      // The sketch must at least hold the keywords being returned
+      capacity = Math.max(capacity, Math.max(numKeywords, 1));
+      this.positiveSketch = new SpaceSavingCounter(capacity);
+      this.negativeSketch = new SpaceSavingCounter(capacity);
+    } else if (params != null && params.length > 1 && !"exact".equalsIgnoreCase(params[1])) {
+      System.err.println("Invalid keyword mode " + params[1] + ", using exact");
+    }
+  }
+
+  /**
+   * Constructs a KeywordsCalculation whose ignore list is already being read.
+   * @param batch The reviews to process.
+   * @param client The SSM client to use.
+   * @param params The stat parameters.
+   * @param ignoreListValue The ignore list's SSM value, from prefetchIgnoreList.
+   */
+  public KeywordsCalculation(ReviewBatch batch, AWSSimpleSystemsManagement client, 
+      String[] params, CompletableFuture<String> ignoreListValue) {
+    this(batch, client, params);
+    this.ignoreListValue = ignoreListValue;
+  }
+
   public KeywordsCalculation(
       List<Map<String, AttributeValue>> items, 
       AWSSimpleSystemsManagement client) {
@@ -58,26 +167,107 @@ public class KeywordsCalculation extends StatCalculation {
   }
 
   /**
-   * Runs the Keywords calculation.
-   * @return An OutgoingStat containing the calculation results.
+   * Mapping step: counts a review's keywords as positive or negative keywords.
+   * @param row The review's row in the batch.
+   */
+  protected void accumulate(int row) {
+    Sentiment sentiment = batch.getSentiment(row);
+    if (sentiment == Sentiment.POSITIVE) {
+      positiveReviews++;
+    } else if (sentiment == Sentiment.NEGATIVE) {
+      negativeReviews++;
+    } else {
+      return;
+    }
+
+    for (int i = batch.getKeywordStart(row); i < batch.getKeywordEnd(row); i++) {
+      addKeyword(sentiment, batch.getKeyword(batch.getKeywordId(i)), 1);
+    }
+  }
+
+  /**
+   * Counts occurrences of a raw keyword in positive or negative reviews.
+   * @param sentiment The sentiment of the reviews, either POSITIVE or NEGATIVE.
+   * @param keyword The raw keyword.
+   * @param amount The number of occurrences.
    */
-  public OutgoingStat<?, ?> calculate() {
-    // Mapping step: DB Item -> Keyword Lists
-    separateKeywordsByReviewSentiment();
+  private void addKeyword(Sentiment sentiment, String keyword, int amount) {
+    boolean positive = sentiment == Sentiment.POSITIVE;
+    if (positiveSketch != null) {
+      (positive ? positiveSketch : negativeSketch).add(keyword, amount);
+    } else {
+      (positive ? positiveKeywords : negativeKeywords).add(keyword, amount);
+    }
+  }
+
+  /**
+   * Mapping step: adds a day of positive and negative keyword counts.
+   * @param rollup The daily rollup.
+   */
+  protected void accumulate(DailyRollup rollup) {
+    positiveReviews += rollup.getSentimentCount(Sentiment.POSITIVE);
+    negativeReviews += rollup.getSentimentCount(Sentiment.NEGATIVE);
+    rollup.getKeywords(Sentiment.POSITIVE).forEach(
+        (keyword, count) -> addKeyword(Sentiment.POSITIVE, keyword, count));
+    rollup.getKeywords(Sentiment.NEGATIVE).forEach(
+        (keyword, count) -> addKeyword(Sentiment.NEGATIVE, keyword, count));
+  }
+
+  /**
+   * Creates an empty calculation with the same settings.
+   * Approximate counts cannot be split, since merging sketches would loosen their bounds.
+   * @return The partial calculation, or null for approximate counts.
+   */
+  protected StatCalculation split() {
+    if (positiveSketch != null) {
+      return null;
+    }
+    return new KeywordsCalculation(batch, client);
+  }
+
+  /**
+   * Adds a partial calculation's keyword and review counts.
+   * @param partial A calculation created by split.
+   */
+  protected void combine(StatCalculation partial) {
+    KeywordsCalculation other = (KeywordsCalculation) partial;
+    positiveReviews += other.positiveReviews;
+    negativeReviews += other.negativeReviews;
+    other.positiveKeywords.forEach(positiveKeywords::add);
+    other.negativeKeywords.forEach(negativeKeywords::add);
+  }
 
+  /**
+   * Builds the Keywords result from the accumulated keyword counts.
+   * @return An OutgoingStat containing the calculation results.
+   */
+  protected OutgoingStat<?, ?> finish() {
     // Get ignore list from SSM
-    List<String> ignoreList = getIgnoreList();
+    IgnoreListMatcher ignoreList = getIgnoreList();
 
     // Reducing step: Keyword Values -> Counts
-    Map<String, Integer> positiveKeywordCounts = countKeywords(positiveKeywords, ignoreList);
-    Map<String, Integer> negativeKeywordCounts = countKeywords(negativeKeywords, ignoreList);
-    System.out.println("Positive Keyword Counts: ");
+    // The normalized keywords are shared so each distinct keyword is only checked once
+    Map<String, String> normalized = new HashMap<String, String>();
+    Keyword[] positiveResults;
+    Keyword[] negativeResults;
+    if (positiveSketch != null) {
+      positiveResults = 
+        calculateApproximateKeywords(positiveSketch, positiveReviews, ignoreList, normalized);
+      negativeResults = 
+        calculateApproximateKeywords(negativeSketch, negativeReviews, ignoreList, normalized);
+    } else {
+      KeywordCounter positiveKeywordCounts = 
+          countKeywords(positiveKeywords, ignoreList, normalized);
+      KeywordCounter negativeKeywordCounts = 
+          countKeywords(negativeKeywords, ignoreList, normalized);
+      System.out.println("Positive Keyword Counts: ");
 
-    // Get top N keywords and map them to percentages
-    Keyword[] positiveResults = 
-      calculateKeywordPercentages(positiveKeywordCounts, positiveReviews);
-    Keyword[] negativeResults = 
-      calculateKeywordPercentages(negativeKeywordCounts, negativeReviews);
+      // Get top N keywords and map them to percentages
+      positiveResults = 
+        calculateKeywordPercentages(positiveKeywordCounts, positiveReviews);
+      negativeResults = 
+        calculateKeywordPercentages(negativeKeywordCounts, negativeReviews);
+    }
 
 
     // Wrap result in a Map for Jackson to serialize
@@ -88,84 +278,84 @@ public class KeywordsCalculation extends StatCalculation {
     return new OutgoingStat<String, Keyword[]>("keywords", result);
   }
 
-  private List<String> getIgnoreList() {
-    GetParameterResult result = null;
-    String value = null;
-    try {
-      result = client.getParameter(new GetParameterRequest().withName("ignoreList-" + STAGE));
-      value = result.getParameter().getValue();
-    } catch (ParameterNotFoundException exp) {
-      value = "[]";
-    }
-
-    try {
-      String[] ignoreArray = new ObjectMapper().readValue(value, String[].class);
-      return Arrays.asList(ignoreArray);
-    } catch (Exception exp) {
-      return new ArrayList<String>();
-    }
+  /**
+   * Starts reading the ignore list from SSM, so the read can overlap the review query.
+   * @param client The SSM client to use.
+   * @return The ignore list's SSM value.
+   */
+  public static CompletableFuture<String> prefetchIgnoreList(AWSSimpleSystemsManagement client) {
+    return CompletableFuture.supplyAsync(() -> fetchIgnoreList(client), EXECUTOR);
   }
 
   /**
-   * Processes a list of DynamoDB reviews into two two sets of keywords.
-   * One set includes keywords from positive reviews, the other from negative.
-   */
-  private void separateKeywordsByReviewSentiment() {
-    for (Map<String, AttributeValue> item : items) {
-      if (item.get("sentiment").getS().equals("POSITIVE")) {
-        positiveReviews++;
-        List<AttributeValue> keywordValues = item.get("keywords").getL();
-        List<String> keywords = dynamoKeywordsToList(keywordValues);
-        
-        positiveKeywords.addAll(keywords);
-      } else if (item.get("sentiment").getS().equals("NEGATIVE")) {
-        negativeReviews++;
-        List<AttributeValue> keywordValues = item.get("keywords").getL();
-        List<String> keywords = dynamoKeywordsToList(keywordValues);
-        
-        negativeKeywords.addAll(keywords);
-      }
+   * Reads the ignore list from SSM.
+   * @param client The SSM client to use.
+   * @return The ignore list's SSM value, a JSON array.
+   */
+  private static String fetchIgnoreList(AWSSimpleSystemsManagement client) {
+    try {
+      GetParameterResult result = 
+          client.getParameter(new GetParameterRequest().withName("ignoreList-" + STAGE));
+      return result.getParameter().getValue();
+    } catch (ParameterNotFoundException exp) {
+      return "[]";
     }
   }
 
   /**
-   * Converts a list of DynamoDB AttributeValues to a list of String keywords.
-   * @param keywordValues The DynamoDB values to process.
-   * @return A list of String keywords.
+   * Gets the ignore list from SSM, compiling it unless it matches the last list seen.
+   * @return A matcher for the ignore list.
    */
-  private List<String> dynamoKeywordsToList(List<AttributeValue> keywordValues) {
-    List<String> keywords = new ArrayList<String>();
-    for (AttributeValue keyword : keywordValues) {
-      keywords.add(keyword.getS());
+  private IgnoreListMatcher getIgnoreList() {
+    String value = ignoreListValue != null 
+        ? StatPipeline.join(ignoreListValue) 
+        : fetchIgnoreList(client);
+
+    CompiledIgnoreList compiled = compiledIgnoreList;
+    if (compiled != null && compiled.value.equals(value)) {
+      return compiled.matcher;
+    }
+
+    List<String> ignoreList;
+    try {
+      String[] ignoreArray = new ObjectMapper().readValue(value, String[].class);
+      ignoreList = Arrays.asList(ignoreArray);
+    } catch (Exception exp) {
+      ignoreList = new ArrayList<String>();
     }
-    return keywords;
+
+    compiled = new CompiledIgnoreList(value, new IgnoreListMatcher(ignoreList));
+    compiledIgnoreList = compiled;
+    return compiled.matcher;
   }
 
   /**
-   * Given a list of keywords, counts the number of occurrences of each keyword.
-   * @param keywordList The list of keywords to process.
-   * @param ignoreList The list of words to ignore when counting.
+   * Given raw keyword counts, merges the counts of keywords that differ only by case
+   * and drops keywords matching the ignore list.
+   * @param rawCounts The number of occurrences of each raw keyword.
+   * @param ignoreList The matcher for words to ignore when counting.
+   * @param normalized Memo from raw keyword to lowercase keyword, or to null if ignored.
    * @return A mapping from keyword to number of occurrences.
    */
-  private Map<String, Integer> countKeywords(List<String> keywordList, List<String> ignoreList) {
-    Map<String, Integer> counts = new HashMap<String, Integer>();
-    for (String rawKeyword : keywordList) {
-      String keyword = rawKeyword.toLowerCase();
-      if (ignoreList.stream()
-          // Check for partial matches in ignoreList
-          .filter((String word) -> keyword.contains(word)) 
-          // If match is found...
-          .findAny().isPresent()) { 
-        // Don't count words in the ignore list
-        continue;
+  private KeywordCounter countKeywords(KeywordCounter rawCounts, 
+      IgnoreListMatcher ignoreList, Map<String, String> normalized) {
+    KeywordCounter counts = new KeywordCounter(rawCounts.size());
+    rawCounts.forEach((rawKeyword, count) -> {
+      String keyword = normalized.get(rawKeyword);
+      if (keyword == null && !normalized.containsKey(rawKeyword)) {
+        keyword = rawKeyword.toLowerCase();
+        // Check for partial matches in ignoreList
+        if (ignoreList.matches(keyword)) {
+          keyword = null;
+        }
+        normalized.put(rawKeyword, keyword);
       }
 
-      if (counts.containsKey(keyword)) {
-        counts.put(keyword, counts.get(keyword) + 1);
-      } else {
-        counts.put(keyword, 1);
+      // Don't count words in the ignore list
+      if (keyword != null) {
+        counts.add(keyword, count);
       }
-    }
+    });
     return counts;
   }
 
@@ -176,10 +366,8 @@ public class KeywordsCalculation extends StatCalculation {
    * @return An array of Keyword objects
    */
   private Keyword[] calculateKeywordPercentages(
-      Map<String, Integer> keywordCounts, int totalReviews) {
-    return keywordCounts.entrySet().stream()
-    .sorted(Map.Entry.comparingByValue(Collections.reverseOrder())) // Sort by count, decreasing
-    .limit(NUM_KEYWORDS) // Get only top N results
+      KeywordCounter keywordCounts, int totalReviews) {
+    return keywordCounts.top(numKeywords).stream() // Get only top N results, by count
     .map(keyword -> { // Convert count to percentage, create keyword object
       double percentage = 
           keyword.getValue() == 0 ? 0 : (double)keyword.getValue() / totalReviews * 100;
@@ -187,4 +375,41 @@ public class KeywordsCalculation extends StatCalculation {
     })
     .toArray(Keyword[]::new); // Collect in array
   }
+
+  /**
+   * Selects the top N keywords from approximate counts, with the most each percentage may
+   * be overestimated by.
+   * Case variants of a keyword are merged, so their counts and errors are summed.
+   * @param sketch The approximate raw keyword counts.
+   * @param totalReviews The total number of reviews in this sample.
+   * @param ignoreList The matcher for words to ignore when counting.
+   * @param normalized Memo from raw keyword to lowercase keyword, or to null if ignored.
+   * @return An array of Keyword objects
+   */
+  private Keyword[] calculateApproximateKeywords(SpaceSavingCounter sketch, int totalReviews, 
+      IgnoreListMatcher ignoreList, Map<String, String> normalized) {
+    KeywordCounter keywordCounts = countKeywords(sketch.getCounts(), ignoreList, normalized);
+    KeywordCounter keywordErrors = countKeywords(sketch.getErrors(), ignoreList, normalized);
+
+    return keywordCounts.top(numKeywords).stream()
+    .map(keyword -> {
+      double percentage = (double)keyword.getValue() / totalReviews * 100;
+      double error = (double)keywordErrors.get(keyword.getKey()) / totalReviews * 100;
+      return new Keyword(keyword.getKey(), percentage, error);
+    })
+    .toArray(Keyword[]::new);
+  }
+
+  /**
+   * An ignore list SSM value together with its compiled matcher.
+   */
+  private static final class CompiledIgnoreList {
+    private final String value;
+    private final IgnoreListMatcher matcher;
+
+    private CompiledIgnoreList(String value, IgnoreListMatcher matcher) {
+      this.value = value;
+      this.matcher = matcher;
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds reviews in memory, in a sorted index by app and date.
+ * Useful for benchmarks and offline runs, and as a replica of apps read from another store.
+ */
+public class MemoryReviewStore implements ReviewStore {
+  private final ReviewIndex<Map<String, AttributeValue>> index =
+      new ReviewIndex<Map<String, AttributeValue>>();
+
+  /**
+   * Adds a review, replacing any review with the same app, date and hash.
+   * @param item The review
+   */
+  public void add(Map<String, AttributeValue> item) {
+    index.put(item, item);
+  }
+
+  /**
+   * Adds reviews.
+   * @param items The reviews
+   */
+  public void addAll(List<Map<String, AttributeValue>> items) {
+    for (Map<String, AttributeValue> item : items) {
+      add(item);
+    }
+  }
+
+  @Override
+  public List<Map<String, AttributeValue>> query(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate) {
+    List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+    for (Map<String, AttributeValue> item : index.range(appIdStore, startDate, endDate)) {
+      if (version == null || version.equals(item.get("version").getS())) {
+        items.add(item);
+      }
+    }
+    return items;
+  }
+
+  @Override
+  public LocalDate getMinDate(String appIdStore) {
+    return index.getMinDate(appIdStore);
+  }
+
+  @Override
+  public LocalDate getMaxDate(String appIdStore) {
+    return index.getMaxDate(appIdStore);
+  }
+
+  @Override
+  public String[] getVersions(String appIdStore) {
+    return index.getVersions(appIdStore);
+  }
+}
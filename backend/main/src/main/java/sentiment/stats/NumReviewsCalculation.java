@@ -10,18 +10,48 @@ import java.util.Map;
  * Returns the number of reviews in the current sample.
  */
 public class NumReviewsCalculation extends StatCalculation {
+  private int total = 0;
+
+  public NumReviewsCalculation(ReviewBatch batch) {
+    super(batch);
+  }
+
   public NumReviewsCalculation(List<Map<String, AttributeValue>> items) {
     super(items);
   }
 
   /**
-   * Runs the NumReviews calculation.
+   * Counts a single review.
+   * @param row The review's row in the batch.
+   */
+  protected void accumulate(int row) {
+    total++;
+  }
+
+  /**
+   * Counts a day of reviews.
+   * @param rollup The daily rollup.
+   */
+  protected void accumulate(DailyRollup rollup) {
+    total += rollup.getTotal();
+  }
+
+  protected StatCalculation split() {
+    return new NumReviewsCalculation(batch);
+  }
+
+  protected void combine(StatCalculation partial) {
+    total += ((NumReviewsCalculation) partial).total;
+  }
+
+  /**
+   * Builds the NumReviews result.
    * @return An OutgoingStat containing the calculation results.
    */
-  public OutgoingStat<?, ?> calculate() {
+  protected OutgoingStat<?, ?> finish() {
     Map<String, Integer> result = new HashMap<String, Integer>();
-    result.put("total", items.size());
+    result.put("total", total);
 
     return new OutgoingStat<String, Integer>("numReviews", result);
   }
-}
\ No newline at end of file
+}
@@ -2,7 +2,6 @@ package sentiment.stats;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,39 +10,76 @@ import java.util.Map;
  * Handles calculation of sentiment value percentages from a list of DynamoDB reviews.
  */
 public class OverallSentimentCalculation extends StatCalculation {
+  /**
+   * The number of reviews with each sentiment value, indexed by Sentiment ordinal.
+   */
+  private int[] counts = new int[Sentiment.values().length];
+
+  /**
+   * The total number of reviews processed.
+   */
+  private int total = 0;
+
+  public OverallSentimentCalculation(ReviewBatch batch) {
+    super(batch);
+  }
+
   public OverallSentimentCalculation(List<Map<String, AttributeValue>> items) {
     super(items);
   }
 
   /**
-   * Runs the OverallSentiment calculation.
-   * @return An OutgoingStat containing the calculation results.
+   * Counts the sentiment value of a single review.
+   * @param row The review's row in the batch.
    */
-  public OutgoingStat<?, ?> calculate() {
-    // Mapping step: DB Item -> Sentiment Value
-    List<String> sentimentValues = new ArrayList<String>();
-    for (Map<String, AttributeValue> item : items) {
-      sentimentValues.add(item.get("sentiment").getS());
+  protected void accumulate(int row) {
+    total++;
+
+    byte sentiment = batch.getSentimentOrdinal(row);
+    if (sentiment != ReviewBatch.UNKNOWN_SENTIMENT) {
+      counts[sentiment]++;
     }
+  }
 
-    // Reducing step: Sentiment Values -> Count
-    Map<String, Integer> counts = new HashMap<String, Integer>();
-    counts.put("POSITIVE", 0);
-    counts.put("NEGATIVE", 0);
-    counts.put("NEUTRAL", 0);
-    counts.put("MIXED", 0);
+  /**
+   * Counts the sentiment values of a day of reviews.
+   * @param rollup The daily rollup.
+   */
+  protected void accumulate(DailyRollup rollup) {
+    total += rollup.getTotal();
+    for (Sentiment sentiment : Sentiment.values()) {
+      counts[sentiment.ordinal()] += rollup.getSentimentCount(sentiment);
+    }
+  }
 
-    for (String sentiment : sentimentValues) {
-      counts.put(sentiment, counts.get(sentiment) + 1);
+  protected StatCalculation split() {
+    return new OverallSentimentCalculation(batch);
+  }
+
+  /**
+   * Adds a partial calculation's sentiment counts.
+   * @param partial A calculation created by split.
+   */
+  protected void combine(StatCalculation partial) {
+    OverallSentimentCalculation other = (OverallSentimentCalculation) partial;
+    total += other.total;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
     }
+  }
 
-    // Convert counts to percentages
+  /**
+   * Converts the sentiment counts to percentages.
+   * @return An OutgoingStat containing the calculation results.
+   */
+  protected OutgoingStat<?, ?> finish() {
     Map<String, Double> results = new HashMap<String, Double>();
-    for (Map.Entry<String, Integer> count : counts.entrySet()) {
-      double percentage = items.size() == 0 ? 0 : (double)count.getValue() / items.size() * 100;
-      results.put(count.getKey(), percentage);
+    for (Sentiment sentiment : Sentiment.values()) {
+      int count = counts[sentiment.ordinal()];
+      double percentage = total == 0 ? 0 : (double)count / total * 100;
+      results.put(sentiment.name(), percentage);
     }
 
     return new OutgoingStat<String, Double>("overallSentiment", results);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A single DynamoDB review, written straight into the response as a JSON object.
+ * Only string and number attributes are included, and numbers are written as strings.
+ */
+@JsonSerialize(using = RawReview.Serializer.class)
+public class RawReview {
+  private Map<String, AttributeValue> item;
+
+  public RawReview(Map<String, AttributeValue> item) {
+    this.item = item;
+  }
+
+  public Map<String, AttributeValue> getItem() {
+    return this.item;
+  }
+
+  /**
+   * Streams the review's attributes without building an intermediate map or string.
+   */
+  public static class Serializer extends StdSerializer<RawReview> {
+    private static final long serialVersionUID = 1L;
+
+    public Serializer() {
+      super(RawReview.class);
+    }
+
+    @Override
+    public void serialize(RawReview review, JsonGenerator generator, SerializerProvider provider)
+        throws IOException {
+      generator.writeStartObject();
+      for (Map.Entry<String, AttributeValue> attribute : review.item.entrySet()) {
+        AttributeValue value = attribute.getValue();
+        if (value.getS() != null) {
+          generator.writeStringField(attribute.getKey(), value.getS());
+        } else if (value.getN() != null) {
+          generator.writeStringField(attribute.getKey(), value.getN());
+        }
+      }
+      generator.writeEndObject();
+    }
+  }
+}
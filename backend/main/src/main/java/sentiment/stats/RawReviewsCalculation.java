@@ -1,50 +1,104 @@
 package sentiment.stats;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Returns a list of DynamoDB reviews, serialized to JSON.
+ * Returns every review in a batch as a single page of rawReviews, ordered by date.
+ * Requests served from DynamoDB use ReviewPager instead, which fetches only one page.
  */
 public class RawReviewsCalculation extends StatCalculation {
+  /**
+   * Orders reviews oldest first.
+   */
+  private static final Comparator<RawReview> BY_DATE = Comparator.comparing(
+      (RawReview review) -> ReviewQueryPlanner.getDate(review.getItem()));
+
+  private List<RawReview> reviews = new ArrayList<RawReview>();
+
+  /**
+   * Whether reviews are ordered oldest first.
+   */
+  private boolean ascending = false;
+
+  /**
+   * Constructs a RawReviewsCalculation.
+   * @param batch The reviews to process. The batch must retain its original items.
+   */
+  public RawReviewsCalculation(ReviewBatch batch) {
+    super(batch);
+  }
+
+  /**
+   * Constructs a RawReviewsCalculation.
+   * @param batch The reviews to process. The batch must retain its original items.
+   * @param params The rawReviews stat parameters, as ReviewPager takes them. Only the sort
+   *     order ("asc" or "desc", by date) applies, as the whole batch is a single page.
+   */
+  public RawReviewsCalculation(ReviewBatch batch, String[] params) {
+    super(batch);
+    this.ascending = params != null && params.length > 2 && "asc".equalsIgnoreCase(params[2]);
+  }
+
   public RawReviewsCalculation(List<Map<String, AttributeValue>> items) {
     super(items);
   }
 
   /**
-   * Runs the RawReviews calculation.
+   * Adds a single review to the result.
+   * @param row The review's row in the batch.
+   */
+  protected void accumulate(int row) {
+    reviews.add(new RawReview(batch.getItem(row)));
+  }
+
+  protected StatCalculation split() {
+    RawReviewsCalculation partial = new RawReviewsCalculation(batch);
+    partial.ascending = this.ascending;
+    return partial;
+  }
+
+  /**
+   * Appends a partial calculation's reviews. Partials must be combined in row order.
+   * @param partial A calculation created by split.
+   */
+  protected void combine(StatCalculation partial) {
+    reviews.addAll(((RawReviewsCalculation) partial).reviews);
+  }
+
+  /**
+   * Builds the RawReviews result, newest first unless ascending order was requested.
    * @return An OutgoingStat containing the calculation results.
    */
-  public OutgoingStat<?, ?> calculate() {
-    Map<String, String> result = new HashMap<String, String>();
-
-    // Convert DyanmoDB representation to Map<String, String>
-    for (Map<String, AttributeValue> item : items) {
-      Map<String, String> review = new HashMap<String, String>();
-      item.forEach((key, val) -> {
-        if (val.getS() != null) {
-          review.put(key, val.getS());
-        } else if (val.getN() != null) {
-          review.put(key, val.getN());
-        }
-      });
-
-
-      // Use Jackson to serialize each review to JSON
-      try {
-        String json = new ObjectMapper().writeValueAsString(review);
-        result.put(review.get("reviewHash"), json);
-      } catch (JsonProcessingException exp) {
-        System.err.println("Error converting rawReviews to JSON");
-        System.err.println(exp.getMessage());
-      }
+  protected OutgoingStat<?, ?> finish() {
+    Collections.sort(reviews, ascending ? BY_DATE : BY_DATE.reversed());
+    return createStat(reviews, null);
+  }
+
+  /**
+   * Builds a RawReviews result from a page of reviews fetched from DynamoDB.
+   * @param page The page of reviews.
+   * @return An OutgoingStat containing the page.
+   */
+  public static OutgoingStat<String, Object> fromPage(ReviewPager.ReviewPage page) {
+    List<RawReview> reviews = new ArrayList<RawReview>(page.getReviews().size());
+    for (Map<String, AttributeValue> item : page.getReviews()) {
+      reviews.add(new RawReview(item));
     }
+    return createStat(reviews, page.getNextToken());
+  }
 
-    return new OutgoingStat<String, String>("rawReviews", result);
+  private static OutgoingStat<String, Object> createStat(
+      List<RawReview> reviews, String nextToken) {
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("reviews", reviews);
+    result.put("nextToken", nextToken);
+    return new OutgoingStat<String, Object>("rawReviews", result);
   }
-}
\ No newline at end of file
+}
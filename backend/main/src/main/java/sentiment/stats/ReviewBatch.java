@@ -0,0 +1,352 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar, primitive-encoded set of reviews, built once from a DynamoDB query result or
+ * a review segment.
+ * Dates are stored as epoch days, sentiments as Sentiment ordinals, and versions and
+ * keywords as ids into per-batch dictionaries.
+ */
+public class ReviewBatch {
+  /**
+   * Sentiment column value for reviews with a missing or unrecognized sentiment.
+   */
+  public static final byte UNKNOWN_SENTIMENT = -1;
+
+  /**
+   * Date column value for reviews with a missing or malformed date.
+   */
+  public static final int UNKNOWN_DATE = IsoDates.INVALID;
+
+  /**
+   * Hour column value for reviews with a missing or malformed time.
+   */
+  public static final byte UNKNOWN_HOUR = -1;
+
+  private int size;
+
+  private int[] epochDays;
+
+  /**
+   * The hour of day of each review, from 0 to 23.
+   */
+  private byte[] hours;
+
+  private byte[] sentiments;
+
+  private int[] versionIds;
+
+  private List<String> versions;
+
+  /**
+   * The keywords of review i are keywordIds[keywordOffsets[i]] until keywordOffsets[i + 1].
+   */
+  private int[] keywordOffsets;
+
+  private int[] keywordIds;
+
+  private List<String> keywords;
+
+  /**
+   * The original DynamoDB items, kept only when a calculation needs every attribute.
+   */
+  private List<Map<String, AttributeValue>> items;
+
+  private ReviewBatch() { }
+
+  /**
+   * Encodes a list of DynamoDB reviews.
+   * @param items The DynamoDB items to encode.
+   * @param retainItems Whether to keep the original items for calculations that need them.
+   * @return A new ReviewBatch.
+   */
+  public static ReviewBatch fromItems(
+      List<Map<String, AttributeValue>> items, boolean retainItems) {
+    Builder builder = new Builder(items.size());
+    for (Map<String, AttributeValue> item : items) {
+      builder.add(item);
+    }
+    return builder.build(retainItems ? items : null);
+  }
+
+  /**
+   * Returns a batch with no reviews.
+   */
+  public static ReviewBatch empty() {
+    return new Builder(0).build(null);
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public int getEpochDay(int row) {
+    return this.epochDays[row];
+  }
+
+  public byte getHour(int row) {
+    return this.hours[row];
+  }
+
+  /**
+   * Returns the sentiment of a review.
+   * @param row The review's row in this batch.
+   * @return The sentiment, or null if it was missing or unrecognized.
+   */
+  public Sentiment getSentiment(int row) {
+    return Sentiment.fromOrdinal(this.sentiments[row]);
+  }
+
+  public byte getSentimentOrdinal(int row) {
+    return this.sentiments[row];
+  }
+
+  public int getVersionId(int row) {
+    return this.versionIds[row];
+  }
+
+  public String getVersion(int versionId) {
+    return this.versions.get(versionId);
+  }
+
+  /**
+   * Looks up the id of a version.
+   * @param version The version name.
+   * @return The id, or -1 if no review in the batch has the version.
+   */
+  public int findVersionId(String version) {
+    return this.versions.indexOf(version);
+  }
+
+  public int getVersionCount() {
+    return this.versions.size();
+  }
+
+  public int getKeywordStart(int row) {
+    return this.keywordOffsets[row];
+  }
+
+  public int getKeywordEnd(int row) {
+    return this.keywordOffsets[row + 1];
+  }
+
+  public int getKeywordId(int index) {
+    return this.keywordIds[index];
+  }
+
+  public String getKeyword(int keywordId) {
+    return this.keywords.get(keywordId);
+  }
+
+  public int getKeywordCount() {
+    return this.keywords.size();
+  }
+
+  /**
+   * Returns the original DynamoDB item for a review.
+   * @param row The review's row in this batch.
+   * @return The DynamoDB item.
+   * @throws IllegalStateException If the batch was built without retaining items.
+   */
+  public Map<String, AttributeValue> getItem(int row) {
+    if (this.items == null) {
+      throw new IllegalStateException("Review items were not retained for this batch");
+    }
+    return this.items.get(row);
+  }
+
+  /**
+   * Incrementally encodes DynamoDB items into a ReviewBatch.
+   */
+  public static class Builder {
+    private int size = 0;
+    private int[] epochDays;
+    private byte[] hours;
+    private byte[] sentiments;
+    private int[] versionIds;
+    private int[] keywordOffsets;
+    private int[] keywordIds;
+    private int keywordIdCount = 0;
+
+    private List<String> versions = new ArrayList<String>();
+    private List<String> keywords = new ArrayList<String>();
+
+    /**
+     * The ids of the dictionary values, built when the first item is encoded.
+     */
+    private Map<String, Integer> versionLookup = null;
+    private Map<String, Integer> keywordLookup = null;
+
+    /**
+     * Creates a builder.
+     * @param expectedSize The expected number of reviews, used to size the columns.
+     */
+    public Builder(int expectedSize) {
+      int capacity = Math.max(expectedSize, 16);
+      this.epochDays = new int[capacity];
+      this.hours = new byte[capacity];
+      this.sentiments = new byte[capacity];
+      this.versionIds = new int[capacity];
+      this.keywordOffsets = new int[capacity + 1];
+      this.keywordIds = new int[capacity * 4];
+    }
+
+    /**
+     * Creates a builder whose dictionaries start with the values of an encoded source, so its
+     * rows can be added with their ids unchanged.
+     * @param expectedSize The expected number of reviews, used to size the columns.
+     * @param versions The source's version dictionary.
+     * @param keywords The source's keyword dictionary.
+     */
+    Builder(int expectedSize, List<String> versions, List<String> keywords) {
+      this(expectedSize);
+      this.versions = new ArrayList<String>(versions);
+      this.keywords = new ArrayList<String>(keywords);
+    }
+
+    /**
+     * Encodes a single DynamoDB item and appends it to the batch.
+     * @param item The DynamoDB item.
+     * @return This builder, for chaining.
+     */
+    public Builder add(Map<String, AttributeValue> item) {
+      growRows();
+      if (versionLookup == null) {
+        versionLookup = index(versions);
+        keywordLookup = index(keywords);
+      }
+
+      // DB items use ISO format
+      AttributeValue date = item.get("date");
+      if (date == null || date.getS() == null) {
+        epochDays[size] = UNKNOWN_DATE;
+        hours[size] = UNKNOWN_HOUR;
+      } else {
+        epochDays[size] = IsoDates.parseEpochDay(date.getS());
+        hours[size] = (byte) IsoDates.parseHour(date.getS());
+      }
+
+      AttributeValue sentimentValue = item.get("sentiment");
+      Sentiment sentiment = sentimentValue == null ? null : Sentiment.parse(sentimentValue.getS());
+      sentiments[size] = sentiment == null ? UNKNOWN_SENTIMENT : (byte) sentiment.ordinal();
+
+      AttributeValue version = item.get("version");
+      versionIds[size] = encode(version == null ? "" : version.getS(), versions, versionLookup);
+
+      AttributeValue keywordValues = item.get("keywords");
+      if (keywordValues != null && keywordValues.getL() != null) {
+        for (AttributeValue keyword : keywordValues.getL()) {
+          growKeywordIds(1);
+          keywordIds[keywordIdCount] = encode(keyword.getS(), keywords, keywordLookup);
+          keywordIdCount++;
+        }
+      }
+
+      size++;
+      keywordOffsets[size] = keywordIdCount;
+      return this;
+    }
+
+    /**
+     * Appends a review that is already encoded against this builder's dictionaries.
+     * @param epochDay The review's date, as an epoch day.
+     * @param hour The review's hour of day.
+     * @param sentiment The review's sentiment ordinal.
+     * @param versionId The id of the review's version.
+     * @param reviewKeywordIds The ids of the review's keywords, from the start of the array.
+     * @param keywordCount The number of keywords.
+     * @return This builder, for chaining.
+     */
+    Builder addEncoded(int epochDay, byte hour, byte sentiment, int versionId,
+        int[] reviewKeywordIds, int keywordCount) {
+      growRows();
+      epochDays[size] = epochDay;
+      hours[size] = hour;
+      sentiments[size] = sentiment;
+      versionIds[size] = versionId;
+
+      growKeywordIds(keywordCount);
+      System.arraycopy(reviewKeywordIds, 0, keywordIds, keywordIdCount, keywordCount);
+      keywordIdCount += keywordCount;
+
+      size++;
+      keywordOffsets[size] = keywordIdCount;
+      return this;
+    }
+
+    /**
+     * Makes room in the row columns for one more review.
+     */
+    private void growRows() {
+      if (size == epochDays.length) {
+        int capacity = size * 2;
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        hours = Arrays.copyOf(hours, capacity);
+        sentiments = Arrays.copyOf(sentiments, capacity);
+        versionIds = Arrays.copyOf(versionIds, capacity);
+        keywordOffsets = Arrays.copyOf(keywordOffsets, capacity + 1);
+      }
+    }
+
+    /**
+     * Makes room for more keyword ids.
+     */
+    private void growKeywordIds(int count) {
+      if (keywordIdCount + count > keywordIds.length) {
+        keywordIds = Arrays.copyOf(
+            keywordIds, Math.max(keywordIds.length * 2, keywordIdCount + count));
+      }
+    }
+
+    /**
+     * Builds the batch from the reviews added so far.
+     * @param items The original items to retain, or null to discard them.
+     * @return A new ReviewBatch.
+     */
+    public ReviewBatch build(List<Map<String, AttributeValue>> items) {
+      ReviewBatch batch = new ReviewBatch();
+      batch.size = size;
+      batch.epochDays = epochDays;
+      batch.hours = hours;
+      batch.sentiments = sentiments;
+      batch.versionIds = versionIds;
+      batch.versions = versions;
+      batch.keywordOffsets = keywordOffsets;
+      batch.keywordIds = keywordIds;
+      batch.keywords = keywords;
+      batch.items = items;
+      return batch;
+    }
+
+    /**
+     * Maps each value of a dictionary to its id.
+     */
+    private static Map<String, Integer> index(List<String> dictionary) {
+      Map<String, Integer> lookup = new HashMap<String, Integer>(dictionary.size() * 2);
+      for (int id = 0; id < dictionary.size(); id++) {
+        lookup.put(dictionary.get(id), id);
+      }
+      return lookup;
+    }
+
+    /**
+     * Looks up (or assigns) the dictionary id for a value.
+     */
+    private static int encode(String value, List<String> dictionary, Map<String, Integer> lookup) {
+      Integer id = lookup.get(value);
+      if (id == null) {
+        id = dictionary.size();
+        dictionary.add(value);
+        lookup.put(value, id);
+      }
+      return id;
+    }
+  }
+}
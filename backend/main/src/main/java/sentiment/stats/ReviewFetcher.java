@@ -0,0 +1,139 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Fetches the reviews for a date window from DynamoDB.
+ * The window is split into per-day (or per-week, for long windows) slices which are
+ * queried concurrently, and each slice follows LastEvaluatedKey until it is exhausted.
+ */
+public class ReviewFetcher {
+  /**
+   * Windows longer than this many days are split into weekly slices instead of daily ones.
+   */
+  private static final int DAILY_SLICE_LIMIT = 31;
+
+  /**
+   * The maximum number of slice queries in flight at once.
+   */
+  private static final int MAX_CONCURRENT_QUERIES = 8;
+
+  /**
+   * Shared across invocations so warm containers don't pay for thread creation.
+   * Threads are daemons so they never keep the JVM alive.
+   */
+  private static final ExecutorService EXECUTOR =
+      Executors.newFixedThreadPool(MAX_CONCURRENT_QUERIES, runnable -> {
+        Thread thread = new Thread(runnable, "review-fetcher");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * The DynamoDB client to use.
+   */
+  private AmazonDynamoDB db;
+
+  /**
+   * Chooses the index to read each slice from.
+   */
+  private ReviewQueryPlanner planner;
+
+  /**
+   * The read capacity consumed by every query, summed across slices.
+   */
+  private DoubleAdder consumedCapacity = new DoubleAdder();
+
+  public ReviewFetcher(AmazonDynamoDB db) {
+    this(db, new ReviewQueryPlanner());
+  }
+
+  /**
+   * Constructs a ReviewFetcher.
+   * @param db The DynamoDB client to use.
+   * @param planner Chooses the index to read each slice from.
+   */
+  ReviewFetcher(AmazonDynamoDB db, ReviewQueryPlanner planner) {
+    this.db = db;
+    this.planner = planner;
+  }
+
+  /**
+   * Query DynamoDB for all reviews that match the given criteria.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return A chronological list of DynamoDB entries
+   * @throws Exception If any slice query fails
+   */
+  public List<Map<String, AttributeValue>> fetch(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate)
+      throws Exception {
+    List<Future<List<Map<String, AttributeValue>>>> slices =
+        new ArrayList<Future<List<Map<String, AttributeValue>>>>();
+
+    int sliceDays = startDate.until(endDate, ChronoUnit.DAYS) + 1 > DAILY_SLICE_LIMIT ? 7 : 1;
+    LocalDate dayAfterEnd = endDate.plusDays(1);
+    for (LocalDate sliceStart = startDate;
+        sliceStart.isBefore(dayAfterEnd);
+        sliceStart = sliceStart.plusDays(sliceDays)) {
+      LocalDate sliceEnd = sliceStart.plusDays(sliceDays);
+      if (sliceEnd.isAfter(dayAfterEnd)) {
+        sliceEnd = dayAfterEnd;
+      }
+
+      QueryRequest request =
+          planner.plan(appIdStore, version, sliceStart.toString(), sliceEnd.toString());
+      slices.add(EXECUTOR.submit(queryAllPages(request)));
+    }
+
+    // Slices were submitted in date order, so appending them keeps the result chronological
+    List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+    for (Future<List<Map<String, AttributeValue>>> slice : slices) {
+      items.addAll(slice.get());
+    }
+    return items;
+  }
+
+  /**
+   * Creates a task that runs a query and follows its pagination to completion.
+   * @param request The query to run
+   * @return A task returning every item matched by the query
+   */
+  private Callable<List<Map<String, AttributeValue>>> queryAllPages(QueryRequest request) {
+    return () -> {
+      List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+      Map<String, AttributeValue> lastKey = null;
+      do {
+        QueryResult result = db.query(request.withExclusiveStartKey(lastKey));
+        consumedCapacity.add(ReviewQueryPlanner.getCapacityUnits(result));
+        items.addAll(result.getItems());
+        lastKey = result.getLastEvaluatedKey();
+      } while (lastKey != null && !lastKey.isEmpty());
+      return items;
+    };
+  }
+
+  /**
+   * Returns the read capacity consumed by the queries of every fetch so far.
+   * @return The capacity units
+   */
+  public double getConsumedCapacity() {
+    return consumedCapacity.sum();
+  }
+}
@@ -0,0 +1,105 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted indexes of each app's reviews by date, for the stores that keep reviews locally.
+ * Every entry is keyed by the review's date and hash, so a date range is a single sub map.
+ * It is safe for concurrent reads and writes.
+ * @param <T> The entry held for each review
+ */
+class ReviewIndex<T> {
+  /**
+   * Separates the date and hash of an entry's key. It sorts before the time in an ISO date.
+   */
+  private static final char KEY_SEPARATOR = '#';
+
+  private final ConcurrentMap<String, AppIndex<T>> apps =
+      new ConcurrentHashMap<String, AppIndex<T>>();
+
+  /**
+   * Adds or replaces the entry for a review.
+   * @param item The review
+   * @param entry The entry to hold for it
+   */
+  void put(Map<String, AttributeValue> item, T entry) {
+    AppIndex<T> app = apps.computeIfAbsent(item.get("appIdStore").getS(), key -> new AppIndex<T>());
+    app.reviews.put(item.get("date").getS() + KEY_SEPARATOR + item.get("reviewHash").getS(), entry);
+    app.versions.add(item.get("version").getS());
+  }
+
+  /**
+   * Finds the entries of an app's reviews in a date range.
+   * @param appIdStore The App ID and Store for the app
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return The entries, in date order
+   */
+  Collection<T> range(String appIdStore, LocalDate startDate, LocalDate endDate) {
+    AppIndex<T> app = apps.get(appIdStore);
+    if (app == null) {
+      return Collections.emptyList();
+    }
+    // Reviews of a day sort after the bare date, so the day after the end bounds the range
+    return app.reviews.subMap(startDate.toString(), endDate.plusDays(1).toString()).values();
+  }
+
+  /**
+   * Finds the date of an app's first review.
+   * @param appIdStore The App ID and Store for the app
+   * @return The date, or null if the app has no reviews
+   */
+  LocalDate getMinDate(String appIdStore) {
+    AppIndex<T> app = apps.get(appIdStore);
+    return app != null ? toDate(app.reviews.firstEntry()) : null;
+  }
+
+  /**
+   * Finds the date of an app's last review.
+   * @param appIdStore The App ID and Store for the app
+   * @return The date, or null if the app has no reviews
+   */
+  LocalDate getMaxDate(String appIdStore) {
+    AppIndex<T> app = apps.get(appIdStore);
+    return app != null ? toDate(app.reviews.lastEntry()) : null;
+  }
+
+  /**
+   * Lists the versions an app has reviews for.
+   * @param appIdStore The App ID and Store for the app
+   * @return The distinct versions, sorted
+   */
+  String[] getVersions(String appIdStore) {
+    AppIndex<T> app = apps.get(appIdStore);
+    return app != null ? app.versions.toArray(new String[0]) : new String[0];
+  }
+
+  private static LocalDate toDate(Map.Entry<String, ?> entry) {
+    if (entry == null) {
+      return null;
+    }
+    String key = entry.getKey();
+    return LocalDate.parse(
+        key.substring(0, key.indexOf(KEY_SEPARATOR)), DateTimeFormatter.ISO_DATE_TIME);
+  }
+
+  /**
+   * The index of one app's reviews.
+   */
+  private static final class AppIndex<T> {
+    private final ConcurrentNavigableMap<String, T> reviews =
+        new ConcurrentSkipListMap<String, T>();
+    private final ConcurrentSkipListSet<String> versions = new ConcurrentSkipListSet<String>();
+  }
+}
@@ -0,0 +1,222 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fetches a single page of reviews for a date window from DynamoDB.
+ * Pages are ordered by date and resumed from an opaque continuation token, so the cost of a
+ * request depends on the page size rather than on the size of the window.
+ */
+public class ReviewPager {
+  /**
+   * The default number of reviews in a page.
+   */
+  private static final int PAGE_SIZE = 100;
+
+  /**
+   * The largest page a request may ask for.
+   */
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  /**
+   * Separates the date and review hash in a continuation token.
+   */
+  private static final char TOKEN_SEPARATOR = '\n';
+
+  /**
+   * The DynamoDB client to use.
+   */
+  private AmazonDynamoDB db;
+
+  /**
+   * Chooses the index to read the page from.
+   */
+  private ReviewQueryPlanner planner = new ReviewQueryPlanner();
+
+  /**
+   * The read capacity consumed by the last fetch.
+   */
+  private double consumedCapacity = 0;
+
+  /**
+   * The number of reviews in a page.
+   */
+  private int pageSize = PAGE_SIZE;
+
+  /**
+   * The continuation token of the page to fetch, or null for the first page.
+   */
+  private String token = null;
+
+  /**
+   * Whether reviews are ordered oldest first.
+   */
+  private boolean ascending = false;
+
+  /**
+   * The attributes to return, or an empty set for every attribute.
+   */
+  private Set<String> fields = new LinkedHashSet<String>();
+
+  /**
+   * Constructs a ReviewPager.
+   * @param db The DynamoDB client to use.
+   * @param params The rawReviews stat parameters: the page size, the continuation token of the
+   *     page to fetch (empty for the first page), the sort order ("asc" or "desc", by date)
+   *     and then the names of the attributes to return. All are optional.
+   */
+  public ReviewPager(AmazonDynamoDB db, String[] params) {
+    this.db = db;
+
+    if (params == null) {
+      return;
+    }
+    if (params.length > 0) {
+      try {
+        this.pageSize = Math.min(Math.max(Integer.parseInt(params[0]), 1), MAX_PAGE_SIZE);
+      } catch (NumberFormatException exp) {
+        System.err.println("Invalid page size " + params[0] + ", using default");
+      }
+    }
+    if (params.length > 1 && params[1] != null && !params[1].isEmpty()) {
+      this.token = params[1];
+    }
+    if (params.length > 2) {
+      this.ascending = "asc".equalsIgnoreCase(params[2]);
+    }
+    for (int i = 3; i < params.length; i++) {
+      this.fields.add(params[i]);
+    }
+  }
+
+  /**
+   * Query DynamoDB for a page of reviews that match the given criteria.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return The page of reviews and the token of the next page
+   * @throws IllegalArgumentException If the continuation token is malformed
+   */
+  public ReviewPage fetch(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate) {
+    QueryRequest request = planner
+        .plan(appIdStore, version, startDate.toString(), endDate.plusDays(1).toString())
+        .withScanIndexForward(ascending)
+        .withLimit(pageSize);
+
+    if (!fields.isEmpty()) {
+      // The keys are always needed to build the next continuation token
+      Set<String> projected = new LinkedHashSet<String>(fields);
+      projected.add("date");
+      projected.add("reviewHash");
+
+      List<String> projection = new ArrayList<String>();
+      for (String field : projected) {
+        String name = "#f" + projection.size();
+        request.addExpressionAttributeNamesEntry(name, field);
+        projection.add(name);
+      }
+      request.setProjectionExpression(String.join(", ", projection));
+    }
+
+    // A version filter is applied after the limit, so keep reading until the page is full
+    List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+    Map<String, AttributeValue> lastKey =
+        token == null ? null : decodeToken(appIdStore, version, token);
+    consumedCapacity = 0;
+    do {
+      QueryResult result = db.query(request.withExclusiveStartKey(lastKey));
+      consumedCapacity += ReviewQueryPlanner.getCapacityUnits(result);
+      items.addAll(result.getItems());
+      lastKey = result.getLastEvaluatedKey();
+    } while (items.size() < pageSize && lastKey != null && !lastKey.isEmpty());
+
+    String nextToken = null;
+    if (items.size() > pageSize) {
+      items = new ArrayList<Map<String, AttributeValue>>(items.subList(0, pageSize));
+      nextToken = encodeToken(items.get(pageSize - 1));
+    } else if (lastKey != null && !lastKey.isEmpty()) {
+      nextToken = encodeToken(lastKey);
+    }
+
+    return new ReviewPage(items, nextToken);
+  }
+
+  /**
+   * Returns the read capacity consumed by the last fetch.
+   * @return The capacity units
+   */
+  public double getConsumedCapacity() {
+    return this.consumedCapacity;
+  }
+
+  /**
+   * Encodes the position of a review in the queried index as a continuation token.
+   * @param key An item or key containing the review's date and hash
+   * @return The token
+   */
+  private static String encodeToken(Map<String, AttributeValue> key) {
+    String position = ReviewQueryPlanner.getDate(key) + TOKEN_SEPARATOR
+        + key.get("reviewHash").getS();
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a continuation token into the key to resume the query from.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param token The token
+   * @return The exclusive start key
+   * @throws IllegalArgumentException If the token is malformed
+   */
+  private Map<String, AttributeValue> decodeToken(
+      String appIdStore, String version, String token) {
+    String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    int separator = position.indexOf(TOKEN_SEPARATOR);
+    if (separator < 0) {
+      throw new IllegalArgumentException("Invalid continuation token " + token);
+    }
+
+    return planner.startKey(appIdStore, version,
+        position.substring(0, separator), position.substring(separator + 1));
+  }
+
+  /**
+   * A page of reviews and the token to fetch the page after it.
+   */
+  public static class ReviewPage {
+    private List<Map<String, AttributeValue>> reviews;
+    private String nextToken;
+
+    public ReviewPage(List<Map<String, AttributeValue>> reviews, String nextToken) {
+      this.reviews = reviews;
+      this.nextToken = nextToken;
+    }
+
+    public List<Map<String, AttributeValue>> getReviews() {
+      return this.reviews;
+    }
+
+    /**
+     * Returns the continuation token of the next page.
+     * @return The token, or null if this is the last page.
+     */
+    public String getNextToken() {
+      return this.nextToken;
+    }
+  }
+}
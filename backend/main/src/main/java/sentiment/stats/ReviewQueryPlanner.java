@@ -0,0 +1,152 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses the index to read a date range of reviews from.
+ * When a single version is requested and the versionDate index is enabled, the range is read
+ * from that index's "version#date" sort key so only the version's reviews are read and billed.
+ * Otherwise the date index is used, filtered by version after the read.
+ */
+public class ReviewQueryPlanner {
+  private static final String TABLE = System.getenv("TABLE_NAME");
+  private static final boolean USE_VERSION_INDEX =
+      Boolean.parseBoolean(System.getenv("USE_VERSION_INDEX"));
+
+  static final String DATE_INDEX = "date";
+  static final String VERSION_DATE_INDEX = "versionDate";
+
+  /**
+   * Separates the version and date in the versionDate sort key.
+   */
+  private static final char VERSION_DATE_SEPARATOR = '#';
+
+  /**
+   * Whether the versionDate index has been backfilled and may be queried.
+   */
+  private boolean useVersionIndex;
+
+  public ReviewQueryPlanner() {
+    this(USE_VERSION_INDEX);
+  }
+
+  /**
+   * Constructs a planner.
+   * @param useVersionIndex Whether to query the versionDate index for a single version.
+   */
+  ReviewQueryPlanner(boolean useVersionIndex) {
+    this.useVersionIndex = useVersionIndex;
+  }
+
+  /**
+   * Build the query for the reviews of an app in a date range.
+   * The query reports the read capacity it consumes.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param from The first ISO date in the range
+   * @param to The last ISO date in the range (inclusive)
+   * @return A DynamoDB query request
+   */
+  public QueryRequest plan(String appIdStore, String version, String from, String to) {
+    HashMap<String, String> nameMap = new HashMap<String, String>();
+    HashMap<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+    valueMap.put(":id", new AttributeValue().withS(appIdStore));
+
+    QueryRequest request = new QueryRequest()
+        .withTableName(TABLE)
+        .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+    if (usesVersionIndex(version)) {
+      // Start and end are reserved words
+      valueMap.put(":strt", new AttributeValue().withS(toVersionDate(version, from)));
+      valueMap.put(":en", new AttributeValue().withS(toVersionDate(version, to)));
+      request.setIndexName(VERSION_DATE_INDEX);
+      request.setKeyConditionExpression("appIdStore = :id and versionDate between :strt and :en");
+    } else {
+      nameMap.put("#dte", "date"); // Date is a reserved word in DynamoDB
+      valueMap.put(":strt", new AttributeValue().withS(from));
+      valueMap.put(":en", new AttributeValue().withS(to));
+      request.setIndexName(DATE_INDEX);
+      request.setKeyConditionExpression("appIdStore = :id and #dte between :strt and :en");
+
+      if (version != null) {
+        valueMap.put(":version", new AttributeValue().withS(version));
+        request.setFilterExpression("version = :version");
+      }
+    }
+
+    // DynamoDB rejects an empty name map, and callers may add names such as a projection
+    if (!nameMap.isEmpty()) {
+      request.setExpressionAttributeNames(nameMap);
+    }
+    return request.withExpressionAttributeValues(valueMap);
+  }
+
+  /**
+   * Checks whether a query for a version reads the versionDate index.
+   * @param version The app version to analyze, or null for every version
+   * @return True if the versionDate index is used
+   */
+  public boolean usesVersionIndex(String version) {
+    return useVersionIndex && version != null;
+  }
+
+  /**
+   * Builds the key to resume a planned query after a review.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param date The ISO date of the review
+   * @param reviewHash The hash of the review
+   * @return The exclusive start key
+   */
+  public Map<String, AttributeValue> startKey(
+      String appIdStore, String version, String date, String reviewHash) {
+    Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+    key.put("appIdStore", new AttributeValue().withS(appIdStore));
+    key.put("reviewHash", new AttributeValue().withS(reviewHash));
+    if (usesVersionIndex(version)) {
+      key.put("versionDate", new AttributeValue().withS(toVersionDate(version, date)));
+    } else {
+      key.put("date", new AttributeValue().withS(date));
+    }
+    return key;
+  }
+
+  /**
+   * Reads the date of a review from an item or a key of either index.
+   * @param key The item or key
+   * @return The ISO date
+   */
+  public static String getDate(Map<String, AttributeValue> key) {
+    AttributeValue date = key.get("date");
+    if (date != null) {
+      return date.getS();
+    }
+    String versionDate = key.get("versionDate").getS();
+    return versionDate.substring(versionDate.lastIndexOf(VERSION_DATE_SEPARATOR) + 1);
+  }
+
+  /**
+   * Reads the read capacity a query consumed.
+   * @param result The query result
+   * @return The capacity units, or 0 if the query did not report them
+   */
+  public static double getCapacityUnits(QueryResult result) {
+    ConsumedCapacity capacity = result.getConsumedCapacity();
+    if (capacity == null || capacity.getCapacityUnits() == null) {
+      return 0;
+    }
+    return capacity.getCapacityUnits();
+  }
+
+  private static String toVersionDate(String version, String date) {
+    return version + VERSION_DATE_SEPARATOR + date;
+  }
+}
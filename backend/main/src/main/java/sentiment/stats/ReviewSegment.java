@@ -0,0 +1,322 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One app's reviews over a window of days, in a compact columnar file that is read through a
+ * read-only memory mapping.
+ * The file holds a header, the row of each day's first review, fixed-width columns of keyword
+ * offsets, keyword ids, version ids, hours and sentiments, and the version and keyword
+ * dictionaries. Rows are sorted by date, so a date range is a run of rows found from the day
+ * index, and its reviews are copied into a ReviewBatch without building DynamoDB items.
+ * Every day of the window is treated as complete.
+ */
+public class ReviewSegment {
+  private static final int MAGIC = 0x52534547; // "RSEG"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_BYTES = 8 * Integer.BYTES;
+
+  /**
+   * The most versions a segment can hold, as version ids are stored in two bytes.
+   */
+  private static final int MAX_VERSIONS = 1 << 16;
+
+  private final MappedByteBuffer mapping;
+
+  private final int firstDay;
+  private final int lastDay;
+  private final int rowCount;
+
+  /**
+   * The byte offsets of each column in the mapping.
+   */
+  private final int dayOffsetsStart;
+  private final int keywordOffsetsStart;
+  private final int keywordIdsStart;
+  private final int versionIdsStart;
+  private final int hoursStart;
+  private final int sentimentsStart;
+
+  private final List<String> versions;
+  private final List<String> keywords;
+
+  private ReviewSegment(MappedByteBuffer mapping) throws IOException {
+    this.mapping = mapping;
+    if (mapping.capacity() < HEADER_BYTES || mapping.getInt(0) != MAGIC) {
+      throw new IOException("Not a review segment");
+    }
+    if (mapping.getInt(4) != FORMAT_VERSION) {
+      throw new IOException("Unsupported review segment version " + mapping.getInt(4));
+    }
+    this.firstDay = mapping.getInt(8);
+    this.lastDay = mapping.getInt(12);
+    this.rowCount = mapping.getInt(16);
+    int keywordIdCount = mapping.getInt(20);
+    int versionCount = mapping.getInt(24);
+    int keywordCount = mapping.getInt(28);
+    if (lastDay < firstDay || rowCount < 0 || keywordIdCount < 0) {
+      throw new IOException("Invalid review segment header");
+    }
+
+    // Columns are laid out widest first, so every value is aligned to its width
+    long offset = HEADER_BYTES;
+    this.dayOffsetsStart = (int) offset;
+    offset += (long) (lastDay - firstDay + 2) * Integer.BYTES;
+    this.keywordOffsetsStart = checkOffset(offset);
+    offset += (long) (rowCount + 1) * Integer.BYTES;
+    this.keywordIdsStart = checkOffset(offset);
+    offset += (long) keywordIdCount * Integer.BYTES;
+    this.versionIdsStart = checkOffset(offset);
+    offset += (long) rowCount * Short.BYTES;
+    this.hoursStart = checkOffset(offset);
+    offset += rowCount;
+    this.sentimentsStart = checkOffset(offset);
+    offset += rowCount;
+
+    try {
+      ByteBuffer view = mapping.duplicate();
+      view.position(checkOffset(offset));
+      this.versions = readStrings(view, versionCount);
+      this.keywords = readStrings(view, keywordCount);
+    } catch (RuntimeException exp) {
+      throw new IOException("Invalid review segment dictionaries", exp);
+    }
+  }
+
+  /**
+   * Maps a segment file.
+   * @param path The file
+   * @return The segment
+   * @throws IOException If the file could not be read or is not a valid segment
+   */
+  public static ReviewSegment open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      return new ReviewSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Writes one app's reviews over a window of days as a segment file.
+   * Reviews outside the window, or without a valid date, are left out. The file is written
+   * beside the path and moved into place, so readers never map a partly written segment.
+   * @param path The file to write
+   * @param items The app's reviews, in any order
+   * @param startDate The first day of the window
+   * @param endDate The last day of the window (inclusive)
+   * @throws IOException If the file could not be written
+   */
+  public static void write(Path path, List<Map<String, AttributeValue>> items,
+      LocalDate startDate, LocalDate endDate) throws IOException {
+    int firstDay = (int) startDate.toEpochDay();
+    int lastDay = (int) endDate.toEpochDay();
+
+    if (lastDay < firstDay) {
+      throw new IllegalArgumentException("The window ends before it starts");
+    }
+
+    // Encode the reviews in the window, so the dictionaries only hold their values
+    ReviewBatch.Builder builder = new ReviewBatch.Builder(items.size());
+    for (Map<String, AttributeValue> item : items) {
+      AttributeValue date = item.get("date");
+      int day = date == null || date.getS() == null
+          ? ReviewBatch.UNKNOWN_DATE : IsoDates.parseEpochDay(date.getS());
+      if (day != ReviewBatch.UNKNOWN_DATE && day >= firstDay && day <= lastDay) {
+        builder.add(item);
+      }
+    }
+    ReviewBatch batch = builder.build(null);
+
+    // Order the rows by date, and by hour within a day
+    List<Integer> rows = new ArrayList<Integer>(batch.size());
+    for (int row = 0; row < batch.size(); row++) {
+      rows.add(row);
+    }
+    Collections.sort(rows, (a, b) -> batch.getEpochDay(a) != batch.getEpochDay(b)
+        ? Integer.compare(batch.getEpochDay(a), batch.getEpochDay(b))
+        : Integer.compare(batch.getHour(a), batch.getHour(b)));
+
+    if (batch.getVersionCount() > MAX_VERSIONS) {
+      throw new IOException("Too many versions for a review segment");
+    }
+
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      int keywordIdCount = 0;
+      for (int row : rows) {
+        keywordIdCount += batch.getKeywordEnd(row) - batch.getKeywordStart(row);
+      }
+
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(firstDay);
+      output.writeInt(lastDay);
+      output.writeInt(rows.size());
+      output.writeInt(keywordIdCount);
+      output.writeInt(batch.getVersionCount());
+      output.writeInt(batch.getKeywordCount());
+
+      // The rows of day d are dayOffsets[d - firstDay] until dayOffsets[d - firstDay + 1]
+      int index = 0;
+      for (int day = firstDay; day <= lastDay + 1; day++) {
+        while (index < rows.size() && batch.getEpochDay(rows.get(index)) < day) {
+          index++;
+        }
+        output.writeInt(index);
+      }
+
+      int keywordOffset = 0;
+      output.writeInt(keywordOffset);
+      for (int row : rows) {
+        keywordOffset += batch.getKeywordEnd(row) - batch.getKeywordStart(row);
+        output.writeInt(keywordOffset);
+      }
+      for (int row : rows) {
+        for (int i = batch.getKeywordStart(row); i < batch.getKeywordEnd(row); i++) {
+          output.writeInt(batch.getKeywordId(i));
+        }
+      }
+      for (int row : rows) {
+        output.writeShort(batch.getVersionId(row));
+      }
+      for (int row : rows) {
+        output.writeByte(batch.getHour(row));
+      }
+      for (int row : rows) {
+        output.writeByte(batch.getSentimentOrdinal(row));
+      }
+
+      for (int id = 0; id < batch.getVersionCount(); id++) {
+        writeString(output, batch.getVersion(id));
+      }
+      for (int id = 0; id < batch.getKeywordCount(); id++) {
+        writeString(output, batch.getKeyword(id));
+      }
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public LocalDate getStartDate() {
+    return LocalDate.ofEpochDay(firstDay);
+  }
+
+  public LocalDate getEndDate() {
+    return LocalDate.ofEpochDay(lastDay);
+  }
+
+  public int size() {
+    return this.rowCount;
+  }
+
+  /**
+   * Counts the reviews in a date range.
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return The number of reviews of every version in the range
+   */
+  public int count(LocalDate startDate, LocalDate endDate) {
+    int from = Math.max((int) startDate.toEpochDay(), firstDay);
+    int to = Math.min((int) endDate.toEpochDay(), lastDay);
+    return from > to ? 0 : getDayOffset(to + 1) - getDayOffset(from);
+  }
+
+  /**
+   * Creates a builder that shares this segment's dictionaries, for its rows to be copied into.
+   * @param expectedSize The expected number of reviews
+   * @return A new builder
+   */
+  ReviewBatch.Builder newBuilder(int expectedSize) {
+    return new ReviewBatch.Builder(expectedSize, versions, keywords);
+  }
+
+  /**
+   * Copies the reviews in a date range into a builder from newBuilder.
+   * @param builder The builder to add the reviews to
+   * @param version The app version, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   */
+  void copyRows(ReviewBatch.Builder builder, String version,
+      LocalDate startDate, LocalDate endDate) {
+    int versionId = -1;
+    if (version != null) {
+      versionId = versions.indexOf(version);
+      if (versionId < 0) {
+        return;
+      }
+    }
+
+    int from = Math.max((int) startDate.toEpochDay(), firstDay);
+    int to = Math.min((int) endDate.toEpochDay(), lastDay);
+    int[] reviewKeywordIds = new int[16];
+    for (int day = from; day <= to; day++) {
+      int end = getDayOffset(day + 1);
+      for (int row = getDayOffset(day); row < end; row++) {
+        int rowVersionId = mapping.getShort(versionIdsStart + row * Short.BYTES) & 0xFFFF;
+        if (versionId >= 0 && rowVersionId != versionId) {
+          continue;
+        }
+
+        int keywordStart = mapping.getInt(keywordOffsetsStart + row * Integer.BYTES);
+        int keywordCount =
+            mapping.getInt(keywordOffsetsStart + (row + 1) * Integer.BYTES) - keywordStart;
+        if (keywordCount > reviewKeywordIds.length) {
+          reviewKeywordIds = Arrays.copyOf(reviewKeywordIds, keywordCount);
+        }
+        for (int i = 0; i < keywordCount; i++) {
+          reviewKeywordIds[i] =
+              mapping.getInt(keywordIdsStart + (keywordStart + i) * Integer.BYTES);
+        }
+
+        builder.addEncoded(day, mapping.get(hoursStart + row),
+            mapping.get(sentimentsStart + row), rowVersionId, reviewKeywordIds, keywordCount);
+      }
+    }
+  }
+
+  private int getDayOffset(int day) {
+    return mapping.getInt(dayOffsetsStart + (day - firstDay) * Integer.BYTES);
+  }
+
+  private int checkOffset(long offset) throws IOException {
+    if (offset > mapping.capacity()) {
+      throw new IOException("Review segment is truncated");
+    }
+    return (int) offset;
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static List<String> readStrings(ByteBuffer input, int count) {
+    List<String> values = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] bytes = new byte[input.getInt()];
+      input.get(bytes);
+      values.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+    return Collections.unmodifiableList(values);
+  }
+}
@@ -0,0 +1,75 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the reviews of apps by date.
+ * Reviews are DynamoDB attribute maps whichever store holds them, or batches encoded from
+ * them, so stats are calculated the same way from every store.
+ */
+public interface ReviewStore {
+  /**
+   * Reads the reviews of an app in a date range.
+   * @param appIdStore The App ID and Store for the app
+   * @param version The app version, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return The reviews, in date order
+   * @throws Exception If the reviews could not be read
+   */
+  List<Map<String, AttributeValue>> query(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate)
+      throws Exception;
+
+  /**
+   * Reads the reviews of an app in a date range as an encoded batch, without their items.
+   * Stores that hold reviews encoded copy them into the batch rather than building items.
+   * @param appIdStore The App ID and Store for the app
+   * @param version The app version, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return The reviews, in date order
+   * @throws Exception If the reviews could not be read
+   */
+  default ReviewBatch queryBatch(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate)
+      throws Exception {
+    return ReviewBatch.fromItems(query(appIdStore, version, startDate, endDate), false);
+  }
+
+  /**
+   * Finds the date of an app's first review.
+   * @param appIdStore The App ID and Store for the app
+   * @return The date, or null if the app has no reviews
+   * @throws Exception If the reviews could not be read
+   */
+  LocalDate getMinDate(String appIdStore) throws Exception;
+
+  /**
+   * Finds the date of an app's last review.
+   * @param appIdStore The App ID and Store for the app
+   * @return The date, or null if the app has no reviews
+   * @throws Exception If the reviews could not be read
+   */
+  LocalDate getMaxDate(String appIdStore) throws Exception;
+
+  /**
+   * Lists the versions an app has reviews for.
+   * @param appIdStore The App ID and Store for the app
+   * @return The distinct versions, sorted
+   * @throws Exception If the reviews could not be read
+   */
+  String[] getVersions(String appIdStore) throws Exception;
+
+  /**
+   * Returns the read capacity consumed by this store's reads so far.
+   * @return The capacity units, or 0 for stores outside DynamoDB
+   */
+  default double getConsumedCapacity() {
+    return 0;
+  }
+}
@@ -0,0 +1,189 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads daily review rollups from DynamoDB.
+ * Rollups are maintained by the reviews scraper as reviews are written. Each item is keyed
+ * by appIdStore and a "version#yyyy-mm-dd" sort key, and holds a "total" count, a count
+ * attribute per sentiment, and keyword counts under "kp:" (positive) and "kn:" (negative)
+ * prefixed attribute names. The rollups of every version of a day are summed under the "all"
+ * version, so a range of days is a single key range whatever the version.
+ * Only the most frequent key phrases of each item are stored, so keyword counts of busy days
+ * leave out their rarest phrases.
+ */
+public class RollupStore {
+  private static final String ROLLUP_TABLE = System.getenv("ROLLUP_TABLE_NAME");
+
+  static final String TOTAL_ATTRIBUTE = "total";
+  static final String POSITIVE_KEYWORD_PREFIX = "kp:";
+  static final String NEGATIVE_KEYWORD_PREFIX = "kn:";
+
+  /**
+   * The attributes read when keyword counts aren't needed.
+   */
+  private static final String[] COUNT_ATTRIBUTES = {
+    "versionDay", TOTAL_ATTRIBUTE, "POSITIVE", "NEGATIVE", "NEUTRAL", "MIXED"
+  };
+
+  /**
+   * The DynamoDB client to use.
+   */
+  private AmazonDynamoDB db;
+
+  /**
+   * The read capacity consumed by every query so far.
+   */
+  private double consumedCapacity = 0;
+
+  public RollupStore(AmazonDynamoDB db) {
+    this.db = db;
+  }
+
+  /**
+   * Query DynamoDB for the rollups of an app version over a date range.
+   * Days without any reviews have no rollup item.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return A list of daily rollups, in chronological order
+   */
+  public List<DailyRollup> fetch(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate) {
+    return fetch(appIdStore, version, startDate, endDate, true);
+  }
+
+  /**
+   * Query DynamoDB for the rollups of an app version over a date range, reading one item
+   * per day with reviews.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @param includeKeywords Whether to read the keyword counts, or only the review counts
+   * @return A list of daily rollups, in chronological order
+   */
+  public List<DailyRollup> fetch(String appIdStore, String version,
+      LocalDate startDate, LocalDate endDate, boolean includeKeywords) {
+    String versionKey = version != null ? version : StatsRequest.ALL_VERSIONS;
+    HashMap<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+    valueMap.put(":id", new AttributeValue().withS(appIdStore));
+    valueMap.put(":strt", new AttributeValue().withS(versionKey + "#" + startDate));
+    valueMap.put(":en", new AttributeValue().withS(versionKey + "#" + endDate));
+
+    QueryRequest request = new QueryRequest()
+        .withTableName(ROLLUP_TABLE)
+        .withKeyConditionExpression("appIdStore = :id and versionDay between :strt and :en")
+        .withExpressionAttributeValues(valueMap)
+        .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+    if (!includeKeywords) {
+      // Counter names like "total" may be reserved words, so every name is substituted
+      Map<String, String> names = new HashMap<String, String>();
+      List<String> projection = new ArrayList<String>();
+      for (int i = 0; i < COUNT_ATTRIBUTES.length; i++) {
+        names.put("#c" + i, COUNT_ATTRIBUTES[i]);
+        projection.add("#c" + i);
+      }
+      request.setExpressionAttributeNames(names);
+      request.setProjectionExpression(String.join(", ", projection));
+    }
+
+    List<DailyRollup> rollups = new ArrayList<DailyRollup>();
+    Map<String, AttributeValue> lastKey = null;
+    do {
+      QueryResult result = db.query(request.withExclusiveStartKey(lastKey));
+      consumedCapacity += ReviewQueryPlanner.getCapacityUnits(result);
+      for (Map<String, AttributeValue> item : result.getItems()) {
+        rollups.add(fromItem(item));
+      }
+      lastKey = result.getLastEvaluatedKey();
+    } while (lastKey != null && !lastKey.isEmpty());
+
+    return rollups;
+  }
+
+  /**
+   * Returns the read capacity consumed by the queries of every fetch so far.
+   * @return The capacity units
+   */
+  public double getConsumedCapacity() {
+    return this.consumedCapacity;
+  }
+
+  /**
+   * Query DynamoDB for the sort keys of every rollup of an app.
+   * Only the keys are projected, so this reads one small item per version and day
+   * regardless of how many reviews the app has.
+   * @param appIdStore The App ID and Store for the app
+   * @return The "version#yyyy-mm-dd" sort key of each rollup
+   */
+  public List<String> fetchVersionDays(String appIdStore) {
+    HashMap<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+    valueMap.put(":id", new AttributeValue().withS(appIdStore));
+
+    QueryRequest request = new QueryRequest()
+        .withTableName(ROLLUP_TABLE)
+        .withKeyConditionExpression("appIdStore = :id")
+        .withExpressionAttributeValues(valueMap)
+        .withProjectionExpression("versionDay");
+
+    List<String> versionDays = new ArrayList<String>();
+    Map<String, AttributeValue> lastKey = null;
+    do {
+      QueryResult result = db.query(request.withExclusiveStartKey(lastKey));
+      for (Map<String, AttributeValue> item : result.getItems()) {
+        versionDays.add(item.get("versionDay").getS());
+      }
+      lastKey = result.getLastEvaluatedKey();
+    } while (lastKey != null && !lastKey.isEmpty());
+
+    return versionDays;
+  }
+
+  /**
+   * Decodes a rollup item.
+   * @param item The DynamoDB item.
+   * @return The decoded rollup.
+   */
+  static DailyRollup fromItem(Map<String, AttributeValue> item) {
+    String versionDay = item.get("versionDay").getS();
+    LocalDate day = LocalDate.parse(versionDay.substring(versionDay.lastIndexOf('#') + 1));
+    DailyRollup rollup = new DailyRollup((int) day.toEpochDay());
+
+    for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+      String name = attribute.getKey();
+      String count = attribute.getValue().getN();
+      if (count == null) {
+        continue;
+      }
+
+      if (name.equals(TOTAL_ATTRIBUTE)) {
+        rollup.addTotal(Integer.parseInt(count));
+      } else if (name.startsWith(POSITIVE_KEYWORD_PREFIX)) {
+        rollup.getKeywords(Sentiment.POSITIVE)
+            .add(name.substring(POSITIVE_KEYWORD_PREFIX.length()), Integer.parseInt(count));
+      } else if (name.startsWith(NEGATIVE_KEYWORD_PREFIX)) {
+        rollup.getKeywords(Sentiment.NEGATIVE)
+            .add(name.substring(NEGATIVE_KEYWORD_PREFIX.length()), Integer.parseInt(count));
+      } else {
+        Sentiment sentiment = Sentiment.parse(name);
+        if (sentiment != null) {
+          rollup.addSentimentCount(sentiment, Integer.parseInt(count));
+        }
+      }
+    }
+    return rollup;
+  }
+}
@@ -0,0 +1,170 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds review segments from a DynamoDB export of the reviews table.
+ * Reads every data file of an export in DynamoDB JSON format (one {"Item": ...} per line,
+ * gzipped or not), and writes a segment per app of its reviews over the last days up to the
+ * last day scrapes no longer write, since a segment treats every day as complete.
+ * Run with java -cp sentiment-1.0-aws.jar sentiment.stats.SegmentExport
+ * &lt;export dir&gt; &lt;segment dir&gt; [days] [appIdStore...]
+ * where the days default to 90, and every app in the export is written unless apps are given.
+ */
+public class SegmentExport {
+  private static final int DEFAULT_DAYS = 90;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Builds the segments.
+   * @param args The export directory, segment directory, number of days and apps
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: SegmentExport <export dir> <segment dir> [days] [appIdStore...]");
+      System.exit(1);
+    }
+    Path exportDir = Paths.get(args[0]);
+    Path segmentDir = Paths.get(args[1]);
+    int days = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DAYS;
+    Set<String> apps = args.length > 3
+        ? new HashSet<String>(Arrays.asList(args).subList(3, args.length)) : null;
+
+    LocalDate endDate = LocalDate.ofEpochDay(DailyRollupCache.getLastImmutableDay());
+    LocalDate startDate = endDate.minusDays(days - 1);
+    Map<String, List<Map<String, AttributeValue>>> reviews =
+        readExport(exportDir, apps, startDate, endDate);
+
+    Files.createDirectories(segmentDir);
+    for (Map.Entry<String, List<Map<String, AttributeValue>>> app : reviews.entrySet()) {
+      ReviewSegment.write(SegmentReviewStore.getPath(segmentDir, app.getKey()),
+          app.getValue(), startDate, endDate);
+      System.out.println("Wrote " + app.getValue().size() + " reviews of " + app.getKey());
+    }
+  }
+
+  /**
+   * Reads the reviews in a date range from every data file of an export.
+   * @param exportDir The export directory
+   * @param apps The apps to read, or null for every app
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range (inclusive)
+   * @return The reviews of each app
+   * @throws IOException If a data file could not be read
+   */
+  static Map<String, List<Map<String, AttributeValue>>> readExport(Path exportDir,
+      Set<String> apps, LocalDate startDate, LocalDate endDate) throws IOException {
+    // Dates are compared as ISO strings, like the date index does
+    String from = startDate.toString();
+    String to = endDate.plusDays(1).toString();
+
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(exportDir)) {
+      files = paths
+          .filter(path -> path.toString().endsWith(".json") || path.toString().endsWith(".json.gz"))
+          .collect(Collectors.toList());
+    }
+
+    Map<String, List<Map<String, AttributeValue>>> reviews =
+        new HashMap<String, List<Map<String, AttributeValue>>>();
+    for (Path file : files) {
+      InputStream input = Files.newInputStream(file);
+      if (file.toString().endsWith(".gz")) {
+        input = new GZIPInputStream(input);
+      }
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          JsonNode item = MAPPER.readTree(line).get("Item");
+          if (item == null) {
+            continue;
+          }
+          Map<String, AttributeValue> review = toItem(item);
+          AttributeValue app = review.get("appIdStore");
+          AttributeValue date = review.get("date");
+          if (app == null || date == null || date.getS() == null
+              || (apps != null && !apps.contains(app.getS()))
+              || date.getS().compareTo(from) < 0 || date.getS().compareTo(to) >= 0) {
+            continue;
+          }
+          reviews.computeIfAbsent(app.getS(), key -> new ArrayList<Map<String, AttributeValue>>())
+              .add(review);
+        }
+      }
+    }
+    return reviews;
+  }
+
+  /**
+   * Converts an item in DynamoDB JSON to its attributes.
+   * @param node The item, an object of attribute names to typed values
+   * @return The attributes
+   */
+  static Map<String, AttributeValue> toItem(JsonNode node) {
+    Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      item.put(field.getKey(), toAttributeValue(field.getValue()));
+    }
+    return item;
+  }
+
+  private static AttributeValue toAttributeValue(JsonNode node) {
+    if (node.has("S")) {
+      return new AttributeValue().withS(node.get("S").asText());
+    } else if (node.has("N")) {
+      return new AttributeValue().withN(node.get("N").asText());
+    } else if (node.has("BOOL")) {
+      return new AttributeValue().withBOOL(node.get("BOOL").asBoolean());
+    } else if (node.has("NULL")) {
+      return new AttributeValue().withNULL(true);
+    } else if (node.has("L")) {
+      List<AttributeValue> list = new ArrayList<AttributeValue>();
+      for (JsonNode element : node.get("L")) {
+        list.add(toAttributeValue(element));
+      }
+      return new AttributeValue().withL(list);
+    } else if (node.has("M")) {
+      return new AttributeValue().withM(toItem(node.get("M")));
+    } else if (node.has("SS")) {
+      return new AttributeValue().withSS(toStrings(node.get("SS")));
+    } else if (node.has("NS")) {
+      return new AttributeValue().withNS(toStrings(node.get("NS")));
+    }
+    throw new IllegalArgumentException("Unsupported attribute value " + node);
+  }
+
+  private static List<String> toStrings(JsonNode node) {
+    List<String> values = new ArrayList<String>();
+    for (JsonNode value : node) {
+      values.add(value.asText());
+    }
+    return values;
+  }
+}
@@ -0,0 +1,177 @@
+package sentiment.stats;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves each app's hot window of reviews from a ReviewSegment, and everything else from
+ * another store.
+ * Encoded reviews in a segment's window are copied straight from its mapping, and only the
+ * days before or after the window are read from the other store. Reviews as items, and an
+ * app's date range and versions, always come from the other store.
+ * Segments are mapped on first use and shared by every store, and mapped again once their
+ * file's modification time or size changes, so a rebuilt segment is served without a restart.
+ */
+public class SegmentReviewStore implements ReviewStore {
+  private static final Map<Path, MappedSegment> SEGMENTS =
+      new ConcurrentHashMap<Path, MappedSegment>();
+
+  /**
+   * The directory holding a segment file per app.
+   */
+  private final Path directory;
+
+  /**
+   * The store to read reviews outside the segments from.
+   */
+  private final ReviewStore fallback;
+
+  /**
+   * Constructs a store.
+   * @param directory The directory holding a segment file per app
+   * @param fallback The store to read reviews outside the segments from
+   */
+  public SegmentReviewStore(Path directory, ReviewStore fallback) {
+    this.directory = directory;
+    this.fallback = fallback;
+  }
+
+  public ReviewStore getFallback() {
+    return this.fallback;
+  }
+
+  /**
+   * Finds the segment file of an app.
+   * @param directory The directory holding a segment file per app
+   * @param appIdStore The App ID and Store for the app
+   * @return The path of the app's segment file
+   */
+  public static Path getPath(Path directory, String appIdStore) {
+    try {
+      return directory.resolve(URLEncoder.encode(appIdStore, "UTF-8") + ".seg");
+    } catch (UnsupportedEncodingException exp) {
+      throw new IllegalStateException(exp);
+    }
+  }
+
+  @Override
+  public List<Map<String, AttributeValue>> query(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate)
+      throws Exception {
+    return fallback.query(appIdStore, version, startDate, endDate);
+  }
+
+  @Override
+  public ReviewBatch queryBatch(
+      String appIdStore, String version, LocalDate startDate, LocalDate endDate)
+      throws Exception {
+    ReviewSegment segment = getSegment(appIdStore);
+    if (segment == null || endDate.isBefore(segment.getStartDate())
+        || startDate.isAfter(segment.getEndDate())) {
+      return fallback.queryBatch(appIdStore, version, startDate, endDate);
+    }
+
+    List<Map<String, AttributeValue>> before = null;
+    List<Map<String, AttributeValue>> after = null;
+    if (startDate.isBefore(segment.getStartDate())) {
+      before = fallback.query(
+          appIdStore, version, startDate, segment.getStartDate().minusDays(1));
+    }
+    if (endDate.isAfter(segment.getEndDate())) {
+      after = fallback.query(appIdStore, version, segment.getEndDate().plusDays(1), endDate);
+    }
+
+    // Rows are added in date order: days before the segment, the segment, then days after it
+    ReviewBatch.Builder builder = segment.newBuilder(segment.count(startDate, endDate)
+        + (before != null ? before.size() : 0) + (after != null ? after.size() : 0));
+    if (before != null) {
+      for (Map<String, AttributeValue> item : before) {
+        builder.add(item);
+      }
+    }
+    segment.copyRows(builder, version, startDate, endDate);
+    if (after != null) {
+      for (Map<String, AttributeValue> item : after) {
+        builder.add(item);
+      }
+    }
+    return builder.build(null);
+  }
+
+  @Override
+  public LocalDate getMinDate(String appIdStore) throws Exception {
+    return fallback.getMinDate(appIdStore);
+  }
+
+  @Override
+  public LocalDate getMaxDate(String appIdStore) throws Exception {
+    return fallback.getMaxDate(appIdStore);
+  }
+
+  @Override
+  public String[] getVersions(String appIdStore) throws Exception {
+    return fallback.getVersions(appIdStore);
+  }
+
+  @Override
+  public double getConsumedCapacity() {
+    return fallback.getConsumedCapacity();
+  }
+
+  /**
+   * Finds the segment of an app, mapping it the first time and whenever its file changes.
+   * @param appIdStore The App ID and Store for the app
+   * @return The segment, or null if the app has none
+   * @throws IOException If the segment could not be mapped
+   */
+  private ReviewSegment getSegment(String appIdStore) throws IOException {
+    Path path = getPath(directory, appIdStore);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException exp) {
+      SEGMENTS.remove(path);
+      return null;
+    }
+
+    MappedSegment mapped = SEGMENTS.get(path);
+    if (mapped == null || !mapped.matches(attributes)) {
+      // A file replaced after its attributes were read is mapped again on the next request,
+      // and two threads mapping the same file at once simply keep the last mapping
+      mapped = new MappedSegment(ReviewSegment.open(path), attributes);
+      SEGMENTS.put(path, mapped);
+    }
+    return mapped.segment;
+  }
+
+  /**
+   * A mapped segment, with the attributes of the file it was mapped from.
+   */
+  private static final class MappedSegment {
+    private final ReviewSegment segment;
+    private final FileTime lastModified;
+    private final long size;
+
+    private MappedSegment(ReviewSegment segment, BasicFileAttributes attributes) {
+      this.segment = segment;
+      this.lastModified = attributes.lastModifiedTime();
+      this.size = attributes.size();
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package sentiment.stats;
+
+/**
+ * The sentiment labels assigned to reviews by AWS Comprehend.
+ */
+public enum Sentiment {
+  POSITIVE,
+  NEGATIVE,
+  NEUTRAL,
+  MIXED;
+
+  private static final Sentiment[] VALUES = values();
+
+  /**
+   * Looks up a sentiment by its ordinal without copying the values array.
+   * @param ordinal The ordinal, as stored in a ReviewBatch.
+   * @return The matching sentiment, or null for an unknown value.
+   */
+  public static Sentiment fromOrdinal(int ordinal) {
+    return ordinal < 0 || ordinal >= VALUES.length ? null : VALUES[ordinal];
+  }
+
+  /**
+   * Parses a DynamoDB sentiment label.
+   * @param label The label to parse.
+   * @return The matching sentiment, or null for an unknown label.
+   */
+  public static Sentiment parse(String label) {
+    for (Sentiment sentiment : VALUES) {
+      if (sentiment.name().equals(label)) {
+        return sentiment;
+      }
+    }
+    return null;
+  }
+}
@@ -3,19 +3,16 @@ package sentiment.stats;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
+import java.time.LocalDateTime;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Handles calculation of sentiment per date from a list of DynamoDB reviews.
  */
 public class SentimentOverTimeCalculation extends StatCalculation {
+  private static final byte NEGATIVE = (byte) Sentiment.NEGATIVE.ordinal();
 
   /**
    * The starting date for the calculation time interval.
@@ -28,19 +25,59 @@ public class SentimentOverTimeCalculation extends StatCalculation {
   private LocalDate endDate;
 
   /**
-   * The number of negative reviews per day (Using LinkedHashMap to maintain order).
+   * The size of each chart bucket.
    */
-  private Map<LocalDate, Integer> negativeCountsByDate = new LinkedHashMap<LocalDate, Integer>();
+  private Granularity granularity = Granularity.DAY;
 
   /**
-   * The number of total reviews per day (Using LinkedHashMap to maintain order).
+   * The bucket containing startDate, which is index 0 of the counts.
    */
-  private Map<LocalDate, Integer> totalCountsByDate = new LinkedHashMap<LocalDate, Integer>();
+  private long firstBucket;
 
   /**
-   *  Chart labels to send to frontend.
-   */ 
-  List<String> chartLabels = new ArrayList<String>();
+   * The number of negative reviews per bucket, indexed by buckets since startDate.
+   */
+  private int[] negativeCountsByDate;
+
+  /**
+   * The number of total reviews per bucket, indexed by buckets since startDate.
+   */
+  private int[] totalCountsByDate;
+
+  /**
+   * The number of reviews dated outside the time interval, or with no valid date.
+   */
+  private int outOfRangeCount = 0;
+
+  /**
+   * Constructs a SentimentOverTimeCalculation.
+   * @param batch The reviews to process.
+   * @param startDate The start of the time interval to process.
+   * @param endDate The end of the time interval to process.
+   */
+  public SentimentOverTimeCalculation(
+      ReviewBatch batch, LocalDate startDate, LocalDate endDate) {
+    this(batch, startDate, endDate, null);
+  }
+
+  /**
+   * Constructs a SentimentOverTimeCalculation.
+   * @param batch The reviews to process.
+   * @param startDate The start of the time interval to process.
+   * @param endDate The end of the time interval to process.
+   * @param params The stat parameters. The first, if present, is the granularity ("hour",
+   *     "day", "week" or "month"). The second, if present, is the maximum number of points;
+   *     longer charts use the next larger granularity until they fit.
+   */
+  public SentimentOverTimeCalculation(
+      ReviewBatch batch, LocalDate startDate, LocalDate endDate, String[] params) {
+    super(batch);
+    
+    this.startDate = startDate;
+    this.endDate = endDate;
+
+    initializeCounts(params);
+  }
 
   /**
    * Constructs a SentimentOverTimeCalculation.
@@ -54,80 +91,186 @@ public class SentimentOverTimeCalculation extends StatCalculation {
     
     this.startDate = startDate;
     this.endDate = endDate;
+
+    initializeCounts(null);
   }
 
   /**
-   * Runs the SentimentOverTime calculation.
-   * @return An OutgoingStat containing the calculation results.
+   * Constructs an empty SentimentOverTimeCalculation with the same buckets as another.
+   * @param template The calculation to copy the settings of.
    */
-  public OutgoingStat<?, ?> calculate() {
-    // Mapping Step: DB Items -> Sentiment Counts (per Date)
-    initializeLabelsAndCounts();
-    countNegativeReviewsByDate();
+  private SentimentOverTimeCalculation(SentimentOverTimeCalculation template) {
+    super(template.batch);
 
+    this.startDate = template.startDate;
+    this.endDate = template.endDate;
+    this.granularity = template.granularity;
+    this.firstBucket = template.firstBucket;
+    this.negativeCountsByDate = new int[template.negativeCountsByDate.length];
+    this.totalCountsByDate = new int[template.totalCountsByDate.length];
+  }
 
-    // Reduce Step: Lists of Sentiment Values -> Sentiment Percentages
-    List<Double> negativePercentagesByDate = calculateNegativeReviewPercentages();
+  /**
+   * Adds a single review to the total and negative review counts for its bucket.
+   * @param row The review's row in the batch.
+   */
+  protected void accumulate(int row) {
+    int epochDay = batch.getEpochDay(row);
+    int hour = batch.getHour(row);
+    if (epochDay == ReviewBatch.UNKNOWN_DATE
+        || (granularity == Granularity.HOUR && hour == ReviewBatch.UNKNOWN_HOUR)) {
+      outOfRangeCount++;
+      return;
+    }
 
-    Map<String, Object[]> result = new HashMap<String, Object[]>();
-    result.put("labels", chartLabels.toArray());
-    result.put("data", negativePercentagesByDate.toArray());
-    result.put("totals", totalCountsByDate.values().toArray());
+    long index = granularity.bucket(epochDay, hour) - firstBucket;
+    if (index < 0 || index >= totalCountsByDate.length) {
+      outOfRangeCount++;
+      return;
+    }
 
-    return new OutgoingStat<String, Object[]>("sentimentOverTime", result);
+    totalCountsByDate[(int) index]++;
+    if (batch.getSentimentOrdinal(row) == NEGATIVE) {
+      negativeCountsByDate[(int) index]++;
+    }
   }
 
   /**
-   * Initializes the review count for each day to 0 and generates a chart label for each day.
+   * Adds a day of reviews to the total and negative review counts for its bucket.
+   * @param rollup The daily rollup.
    */
-  private void initializeLabelsAndCounts() {
-    // https://stackoverflow.com/questions/40671689/how-to-build-a-list-of-localdate-from-a-given-range
-    final int days = (int) startDate.until(endDate, ChronoUnit.DAYS) + 1;
+  protected void accumulate(DailyRollup rollup) {
+    long index = granularity.bucket(rollup.getEpochDay(), 0) - firstBucket;
+    if (index < 0 || index >= totalCountsByDate.length) {
+      outOfRangeCount += rollup.getTotal();
+      return;
+    }
 
-    // Chart uses Month + Day format
-    DateTimeFormatter labelFormatter = DateTimeFormatter.ofPattern("MMMM dd");
+    totalCountsByDate[(int) index] += rollup.getTotal();
+    negativeCountsByDate[(int) index] += rollup.getSentimentCount(Sentiment.NEGATIVE);
+  }
 
-    Stream.iterate(startDate, date -> date.plusDays(1))
-        .limit(days)
-        .forEach((date) -> {
-          // Create chart label for this date (displayed on dashboard)
-          chartLabels.add(date.format(labelFormatter));
+  /**
+   * Checks whether a chart could be filled from daily rollups, without building it.
+   * Only charts that stay in hourly buckets after downsampling need individual reviews.
+   * @param startDate The start of the time interval to process.
+   * @param endDate The end of the time interval to process.
+   * @param params The stat parameters, as for the constructor.
+   * @return True if the chart's buckets are a day or larger.
+   */
+  public static boolean supportsRollups(LocalDate startDate, LocalDate endDate, String[] params) {
+    if (params == null || params.length == 0 || params[0] == null
+        || Granularity.parse(params[0]) != Granularity.HOUR) {
+      return true;
+    }
+    int maxPoints = Integer.MAX_VALUE;
+    if (params.length > 1 && params[1] != null) {
+      try {
+        maxPoints = Math.max(Integer.parseInt(params[1]), 1);
+      } catch (NumberFormatException exp) {
+        // Reported when the chart is built
+      }
+    }
+    return countBuckets(Granularity.HOUR, startDate, endDate) > maxPoints;
+  }
+
+  protected StatCalculation split() {
+    return new SentimentOverTimeCalculation(this);
+  }
 
-          // Initialize review counts for this date
-          negativeCountsByDate.put(date, 0);
-          totalCountsByDate.put(date, 0);
-        });
+  /**
+   * Adds a partial calculation's bucket counts.
+   * @param partial A calculation created by split.
+   */
+  protected void combine(StatCalculation partial) {
+    SentimentOverTimeCalculation other = (SentimentOverTimeCalculation) partial;
+    for (int i = 0; i < totalCountsByDate.length; i++) {
+      totalCountsByDate[i] += other.totalCountsByDate[i];
+      negativeCountsByDate[i] += other.negativeCountsByDate[i];
+    }
+    outOfRangeCount += other.outOfRangeCount;
   }
 
   /**
-   * Iterates through the review list to generate total and negative review counts.
+   * Builds the SentimentOverTime result from the accumulated counts.
+   * @return An OutgoingStat containing the calculation results.
    */
-  private void countNegativeReviewsByDate() {
-    // DB items use ISO format
-    DateTimeFormatter isoFormatter = DateTimeFormatter.ISO_DATE_TIME; 
-    for (Map<String, AttributeValue> review : items) {
-      LocalDate date = LocalDate.parse(review.get("date").getS(), isoFormatter);
-      String sentiment = review.get("sentiment").getS();
+  protected OutgoingStat<?, ?> finish() {
+    // Reduce Step: Sentiment Counts -> Sentiment Percentages
+    int buckets = totalCountsByDate.length;
+    String[] labels = new String[buckets];
+    Double[] negativePercentages = new Double[buckets];
+    Integer[] totals = new Integer[buckets];
 
-      totalCountsByDate.put(date, totalCountsByDate.get(date) + 1);
-      if (sentiment.equals("NEGATIVE")) {
-        negativeCountsByDate.put(date, negativeCountsByDate.get(date) + 1);
+    LocalDateTime windowStart = startDate.atStartOfDay();
+    for (int i = 0; i < buckets; i++) {
+      // Create chart label for this bucket (displayed on dashboard)
+      labels[i] = granularity.label(firstBucket + i, windowStart);
+
+      int total = totalCountsByDate[i];
+      negativePercentages[i] = total == 0 ? null : (double)negativeCountsByDate[i] / total * 100;
+      totals[i] = total;
+    }
+
+    Map<String, Object> result = new HashMap<String, Object>();
+    result.put("labels", labels);
+    result.put("data", negativePercentages);
+    result.put("totals", totals);
+    result.put("outOfRange", outOfRangeCount);
+    result.put("granularity", granularity.name().toLowerCase());
+
+    return new OutgoingStat<String, Object>("sentimentOverTime", result);
+  }
+
+  /**
+   * Chooses the granularity and initializes the review count for each bucket to 0.
+   * @param params The stat parameters.
+   */
+  private void initializeCounts(String[] params) {
+    int maxPoints = Integer.MAX_VALUE;
+    if (params != null && params.length > 0 && params[0] != null) {
+      Granularity requested = Granularity.parse(params[0]);
+      if (requested == null) {
+        System.err.println("Invalid granularity " + params[0] + ", using default");
+      } else {
+        granularity = requested;
       }
     }
+    if (params != null && params.length > 1 && params[1] != null) {
+      try {
+        maxPoints = Math.max(Integer.parseInt(params[1]), 1);
+      } catch (NumberFormatException exp) {
+        System.err.println("Invalid point count " + params[1] + ", using default");
+      }
+    }
+
+    // Downsample by moving to larger buckets until the chart fits
+    while (countBuckets() > maxPoints && granularity != Granularity.MONTH) {
+      granularity = granularity.coarser();
+    }
+
+    firstBucket = granularity.bucket((int) startDate.toEpochDay(), 0);
+    int buckets = (int) countBuckets();
+    negativeCountsByDate = new int[buckets];
+    totalCountsByDate = new int[buckets];
+  }
+
+  /**
+   * Counts the buckets between startDate and the end of endDate at the current granularity.
+   */
+  private long countBuckets() {
+    return countBuckets(granularity, startDate, endDate);
   }
 
   /**
-   * Using the total and negative counts, calculate the % Negative Reviews per day.
-   * @return An chronological list of the % Negative Reviews each day
+   * Counts the buckets between the start date and the end of the end date at a granularity.
    */
-  private List<Double> calculateNegativeReviewPercentages() {
-    List<Double> result = new ArrayList<Double>();
-    for (Map.Entry<LocalDate, Integer> count : negativeCountsByDate.entrySet()) {
-      int total = totalCountsByDate.get(count.getKey());
-      Double percentage = 
-          total == 0 ? null : (double)count.getValue() / total * 100;
-      result.add(percentage);
+  private static long countBuckets(
+      Granularity granularity, LocalDate startDate, LocalDate endDate) {
+    if (endDate.isBefore(startDate)) {
+      return 0;
     }
-    return result;
+    return granularity.bucket((int) endDate.toEpochDay(), 23)
+        - granularity.bucket((int) startDate.toEpochDay(), 0) + 1;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+package sentiment.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Approximate String counts in a fixed number of counters, using the Space-Saving algorithm.
+ * When every counter is in use, a new key takes over the counter with the smallest count and
+ * inherits that count as its possible overestimate. Every key that occurs more than
+ * total / capacity times is guaranteed to hold a counter, and no count is too high by more
+ * than its recorded error.
+ */
+public class SpaceSavingCounter {
+  private final int capacity;
+
+  private final String[] keys;
+  private final int[] counts;
+
+  /**
+   * The most each counter's count may exceed its key's true count.
+   */
+  private final int[] errors;
+
+  /**
+   * The counters, arranged as a binary min-heap by count.
+   */
+  private final int[] heap;
+
+  /**
+   * The position of each counter in the heap.
+   */
+  private final int[] heapIndex;
+
+  private final Map<String, Integer> slots;
+  private int size = 0;
+  private long total = 0;
+
+  /**
+   * Creates a counter.
+   * @param capacity The number of keys to track.
+   */
+  public SpaceSavingCounter(int capacity) {
+    this.capacity = capacity;
+    this.keys = new String[capacity];
+    this.counts = new int[capacity];
+    this.errors = new int[capacity];
+    this.heap = new int[capacity];
+    this.heapIndex = new int[capacity];
+    this.slots = new HashMap<String, Integer>(capacity * 2);
+  }
+
+  /**
+   * Adds to the count for a key.
+   * @param key The key to count.
+   * @param amount The amount to add.
+   */
+  public void add(String key, int amount) {
+    total += amount;
+
+    Integer existing = slots.get(key);
+    if (existing != null) {
+      counts[existing] += amount;
+      siftDown(heapIndex[existing]);
+      return;
+    }
+
+    if (size < capacity) {
+      int slot = size++;
+      keys[slot] = key;
+      counts[slot] = amount;
+      errors[slot] = 0;
+      slots.put(key, slot);
+      heap[slot] = slot;
+      heapIndex[slot] = slot;
+      siftUp(slot);
+      return;
+    }
+
+    // The new key may have occurred up to as often as the key it evicts
+    int slot = heap[0];
+    slots.remove(keys[slot]);
+    keys[slot] = key;
+    errors[slot] = counts[slot];
+    counts[slot] += amount;
+    slots.put(key, slot);
+    siftDown(0);
+  }
+
+  public void increment(String key) {
+    add(key, 1);
+  }
+
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Returns the sum of every amount added.
+   */
+  public long getTotal() {
+    return this.total;
+  }
+
+  /**
+   * Returns the estimated count of every tracked key.
+   * @return The counts, each at least the key's true count.
+   */
+  public KeywordCounter getCounts() {
+    KeywordCounter result = new KeywordCounter(size);
+    for (int slot = 0; slot < size; slot++) {
+      result.add(keys[slot], counts[slot]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns how far each tracked key's estimated count may exceed its true count.
+   * @return The errors.
+   */
+  public KeywordCounter getErrors() {
+    KeywordCounter result = new KeywordCounter(size);
+    for (int slot = 0; slot < size; slot++) {
+      result.add(keys[slot], errors[slot]);
+    }
+    return result;
+  }
+
+  private void siftUp(int position) {
+    int slot = heap[position];
+    while (position > 0) {
+      int parent = (position - 1) / 2;
+      if (counts[heap[parent]] <= counts[slot]) {
+        break;
+      }
+      place(heap[parent], position);
+      position = parent;
+    }
+    place(slot, position);
+  }
+
+  private void siftDown(int position) {
+    int slot = heap[position];
+    while (true) {
+      int child = position * 2 + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+        child++;
+      }
+      if (counts[slot] <= counts[heap[child]]) {
+        break;
+      }
+      place(heap[child], position);
+      position = child;
+    }
+    place(slot, position);
+  }
+
+  private void place(int slot, int position) {
+    heap[position] = slot;
+    heapIndex[slot] = position;
+  }
+}
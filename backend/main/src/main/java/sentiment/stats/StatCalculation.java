@@ -7,17 +7,66 @@ import java.util.Map;
 
 /**
  * Represents the calculation process for a single stat.
+ * Calculations are accumulators: a StatPipeline feeds them each review in turn,
+ * then asks for the final result.
  */
 public abstract class StatCalculation {
-  protected List<Map<String, AttributeValue>> items;
+  protected ReviewBatch batch;
+
+  public StatCalculation(ReviewBatch batch) {
+    this.batch = batch;
+  }
 
   public StatCalculation(List<Map<String, AttributeValue>> items) {
-    this.items = items;
+    this(ReviewBatch.fromItems(items, true));
+  }
+
+  /**
+   * Folds a single review into this calculation's running state.
+   * @param row The review's row in the batch.
+   */
+  protected abstract void accumulate(int row);
+
+  /**
+   * Folds a pre-aggregated day of reviews into this calculation's running state.
+   * Only called for stats that StatsRequest.supportsRollups accepts.
+   * @param rollup The daily rollup.
+   */
+  protected void accumulate(DailyRollup rollup) {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " cannot be calculated from rollups");
+  }
+
+  /**
+   * Creates an empty calculation with the same settings, to accumulate a chunk of the reviews
+   * on another thread. Partial calculations are folded back in with combine.
+   * @return The partial calculation, or null if this calculation cannot be split.
+   */
+  protected StatCalculation split() {
+    return null;
+  }
+
+  /**
+   * Adds the running state of a partial calculation to this one.
+   * Only called for calculations that can be split.
+   * @param partial A calculation created by split, once it has accumulated its chunk.
+   */
+  protected void combine(StatCalculation partial) {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " cannot be split");
   }
 
   /**
-   * Defines the calculation for this stat.
+   * Builds the result once every review has been accumulated.
    * @return An OutgoingStat containing the calculation results.
    */
-  public abstract OutgoingStat<?, ?> calculate();
-}
\ No newline at end of file
+  protected abstract OutgoingStat<?, ?> finish();
+
+  /**
+   * Runs this calculation on its own over the full review batch.
+   * @return An OutgoingStat containing the calculation results.
+   */
+  public OutgoingStat<?, ?> calculate() {
+    return new StatPipeline(batch).register(this).run()[0];
+  }
+}
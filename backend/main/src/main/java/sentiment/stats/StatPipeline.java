@@ -0,0 +1,252 @@
+package sentiment.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs several stat calculations over a batch of reviews (or a list of daily rollups).
+ * With more than one CPU, large batches are split into a chunk per thread, each chunk is
+ * accumulated into partial calculations, and the partials are combined. Smaller batches with
+ * several calculations run each calculation's traversal on its own thread instead. Otherwise
+ * the calculations share a single pass, where each review is handed to every registered
+ * calculation before moving on to the next.
+ */
+public class StatPipeline {
+  /**
+   * The number of calculations to run at once, configured by STATS_PARALLELISM.
+   */
+  private static final int PARALLELISM = StatsCache.parseSetting(
+      "STATS_PARALLELISM", Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Shared across invocations so warm containers don't pay for thread creation.
+   * Fork-join worker threads are daemons so they never keep the JVM alive.
+   */
+  private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(PARALLELISM, 1));
+
+  /**
+   * The smallest batch that is split into chunks, configured by STATS_SPLIT_THRESHOLD.
+   * Below it the cost of combining partial calculations outweighs the parallel speedup.
+   */
+  private static final int SPLIT_THRESHOLD = 
+      StatsCache.parseSetting("STATS_SPLIT_THRESHOLD", 20000);
+
+  private ReviewBatch batch;
+
+  private List<DailyRollup> rollups;
+
+  /**
+   * The version id of the rows to process, or -1 for every row.
+   */
+  private int versionId = -1;
+
+  /**
+   * The number of calculations to run at once.
+   */
+  private int parallelism = PARALLELISM;
+
+  /**
+   * The smallest batch that is split into chunks.
+   */
+  private int splitThreshold = SPLIT_THRESHOLD;
+
+  private List<StatCalculation> calculations = new ArrayList<StatCalculation>();
+
+  public StatPipeline(ReviewBatch batch) {
+    this.batch = batch;
+  }
+
+  /**
+   * Creates a pipeline that runs a set number of calculations at once.
+   * @param batch The reviews to process.
+   * @param parallelism The number of calculations to run at once, or 1 for a single pass.
+   */
+  StatPipeline(ReviewBatch batch, int parallelism) {
+    this(batch, parallelism, SPLIT_THRESHOLD);
+  }
+
+  /**
+   * Creates a pipeline with set parallelism and split threshold.
+   * @param batch The reviews to process.
+   * @param parallelism The number of threads to use, or 1 for a single pass.
+   * @param splitThreshold The smallest batch to split into a chunk per thread.
+   */
+  StatPipeline(ReviewBatch batch, int parallelism, int splitThreshold) {
+    this.batch = batch;
+    this.parallelism = parallelism;
+    this.splitThreshold = splitThreshold;
+  }
+
+  /**
+   * Creates a pipeline over the reviews of one version in a batch.
+   * @param batch The reviews to process.
+   * @param version The version to process, or null for every version.
+   */
+  public StatPipeline(ReviewBatch batch, String version) {
+    this.batch = batch;
+    if (version != null) {
+      // A version without reviews is given an id that matches no row
+      int id = batch.findVersionId(version);
+      this.versionId = id >= 0 ? id : batch.getVersionCount();
+    }
+  }
+
+  /**
+   * Creates a pipeline over daily rollups. Every registered calculation must support rollups.
+   * @param rollups The rollups to process.
+   */
+  public StatPipeline(List<DailyRollup> rollups) {
+    this.rollups = rollups;
+  }
+
+  /**
+   * Adds a calculation to the pipeline.
+   * @param calculation The calculation to run.
+   * @return This pipeline, for chaining.
+   */
+  public StatPipeline register(StatCalculation calculation) {
+    calculations.add(calculation);
+    return this;
+  }
+
+  /**
+   * Traverses the reviews and collects the result of every calculation.
+   * @return The results, in the order the calculations were registered.
+   */
+  public OutgoingStat<?, ?>[] run() {
+    OutgoingStat<?, ?>[] results = new OutgoingStat<?, ?>[calculations.size()];
+    if (rollups == null && parallelism >= 2 && batch.size() >= splitThreshold) {
+      return runChunked();
+    }
+    if (results.length < 2 || parallelism < 2) {
+      traverse(calculations);
+      for (int i = 0; i < results.length; i++) {
+        results[i] = calculations.get(i).finish();
+      }
+      return results;
+    }
+
+    List<CompletableFuture<OutgoingStat<?, ?>>> futures = 
+        new ArrayList<CompletableFuture<OutgoingStat<?, ?>>>();
+    for (StatCalculation calculation : calculations) {
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        traverse(Collections.singletonList(calculation));
+        return calculation.finish();
+      }, POOL));
+    }
+    for (int i = 0; i < results.length; i++) {
+      results[i] = join(futures.get(i));
+    }
+    return results;
+  }
+
+  /**
+   * Splits the batch into a chunk per thread and accumulates each chunk into partial
+   * calculations, which are then combined in row order.
+   * Calculations that cannot be split traverse the whole batch on a thread of their own.
+   * @return The results, in the order the calculations were registered.
+   */
+  private OutgoingStat<?, ?>[] runChunked() {
+    int chunkSize = (batch.size() + parallelism - 1) / parallelism;
+    int chunks = (batch.size() + chunkSize - 1) / chunkSize;
+
+    List<StatCalculation> splittable = new ArrayList<StatCalculation>();
+    List<List<StatCalculation>> partials = new ArrayList<List<StatCalculation>>();
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      partials.add(new ArrayList<StatCalculation>());
+    }
+
+    List<CompletableFuture<?>> passes = new ArrayList<CompletableFuture<?>>();
+    for (StatCalculation calculation : calculations) {
+      StatCalculation first = calculation.split();
+      if (first == null) {
+        passes.add(CompletableFuture.runAsync(
+            () -> traverse(Collections.singletonList(calculation), 0, batch.size()), POOL));
+        continue;
+      }
+
+      splittable.add(calculation);
+      partials.get(0).add(first);
+      for (int chunk = 1; chunk < chunks; chunk++) {
+        partials.get(chunk).add(calculation.split());
+      }
+    }
+
+    if (!splittable.isEmpty()) {
+      for (int chunk = 0; chunk < chunks; chunk++) {
+        List<StatCalculation> targets = partials.get(chunk);
+        int from = chunk * chunkSize;
+        int to = Math.min(from + chunkSize, batch.size());
+        passes.add(CompletableFuture.runAsync(() -> traverse(targets, from, to), POOL));
+      }
+    }
+    for (CompletableFuture<?> pass : passes) {
+      join(pass);
+    }
+
+    for (int i = 0; i < splittable.size(); i++) {
+      for (List<StatCalculation> chunkPartials : partials) {
+        splittable.get(i).combine(chunkPartials.get(i));
+      }
+    }
+
+    OutgoingStat<?, ?>[] results = new OutgoingStat<?, ?>[calculations.size()];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = calculations.get(i).finish();
+    }
+    return results;
+  }
+
+  /**
+   * Hands every review (or rollup) to the given calculations.
+   * @param targets The calculations to accumulate.
+   */
+  private void traverse(List<StatCalculation> targets) {
+    if (rollups != null) {
+      for (DailyRollup rollup : rollups) {
+        for (StatCalculation calculation : targets) {
+          calculation.accumulate(rollup);
+        }
+      }
+    } else {
+      traverse(targets, 0, batch.size());
+    }
+  }
+
+  /**
+   * Hands a range of reviews to the given calculations.
+   * @param targets The calculations to accumulate.
+   * @param from The first row.
+   * @param to The row after the last.
+   */
+  private void traverse(List<StatCalculation> targets, int from, int to) {
+    for (int row = from; row < to; row++) {
+      if (versionId >= 0 && batch.getVersionId(row) != versionId) {
+        continue;
+      }
+      for (StatCalculation calculation : targets) {
+        calculation.accumulate(row);
+      }
+    }
+  }
+
+  /**
+   * Waits for a result, rethrowing any unchecked exception it failed with as-is.
+   * @param future The result.
+   * @return The value.
+   */
+  static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException exp) {
+      if (exp.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) exp.getCause();
+      }
+      throw exp;
+    }
+  }
+}
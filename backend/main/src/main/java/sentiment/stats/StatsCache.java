@@ -0,0 +1,209 @@
+package sentiment.stats;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A size-bounded, expiring cache of calculated stats.
+ * The cache is held statically so warm Lambda containers reuse results across requests.
+ */
+public class StatsCache {
+  private static final int DEFAULT_MAX_ENTRIES = 256;
+  private static final long DEFAULT_TTL_SECONDS = 300;
+
+  private static final StatsCache INSTANCE = new StatsCache(
+      parseSetting("STATS_CACHE_SIZE", DEFAULT_MAX_ENTRIES),
+      parseSetting("STATS_CACHE_TTL_SECONDS", DEFAULT_TTL_SECONDS) * 1000,
+      System::currentTimeMillis);
+
+  /**
+   * The cached results, least recently used first.
+   */
+  private final LinkedHashMap<Key, CachedStat> entries;
+
+  /**
+   * How long a result may be served after it was calculated, in milliseconds.
+   */
+  private final long ttlMillis;
+
+  /**
+   * The clock used to expire entries, in milliseconds.
+   */
+  private final LongSupplier clock;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache.
+   * @param maxEntries The number of results to keep before evicting the least recently used.
+   * @param ttlMillis How long a result may be served, in milliseconds.
+   * @param clock The current time, in milliseconds.
+   */
+  StatsCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.entries = new LinkedHashMap<Key, CachedStat>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CachedStat> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public static StatsCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Checks whether results for a date window can be cached.
+   * Windows that include a day still receiving late reviews are always recalculated, using the
+   * same cutoff as DailyRollupCache.
+   * @param endDate The end of the date window
+   * @return True if the window ends on or before the last immutable day
+   */
+  public static boolean isCacheable(LocalDate endDate) {
+    return endDate.toEpochDay() <= DailyRollupCache.getLastImmutableDay();
+  }
+
+  /**
+   * Looks up a calculated stat.
+   * @param key The request shape of the stat
+   * @return The cached result, or null if it is missing or expired
+   */
+  public OutgoingStat<?, ?> get(Key key) {
+    long now = clock.getAsLong();
+    synchronized (entries) {
+      CachedStat entry = entries.get(key);
+      if (entry != null && now - entry.created < ttlMillis) {
+        hits.incrementAndGet();
+        return entry.stat;
+      }
+      if (entry != null) {
+        entries.remove(key);
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Stores a calculated stat.
+   * @param key The request shape of the stat
+   * @param stat The result to cache
+   */
+  public void put(Key key, OutgoingStat<?, ?> stat) {
+    CachedStat entry = new CachedStat(stat, clock.getAsLong());
+    synchronized (entries) {
+      entries.put(key, entry);
+    }
+  }
+
+  /**
+   * Returns the number of lookups served from this cache since the container started.
+   * The count covers every request the container has handled, not a single request.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of lookups this cache could not serve since the container started.
+   * The count covers every request the container has handled, not a single request.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Reads a numeric setting from the environment.
+   * @param name The environment variable
+   * @param defaultValue The value to use if it is unset or invalid
+   * @return The setting
+   */
+  public static int parseSetting(String name, int defaultValue) {
+    return (int) parseSetting(name, (long) defaultValue);
+  }
+
+  static long parseSetting(String name, long defaultValue) {
+    String value = System.getenv(name);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException exp) {
+      System.err.println("Invalid " + name + " " + value + ", using default");
+      return defaultValue;
+    }
+  }
+
+  /**
+   * The request shape a stat was calculated for.
+   */
+  public static final class Key {
+    private final String appIdStore;
+    private final String version;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final String name;
+    private final String[] params;
+
+    /**
+     * Creates a key.
+     * @param appIdStore The appId and store of the request
+     * @param version The app version of the request
+     * @param startDate The start of the date window
+     * @param endDate The end of the date window
+     * @param stat The requested stat and its parameters
+     */
+    public Key(String appIdStore, String version, LocalDate startDate, LocalDate endDate,
+        IncomingStat stat) {
+      this.appIdStore = appIdStore;
+      this.version = version;
+      this.startDate = startDate;
+      this.endDate = endDate;
+      this.name = stat.getName();
+      this.params = stat.getParams();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return Objects.equals(appIdStore, key.appIdStore)
+          && Objects.equals(version, key.version)
+          && Objects.equals(startDate, key.startDate)
+          && Objects.equals(endDate, key.endDate)
+          && Objects.equals(name, key.name)
+          && Arrays.equals(params, key.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(appIdStore, version, startDate, endDate, name)
+          * 31 + Arrays.hashCode(params);
+    }
+  }
+
+  /**
+   * A cached result and the time it was calculated.
+   */
+  private static final class CachedStat {
+    private final OutgoingStat<?, ?> stat;
+    private final long created;
+
+    private CachedStat(OutgoingStat<?, ?> stat, long created) {
+      this.stat = stat;
+      this.created = created;
+    }
+  }
+}
@@ -1,12 +1,7 @@
 package sentiment.stats;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.QueryRequest;
-import com.amazonaws.services.dynamodbv2.model.QueryResult;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
-import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagementClientBuilder;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -15,9 +10,10 @@ import sentiment.Response;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -25,8 +21,21 @@ import java.util.Map;
  */
 public class StatsRequest extends Request {
 
-  private static final String REGION = System.getenv("DEPLOY_REGION");
-  private static final String TABLE = System.getenv("TABLE_NAME");
+  /**
+   * Whether the daily rollup table is populated and may be used to serve stats.
+   */
+  private static final boolean USE_ROLLUPS = Boolean.parseBoolean(System.getenv("USE_ROLLUPS"));
+
+  /**
+   * Whether windows are aggregated per day, reusing the days cached by earlier requests.
+   */
+  private static final boolean INCREMENTAL_ROLLUPS =
+      Boolean.parseBoolean(System.getenv("INCREMENTAL_ROLLUPS"));
+
+  /**
+   * The version name that selects reviews of every version.
+   */
+  public static final String ALL_VERSIONS = "all";
 
   /**
   * The id and store for the app to compile stats for.
@@ -38,6 +47,16 @@ public class StatsRequest extends Request {
    */
   private String version;
 
+  /**
+   * The ids and stores of several apps to compile stats for, or null for a single app.
+   */
+  private String[] appIdStores;
+
+  /**
+   * The app versions to query for each app, or null for a single version.
+   */
+  private String[] versions;
+
   /**
    * The beginning of the date range to query.
    */
@@ -53,10 +72,34 @@ public class StatsRequest extends Request {
    */
   private IncomingStat[] stats;
 
+  /**
+   * The DynamoDB read capacity consumed while processing this request.
+   */
+  private double consumedCapacity = 0;
+
+  /**
+   * The keyword ignore list's SSM value, read once the request needs it.
+   */
+  private CompletableFuture<String> ignoreList = null;
+
+  /**
+   * The store reviews are read from, chosen when a stat first needs reviews.
+   */
+  private ReviewStore store = null;
+
+  /**
+   * Whether this request aggregates its windows per day, from INCREMENTAL_ROLLUPS.
+   */
+  private boolean incrementalRollups = INCREMENTAL_ROLLUPS;
+
   /**
    * Primary constructor.
+   * Either a single app and version, or lists of apps and versions, may be given. Stats are
+   * compiled for every app and version pair, and a version of "all" selects every version.
    * @param appIdStore The appId and store to query
    * @param version The app version to query
+   * @param appIdStores The appIds and stores to query
+   * @param versions The app versions to query
    * @param startDate The start of the date window
    * @param endDate The end of the date window
    * @param stats The list of stats to calculate, plus any parameters
@@ -65,11 +108,15 @@ public class StatsRequest extends Request {
   public StatsRequest(
       @JsonProperty("appIdStore") String appIdStore, 
       @JsonProperty("version") String version, 
+      @JsonProperty("appIdStores") String[] appIdStores, 
+      @JsonProperty("versions") String[] versions, 
       @JsonProperty("startDate") String startDate, 
       @JsonProperty("endDate") String endDate, 
       @JsonProperty("stats") IncomingStat[] stats) {
     this.appIdStore = appIdStore;
     this.version = version;
+    this.appIdStores = appIdStores;
+    this.versions = versions;
 
     DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
     this.startDate = LocalDate.parse(startDate, formatter);
@@ -77,111 +124,537 @@ public class StatsRequest extends Request {
     this.stats = stats;
   }
 
+  /**
+   * Constructs a request for a single app and version.
+   * @param appIdStore The appId and store to query
+   * @param version The app version to query
+   * @param startDate The start of the date window
+   * @param endDate The end of the date window
+   * @param stats The list of stats to calculate, plus any parameters
+   */
+  public StatsRequest(String appIdStore, String version, String startDate, String endDate, 
+      IncomingStat[] stats) {
+    this(appIdStore, version, null, null, startDate, endDate, stats);
+  }
+
   /**
    * Process the data for this request and return a response to send back.
    */
   public Response process() {
-    AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard().withRegion(REGION).build();
-    List<Map<String, AttributeValue>> items = 
-        getDynamoReviews(client, 
-                         appIdStore, 
-                         version, 
-                         startDate, 
-                         endDate);
-    
-    if (items != null) {
-      OutgoingStat<?, ?>[] stats = calculateStats(items, this.stats);
-      return new StatsResponse(appIdStore, version, stats);
+    if (appIdStores == null && versions == null) {
+      return compileStats(appIdStore, version, null);
+    }
+
+    String[] apps = appIdStores != null ? appIdStores : new String[]{ appIdStore };
+    String[] appVersions = versions != null ? versions : new String[]{ version };
+
+    List<StatsResponse> groups = new ArrayList<StatsResponse>();
+    for (String app : apps) {
+      // Every version of an app is calculated from a single read of its partition
+      AppReviews reviews = new AppReviews(app);
+      for (String appVersion : appVersions) {
+        StatsResponse group = compileStats(app, appVersion, reviews);
+        if (!group.isSuccess()) {
+          return group;
+        }
+        groups.add(group);
+      }
+    }
+    return new StatsResponse(groups);
+  }
+
+  /**
+   * Compile the requested stats for one app and version.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or "all"
+   * @param reviews Every version's reviews for the app, or null to query only this version's
+   * @return The stats, or an error response
+   */
+  private StatsResponse compileStats(String appIdStore, String version, AppReviews reviews) {
+    StatsCache cache = StatsCache.getInstance();
+    boolean cacheable = StatsCache.isCacheable(endDate);
+    String versionFilter = ALL_VERSIONS.equals(version) ? null : version;
+
+    // Serve what we can from the cache, and only calculate the remaining stats
+    List<OutgoingStat<?, ?>> results = new ArrayList<OutgoingStat<?, ?>>();
+    List<IncomingStat> missing = new ArrayList<IncomingStat>();
+    for (IncomingStat stat : this.stats) {
+      StatsCache.Key key = new StatsCache.Key(appIdStore, version, startDate, endDate, stat);
+      OutgoingStat<?, ?> cached = cacheable ? cache.get(key) : null;
+      if (cached != null) {
+        results.add(cached);
+      } else if (stat.getName().equals("rawReviews") && pagesRawReviews()) {
+        // Raw reviews are paged straight from DynamoDB rather than read for the whole window
+        OutgoingStat<?, ?> page = getRawReviewsPage(
+            getPagingStore().getDb(), appIdStore, versionFilter, stat);
+        if (page == null) {
+          return new StatsResponse("Error retrieving reviews from DynamoDB");
+        }
+        if (cacheable) {
+          cache.put(key, page);
+        }
+        results.add(page);
+      } else if (isStat(stat.getName())) {
+        missing.add(stat);
+      } else {
+        System.err.println("No method found to process statistic " + stat.getName());
+      }
+    }
+
+    if (missing.isEmpty()) {
+      return new StatsResponse(appIdStore, version, results.toArray(new OutgoingStat<?, ?>[0]));
+    }
+
+    IncomingStat[] remaining = missing.toArray(new IncomingStat[0]);
+    OutgoingStat<?, ?>[] calculated;
+
+    // Start reading the ignore list now, so it overlaps the review query
+    if (ignoreList == null && requestsStat(remaining, "keywords")) {
+      ignoreList = KeywordsCalculation.prefetchIgnoreList(getClients().getSsm());
+    }
+
+    // Serve the request from daily rollups if none of the stats need individual reviews
+    if (USE_ROLLUPS && supportsRollups(remaining)) {
+      List<DailyRollup> rollups = getDynamoRollups(getClients().getDynamoDb(),
+          appIdStore, versionFilter, startDate, endDate, requestsStat(remaining, "keywords"));
+      if (rollups == null) {
+        return new StatsResponse("Error retrieving rollups from DynamoDB");
+      }
+
+      calculated = calculateStatsFromRollups(rollups, remaining);
+    } else if (incrementalRollups && reviews == null && supportsRollups(remaining)) {
+      // Only the days that aren't cached yet are read from the store
+      List<DailyRollup> rollups = getIncrementalRollups(
+          appIdStore, versionFilter, requestsStat(remaining, "keywords"));
+      if (rollups == null) {
+        return new StatsResponse("Error retrieving reviews from DynamoDB");
+      }
+
+      calculated = calculateStatsFromRollups(rollups, remaining);
+    } else if (reviews != null) {
+      ReviewBatch batch = reviews.getBatch();
+      if (batch == null) {
+        return new StatsResponse("Error retrieving reviews from DynamoDB");
+      }
+
+      calculated = calculateStats(new StatPipeline(batch, versionFilter), batch, remaining);
     } else {
-      return new StatsResponse("Error retrieving reviews from DynamoDB");
+      ReviewBatch batch = readBatch(appIdStore, 
+                                    versionFilter, 
+                                    startDate, 
+                                    endDate, 
+                                    needsItems(remaining));
+      
+      if (batch == null) {
+        return new StatsResponse("Error retrieving reviews from DynamoDB");
+      }
+
+      calculated = calculateStats(batch, remaining);
     }
+
+    for (int i = 0; i < calculated.length; i++) {
+      if (cacheable) {
+        cache.put(
+            new StatsCache.Key(appIdStore, version, startDate, endDate, remaining[i]), 
+            calculated[i]);
+      }
+      results.add(calculated[i]);
+    }
+    return new StatsResponse(appIdStore, version, results.toArray(new OutgoingStat<?, ?>[0]));
   }
 
   /**
-   * Query DynamoDB for reviews that match the given critera and return a list.
+   * Returns the DynamoDB read capacity consumed while processing this request.
+   * @return The capacity units
+   */
+  public double getConsumedCapacity() {
+    return this.consumedCapacity + (store != null ? store.getConsumedCapacity() : 0);
+  }
+
+  /**
+   * Overrides INCREMENTAL_ROLLUPS for this request.
+   * @param incrementalRollups Whether to aggregate windows per day from cached days
+   */
+  void setIncrementalRollups(boolean incrementalRollups) {
+    this.incrementalRollups = incrementalRollups;
+  }
+
+  /**
+   * Returns the store to read reviews from, choosing it on first use.
+   */
+  private ReviewStore getStore() {
+    if (store == null) {
+      store = getReviewStore();
+    }
+    return store;
+  }
+
+  /**
+   * Check whether raw reviews are paged from DynamoDB.
+   * Other stores have no page tokens, so raw reviews are calculated for the whole window.
+   * @return True if raw reviews are read a page at a time
+   */
+  private boolean pagesRawReviews() {
+    return getPagingStore() != null;
+  }
+
+  /**
+   * Find the DynamoDB store that raw reviews are paged from, looking behind review segments.
+   * @return The store, or null if reviews are not read from DynamoDB
+   */
+  private DynamoReviewStore getPagingStore() {
+    ReviewStore pagingStore = getStore();
+    if (pagingStore instanceof SegmentReviewStore) {
+      pagingStore = ((SegmentReviewStore) pagingStore).getFallback();
+    }
+    return pagingStore instanceof DynamoReviewStore ? (DynamoReviewStore) pagingStore : null;
+  }
+
+  /**
+   * Query the review store for reviews that match the given critera and encode them.
+   * Unless the items are retained, stores that hold encoded reviews skip building them.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range
+   * @param retainItems Whether to keep the review items for calculations that need them
+   * @return The encoded reviews, or null if they could not be read
+   */
+  private ReviewBatch readBatch(String appIdStore, String version, 
+      LocalDate startDate, LocalDate endDate, boolean retainItems) {
+    ReviewBatch batch = null;
+
+    try {
+      if (retainItems) {
+        batch = ReviewBatch.fromItems(
+            getStore().query(appIdStore, version, startDate, endDate), true);
+      } else {
+        batch = getStore().queryBatch(appIdStore, version, startDate, endDate);
+      }
+    } catch (Exception exp) {
+      System.err.println("Unable to query reviews from the review store");
+      System.err.println(exp.getMessage());
+    }
+
+    return batch;
+  }
+
+  /**
+   * Query DynamoDB for a page of the reviews that match the given criteria.
    * @param db The DyanmoDB object to use
    * @param appIdStore The App ID and Store for the app we're analyzing
-   * @param version The app version to analyze
+   * @param version The app version to analyze, or null for every version
+   * @param stat The rawReviews stat, whose parameters select the page
+   * @return The page as a rawReviews stat, or null if it could not be read
+   */
+  private OutgoingStat<?, ?> getRawReviewsPage(AmazonDynamoDB db, 
+      String appIdStore, String version, IncomingStat stat) {
+    ReviewPager pager = null;
+    try {
+      pager = new ReviewPager(db, stat.getParams());
+      return RawReviewsCalculation.fromPage(
+          pager.fetch(appIdStore, version, startDate, endDate));
+    } catch (Exception exp) {
+      System.err.println("Unable to query a page of reviews from DyanmoDB");
+      System.err.println(exp.getMessage());
+      return null;
+    } finally {
+      if (pager != null) {
+        consumedCapacity += pager.getConsumedCapacity();
+      }
+    }
+  }
+
+  /**
+   * Query DynamoDB for the daily rollups that match the given criteria.
+   * @param db The DyanmoDB object to use
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
    * @param startDate The start of the date range
    * @param endDate The end of the date range
-   * @return A list of DynamoDB entries
-   */
-  private List<Map<String, AttributeValue>> getDynamoReviews(AmazonDynamoDB db, 
-      String appIdStore, String version, LocalDate startDate, LocalDate endDate) {
-
-    HashMap<String, String> nameMap = new HashMap<String, String>();
-    nameMap.put("#dte", "date"); // Date is a reserved word in DynamoDB
-
-    LocalDate dayAfterEnd = endDate.plusDays(1);
-
-    HashMap<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
-    valueMap.put(":id", new AttributeValue().withS(appIdStore));
-    // Start is a reserved word
-    valueMap.put(":strt", new AttributeValue().withS(startDate.toString())); 
-    // End is a reserved word
-    valueMap.put(":en", new AttributeValue().withS(dayAfterEnd.toString()));
-    valueMap.put(":version", new AttributeValue().withS(version));
-
-    QueryRequest queryRequest = new QueryRequest()
-        .withTableName(TABLE).withIndexName("date")
-        .withKeyConditionExpression("appIdStore = :id and #dte between :strt and :en")
-        .withFilterExpression("version = :version")
-        .withExpressionAttributeNames(nameMap)
-        .withExpressionAttributeValues(valueMap);
-    
-    QueryResult queryResult = null;
-    List<Map<String, AttributeValue>> items = null;
+   * @param includeKeywords Whether the keyword counts are needed
+   * @return A list of daily rollups
+   */
+  private List<DailyRollup> getDynamoRollups(AmazonDynamoDB db, String appIdStore, 
+      String version, LocalDate startDate, LocalDate endDate, boolean includeKeywords) {
+    List<DailyRollup> rollups = null;
+    RollupStore store = new RollupStore(db);
 
     try {
-      queryResult = db.query(queryRequest);
-      items = queryResult.getItems();
+      rollups = store.fetch(appIdStore, version, startDate, endDate, includeKeywords);
     } catch (Exception exp) {
-      System.err.println("Unable to query reviews from DyanmoDB");
+      System.err.println("Unable to query rollups from DyanmoDB");
       System.err.println(exp.getMessage());
+    } finally {
+      consumedCapacity += store.getConsumedCapacity();
     }
 
-    return items;
+    return rollups;
   }
 
   /**
-   * Call the appropriate functions to calculate all the stats from the request.
+   * Aggregate the request window into daily rollups, reusing the cached aggregates of days
+   * that are no longer written by each scrape.
+   * Cached days are taken from anywhere in the window, and each run of days between them is
+   * aggregated from a single review query. The immutable days of those queries are then cached.
+   * @param appIdStore The App ID and Store for the app we're analyzing
+   * @param version The app version to analyze, or null for every version
+   * @param countKeywords Whether to count keyword occurrences, or only reviews
+   * @return The rollups of every day with reviews, or null if the reviews could not be read
+   */
+  private List<DailyRollup> getIncrementalRollups(
+      String appIdStore, String version, boolean countKeywords) {
+    DailyRollupCache cache = DailyRollupCache.getInstance();
+    int firstDay = (int) startDate.toEpochDay();
+    int lastDay = (int) endDate.toEpochDay();
+    int lastImmutableDay = Math.min(lastDay, DailyRollupCache.getLastImmutableDay());
+
+    DailyRollup[] days = new DailyRollup[Math.max(lastDay - firstDay + 1, 0)];
+    for (int day = firstDay; day <= lastImmutableDay; day++) {
+      days[day - firstDay] = cache.get(appIdStore, version, day, countKeywords);
+    }
+
+    int runStart = firstDay;
+    while (runStart <= lastDay) {
+      if (days[runStart - firstDay] != null) {
+        runStart++;
+        continue;
+      }
+      int runEnd = runStart;
+      while (runEnd < lastDay && days[runEnd + 1 - firstDay] == null) {
+        runEnd++;
+      }
+
+      ReviewBatch batch = readBatch(appIdStore, version, 
+          LocalDate.ofEpochDay(runStart), LocalDate.ofEpochDay(runEnd), false);
+      if (batch == null) {
+        return null;
+      }
+
+      for (int day = runStart; day <= runEnd; day++) {
+        days[day - firstDay] = new DailyRollup(day, countKeywords);
+      }
+      for (int row = 0; row < batch.size(); row++) {
+        int day = batch.getEpochDay(row);
+        if (day >= runStart && day <= runEnd) {
+          days[day - firstDay].add(batch, row);
+        }
+      }
+
+      // Empty days are cached too, so they aren't queried again
+      for (int day = runStart; day <= Math.min(runEnd, lastImmutableDay); day++) {
+        cache.put(appIdStore, version, days[day - firstDay]);
+      }
+      runStart = runEnd + 1;
+    }
+
+    List<DailyRollup> rollups = new ArrayList<DailyRollup>();
+    for (DailyRollup rollup : days) {
+      if (rollup.getTotal() > 0) {
+        rollups.add(rollup);
+      }
+    }
+    return rollups;
+  }
+
+  /**
+   * Encode the items from the db and calculate all the stats from the request.
+   * The original items are only retained if a stat needs every review attribute.
    * @param items The list of items from the db
    * @param stats The array of stats to calculate
    * @return An array of OutgoingStats to be place in the response
    */
   protected OutgoingStat<?, ?>[] calculateStats(List<Map<String, AttributeValue>> items, 
       IncomingStat[] stats) {
-    OutgoingStat<?, ?>[] results = new OutgoingStat<?, ?>[stats.length];
-    int nextIndex = 0;
+    return calculateStats(ReviewBatch.fromItems(items, needsItems(stats)), stats);
+  }
+
+  /**
+   * Check whether any of the requested stats need the original DynamoDB items.
+   * @param stats The array of stats to calculate
+   * @return True if the items must be retained alongside the encoded batch
+   */
+  private static boolean needsItems(IncomingStat[] stats) {
+    return requestsStat(stats, "rawReviews");
+  }
+
+  /**
+   * Check whether a stat is among the given stats.
+   * @param stats The array of stats to check
+   * @param name The name of the stat
+   * @return True if the stat is requested
+   */
+  private static boolean requestsStat(IncomingStat[] stats, String name) {
+    for (IncomingStat stat : stats) {
+      if (stat.getName().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether a stat can be calculated, as createCalculation would.
+   * @param name The name of the stat
+   * @return True if the stat is recognized
+   */
+  private static boolean isStat(String name) {
+    switch (name) {
+      case "rawReviews":
+      case "numReviews":
+      case "overallSentiment":
+      case "keywords":
+      case "sentimentOverTime":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Check whether all of the requested stats can be calculated from daily rollups, without
+   * creating their calculations.
+   * @param stats The array of stats to calculate
+   * @return True if no stat needs individual reviews
+   */
+  private boolean supportsRollups(IncomingStat[] stats) {
     for (IncomingStat stat : stats) {
-      switch (stat.getName()) {
-        case "rawReviews":
-          results[nextIndex] = new RawReviewsCalculation(items).calculate();
-          nextIndex++;
-          break;
-        case "numReviews":
-          results[nextIndex] = new NumReviewsCalculation(items).calculate();
-          nextIndex++;
-          break;
-        case "overallSentiment":
-          results[nextIndex] =  new OverallSentimentCalculation(items).calculate();
-          nextIndex++;
-          break;
-        case "keywords":
-          AWSSimpleSystemsManagement client = 
-              AWSSimpleSystemsManagementClientBuilder.defaultClient();
-          results[nextIndex] = new KeywordsCalculation(items, client).calculate();
-          nextIndex++;
-          break;
-        case "sentimentOverTime":
-          results[nextIndex] = 
-            new SentimentOverTimeCalculation(items, startDate, endDate).calculate();
-          nextIndex++;
-          break;
-        default:
-          System.err.println("No method found to process statistic " + stat.getName());
-      }
-    }
-    return results;
+      if (!supportsRollups(stat, startDate, endDate)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check whether a stat can be calculated from daily rollups, that is whether the
+   * calculation createCalculation would create implements accumulate(DailyRollup).
+   * @param stat The stat to calculate
+   * @param startDate The start of the date range
+   * @param endDate The end of the date range
+   * @return True if the stat doesn't need individual reviews
+   */
+  static boolean supportsRollups(IncomingStat stat, LocalDate startDate, LocalDate endDate) {
+    switch (stat.getName()) {
+      case "numReviews":
+      case "overallSentiment":
+      case "keywords":
+        return true;
+      case "sentimentOverTime":
+        return SentimentOverTimeCalculation.supportsRollups(
+            startDate, endDate, stat.getParams());
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Call the appropriate functions to calculate all the stats from the request.
+   * Every requested stat is registered with a single pipeline, so the review batch
+   * is traversed only once.
+   * @param batch The encoded reviews from the db
+   * @param stats The array of stats to calculate
+   * @return An array of OutgoingStats to be place in the response
+   */
+  protected OutgoingStat<?, ?>[] calculateStats(ReviewBatch batch, IncomingStat[] stats) {
+    return calculateStats(new StatPipeline(batch), batch, stats);
+  }
+
+  /**
+   * Calculate all the stats from the request with the given pipeline.
+   * @param pipeline The pipeline to register the calculations with
+   * @param batch The encoded reviews the pipeline traverses
+   * @param stats The array of stats to calculate
+   * @return An array of OutgoingStats to be place in the response
+   */
+  private OutgoingStat<?, ?>[] calculateStats(StatPipeline pipeline, ReviewBatch batch, 
+      IncomingStat[] stats) {
+    for (StatCalculation calculation : createCalculations(batch, stats)) {
+      pipeline.register(calculation);
+    }
+    return pipeline.run();
+  }
+
+  /**
+   * Calculate all the stats from the request using pre-aggregated daily rollups.
+   * @param rollups The daily rollups from the db
+   * @param stats The array of stats to calculate, all of which must support rollups
+   * @return An array of OutgoingStats to be place in the response
+   */
+  protected OutgoingStat<?, ?>[] calculateStatsFromRollups(List<DailyRollup> rollups, 
+      IncomingStat[] stats) {
+    StatPipeline pipeline = new StatPipeline(rollups);
+    for (StatCalculation calculation : createCalculations(ReviewBatch.empty(), stats)) {
+      pipeline.register(calculation);
+    }
+    return pipeline.run();
+  }
+
+  /**
+   * Create the calculation for each of the requested stats.
+   * @param batch The encoded reviews from the db
+   * @param stats The array of stats to calculate
+   * @return A calculation per recognized stat, in request order
+   */
+  private List<StatCalculation> createCalculations(ReviewBatch batch, IncomingStat[] stats) {
+    List<StatCalculation> calculations = new ArrayList<StatCalculation>();
+    for (IncomingStat stat : stats) {
+      StatCalculation calculation = createCalculation(batch, stat);
+      if (calculation != null) {
+        calculations.add(calculation);
+      }
+    }
+    return calculations;
+  }
+
+  /**
+   * Create the calculation for a single requested stat.
+   * @param batch The encoded reviews from the db
+   * @param stat The stat to calculate
+   * @return The calculation, or null if the stat is not recognized
+   */
+  private StatCalculation createCalculation(ReviewBatch batch, IncomingStat stat) {
+    switch (stat.getName()) {
+      case "rawReviews":
+        return new RawReviewsCalculation(batch, stat.getParams());
+      case "numReviews":
+        return new NumReviewsCalculation(batch);
+      case "overallSentiment":
+        return new OverallSentimentCalculation(batch);
+      case "keywords":
+        return new KeywordsCalculation(
+            batch, getClients().getSsm(), stat.getParams(), ignoreList);
+      case "sentimentOverTime":
+        return new SentimentOverTimeCalculation(batch, startDate, endDate, stat.getParams());
+      default:
+        System.err.println("No method found to process statistic " + stat.getName());
+        return null;
+    }
+  }
+
+  /**
+   * The reviews of one app in the request window, read on first use and shared by every
+   * version requested for the app.
+   */
+  private class AppReviews {
+    private String appIdStore;
+    private ReviewBatch batch = null;
+
+    private AppReviews(String appIdStore) {
+      this.appIdStore = appIdStore;
+    }
+
+    /**
+     * Get the reviews of every version, querying the store the first time.
+     * @return The encoded reviews, or null if they could not be read
+     */
+    private ReviewBatch getBatch() {
+      if (batch == null) {
+        // Raw reviews need the items unless they were paged from DynamoDB instead
+        batch = readBatch(
+            appIdStore, null, startDate, endDate, !pagesRawReviews() && needsItems(stats));
+      }
+      return batch;
+    }
   }
 }
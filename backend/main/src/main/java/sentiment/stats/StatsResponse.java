@@ -2,6 +2,8 @@ package sentiment.stats;
 
 import sentiment.Response;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -12,6 +14,7 @@ public class StatsResponse extends Response {
   private String appIdStore;
   private String version;
   private OutgoingStat<?, ?>[] stats;
+  private List<StatsResponse> groups;
 
   /**
    *
@@ -25,17 +28,37 @@ public class StatsResponse extends Response {
     this.stats = stats;
   }
 
+  /**
+   * Combines the stats of several apps or versions into one response.
+   * @param groups The stats of each app and version.
+   */
+  public StatsResponse(List<StatsResponse> groups) {
+    this.groups = groups;
+  }
+
   public StatsResponse(String message) {
     super(message);
   }
 
+  boolean isSuccess() {
+    return this.getStatus() == Status.SUCCESS;
+  }
+
   /**
    * Return a map of the JSON keys and values for this object.
    */
   public Map<String, Object> getData() {
     Map<String, Object> data = super.getData();
 
-    if (this.getStatus() == Status.SUCCESS) {
+    if (this.getStatus() == Status.SUCCESS && groups != null) {
+      List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+      for (StatsResponse group : groups) {
+        Map<String, Object> groupData = group.getData();
+        groupData.remove("status");
+        results.add(groupData);
+      }
+      data.put("results", results);
+    } else if (this.getStatus() == Status.SUCCESS) {
       data.put("appIdStore", appIdStore);
       data.put("version", version);
       for (OutgoingStat<?, ?> stat : stats) {
@@ -0,0 +1,108 @@
+package sentiment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+public class StreamHandlerTests {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * A stats request that is answered without reading DynamoDB.
+   */
+  private static final String STATS_BODY = "{\"appIdStore\":\"app*Apple\",\"version\":\"1.0\","
+      + "\"startDate\":\"2018-01-01T00:00:00.000Z\",\"endDate\":\"2018-01-02T00:00:00.000Z\","
+      + "\"stats\":[]}";
+
+  @Test
+  public void testStreamHandlerWritesProxyResponse() throws Exception {
+    JsonNode response = handle("/stats", STATS_BODY);
+
+    assertThat(response.get("statusCode").asInt()).isEqualTo(200);
+    assertThat(response.get("headers").get("Access-Control-Allow-Origin").asText()).isEqualTo("*");
+    assertThat(response.get("headers").has("X-Consumed-Read-Capacity")).isTrue();
+
+    JsonNode stats = MAPPER.readTree(response.get("body").asText());
+    assertThat(stats.get("status").asText()).isEqualTo("SUCCESS");
+    assertThat(stats.get("appIdStore").asText()).isEqualTo("app*Apple");
+
+    // A body the request can't be built from is reported as an error response
+    JsonNode error = MAPPER.readTree(handle("/stats", "{}").get("body").asText());
+    assertThat(error.get("status").asText()).isEqualTo("ERROR");
+    assertThat(error.get("message").asText()).isEqualTo("Error parsing request");
+  }
+
+  @Test
+  public void testStreamHandlerRoutesByPath() {
+    ObjectReader stats = StreamHandler.getReader("/stats");
+    assertThat(StreamHandler.getReader("/settings/keywords")).isNotSameAs(stats);
+
+    // Unknown paths fall back to stats, like Handler
+    assertThat(StreamHandler.getReader("/unknown")).isSameAs(stats);
+    assertThat(StreamHandler.getReader(null)).isSameAs(stats);
+  }
+
+  @Test
+  public void testLocalServerServesRoutedPaths() throws Exception {
+    ExecutorService executor = LocalServer.createExecutor(2);
+    HttpServer server = 
+        LocalServer.start(0, new ClientRegistry(null, null, null, null), executor);
+    try {
+      // The server only listens on the loopback interface
+      assertThat(server.getAddress().getAddress().isLoopbackAddress()).isTrue();
+      String base = "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+          + server.getAddress().getPort();
+
+      HttpURLConnection connection = (HttpURLConnection) new URL(base + "/stats").openConnection();
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      try (OutputStream output = connection.getOutputStream()) {
+        output.write(STATS_BODY.getBytes(StandardCharsets.UTF_8));
+      }
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+      assertThat(connection.getHeaderField("Access-Control-Allow-Origin")).isEqualTo("*");
+      JsonNode stats = MAPPER.readTree(connection.getInputStream());
+      assertThat(stats.get("appIdStore").asText()).isEqualTo("app*Apple");
+
+      // Only the API's paths are served
+      HttpURLConnection unknown = (HttpURLConnection) new URL(base + "/unknown").openConnection();
+      assertThat(unknown.getResponseCode()).isEqualTo(404);
+
+      // Paths that change settings aren't served unless writes are enabled
+      HttpURLConnection write =
+          (HttpURLConnection) new URL(base + "/settings/set").openConnection();
+      assertThat(write.getResponseCode()).isEqualTo(404);
+    } finally {
+      server.stop(0);
+      executor.shutdown();
+    }
+  }
+
+  private JsonNode handle(String path, String body) throws Exception {
+    String event = MAPPER.createObjectNode()
+        .put("resource", path)
+        .put("path", path)
+        .put("httpMethod", "POST")
+        .put("body", body)
+        .set("requestContext", MAPPER.createObjectNode().put("stage", "test"))
+        .toString();
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new StreamHandler(new ClientRegistry(null, null, null, null)).handleRequest(
+        new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)), output, null);
+    return MAPPER.readTree(output.toByteArray());
+  }
+}
@@ -0,0 +1,27 @@
+package sentiment.apps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class AppsTests {
+
+  @Test
+  public void testMetadataFromVersionDays() {
+    AppMetadata metadata = AppMetadata.fromVersionDays(Arrays.asList(
+        "1.0.0#2018-05-21", "1.0.0#2018-05-24", "1.1.0#2018-05-22", "2.0#beta#2018-06-01",
+        "all#2018-05-20", "all#2018-06-01"), 0);
+
+    assertThat(metadata.getMinDate()).isEqualTo(LocalDate.of(2018, 05, 20));
+    assertThat(metadata.getMaxDate()).isEqualTo(LocalDate.of(2018, 06, 01));
+    // The rollups of every version aren't a version of their own
+    assertThat(metadata.getVersions()).isEqualTo(new String[]{ "1.0.0", "1.1.0", "2.0#beta" });
+
+    // Apps without any rollups have no reviews
+    assertThat(AppMetadata.fromVersionDays(new ArrayList<String>(), 0)).isNull();
+  }
+}
@@ -4,17 +4,33 @@ import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.simplesystemsmanagement.AbstractAWSSimpleSystemsManagement;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterRequest;
 import com.amazonaws.services.simplesystemsmanagement.model.GetParameterResult;
 import com.amazonaws.services.simplesystemsmanagement.model.Parameter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import sentiment.ClientRegistry;
 
 public class StatsTests {
 
@@ -26,6 +42,57 @@ public class StatsTests {
     }
   }
 
+  /**
+   * Serves reviews from an in-memory date index, returning at most two items per page.
+   */
+  private class MockDynamo extends AbstractAmazonDynamoDB {
+    private List<Map<String, AttributeValue>> reviews;
+
+    MockDynamo(List<Map<String, AttributeValue>> reviews) {
+      this.reviews = reviews;
+    }
+
+    @Override
+    public synchronized QueryResult query(QueryRequest request) {
+      String start = request.getExpressionAttributeValues().get(":strt").getS();
+      String end = request.getExpressionAttributeValues().get(":en").getS();
+
+      List<Map<String, AttributeValue>> matches = new ArrayList<Map<String, AttributeValue>>();
+      for (Map<String, AttributeValue> review : reviews) {
+        String date = review.get("date").getS();
+        if (date.compareTo(start) >= 0 && date.compareTo(end) <= 0) {
+          matches.add(review);
+        }
+      }
+
+      if (Boolean.FALSE.equals(request.getScanIndexForward())) {
+        Collections.reverse(matches);
+      }
+
+      int offset = 0;
+      if (request.getExclusiveStartKey() != null) {
+        String startHash = request.getExclusiveStartKey().get("reviewHash").getS();
+        while (!matches.get(offset).get("reviewHash").getS().equals(startHash)) {
+          offset++;
+        }
+        offset++;
+      }
+      int limit = request.getLimit() == null ? 2 : Math.min(request.getLimit(), 2);
+      int pageEnd = Math.min(offset + limit, matches.size());
+
+      QueryResult result = new QueryResult().withItems(matches.subList(offset, pageEnd));
+      if (pageEnd < matches.size()) {
+        Map<String, AttributeValue> last = matches.get(pageEnd - 1);
+        Map<String, AttributeValue> lastKey = new HashMap<String, AttributeValue>();
+        lastKey.put("appIdStore", last.get("appIdStore"));
+        lastKey.put("date", last.get("date"));
+        lastKey.put("reviewHash", last.get("reviewHash"));
+        result.setLastEvaluatedKey(lastKey);
+      }
+      return result;
+    }
+  }
+
 	@Test
 	public void testCalculateStats() {
 
@@ -44,10 +111,11 @@ public class StatsTests {
 
     OutgoingStat<?, ?>[] result = request.calculateStats(reviews, stats);
 
-    Map<String, String> reviewsJson = new HashMap<String, String>();
-    reviewsJson.put("abcdef", "{\"date\":\"2018-05-21T00:00:00.000Z\",\"sentiment\":\"POSITIVE\",\"reviewHash\":\"abcdef\",\"version\":\"1.0.0\",\"appIdStore\":\"test store*test id\"}");
-    reviewsJson.put("123456", "{\"date\":\"2018-05-24T00:00:00.000Z\",\"sentiment\":\"NEGATIVE\",\"reviewHash\":\"123456\",\"version\":\"1.0.0\",\"appIdStore\":\"test store*test id\"}");
-    OutgoingStat<String, String> rawReviewsResults = new OutgoingStat<String, String>("rawReviews", reviewsJson);
+    Map<String, JsonNode> reviewsJson = new HashMap<String, JsonNode>();
+    reviewsJson.put("reviews", readJson("[{\"date\":\"2018-05-24T00:00:00.000Z\",\"sentiment\":\"NEGATIVE\",\"reviewHash\":\"123456\",\"version\":\"1.0.0\",\"appIdStore\":\"test store*test id\"},"
+        + "{\"date\":\"2018-05-21T00:00:00.000Z\",\"sentiment\":\"POSITIVE\",\"reviewHash\":\"abcdef\",\"version\":\"1.0.0\",\"appIdStore\":\"test store*test id\"}]"));
+    reviewsJson.put("nextToken", null);
+    OutgoingStat<String, JsonNode> rawReviewsResults = new OutgoingStat<String, JsonNode>("rawReviews", reviewsJson);
 
     Map<String, Double> sentimentPercentages = new HashMap<String, Double>();
     sentimentPercentages.put("POSITIVE", 1.0 / 2 * 100);
@@ -60,9 +128,21 @@ public class StatsTests {
 
     for (int i = 0; i < result.length; i++) {
       assertThat(result[i].getName()).isEqualTo(expected[i].getName());
-      assertThat(result[i].getValues()).isEqualTo(expected[i].getValues());
+      assertThat(toJson(result[i].getValues())).isEqualTo(toJson(expected[i].getValues()));
+    }
+  }
+
+  private JsonNode readJson(String json) {
+    try {
+      return new ObjectMapper().readTree(json);
+    } catch (IOException exp) {
+      throw new UncheckedIOException(exp);
     }
   }
+
+  private JsonNode toJson(Object value) {
+    return new ObjectMapper().valueToTree(value);
+  }
   
   private Map<String, AttributeValue> populateReview(String appIdStore, String date, String version, String reviewHash, String sentiment, String[] keywords) {
     Map<String, AttributeValue> review = new HashMap<String, AttributeValue>();
@@ -89,14 +169,23 @@ public class StatsTests {
 
     OutgoingStat<?, ?> result = new RawReviewsCalculation(reviews).calculate();
 
-    Map<String, String> reviewsJson = new HashMap<String, String>();
-    reviewsJson.put("abcdef", "{\"date\":\"2018-05-21T00:00:00.000Z\",\"sentiment\":\"\",\"reviewHash\":\"abcdef\",\"version\":\"1.0.0\",\"appIdStore\":\"test store*test id\"}");
-    reviewsJson.put("a1b2c3", "{\"date\":\"2001-04-04T00:00:00.000Z\",\"sentiment\":\"\",\"reviewHash\":\"a1b2c3\",\"version\":\"0.0.1\",\"appIdStore\":\"test store2*test id2\"}");
+    Map<String, JsonNode> reviewsJson = new HashMap<String, JsonNode>();
+    reviewsJson.put("reviews", readJson("[{\"date\":\"2018-05-21T00:00:00.000Z\",\"sentiment\":\"\",\"reviewHash\":\"abcdef\",\"version\":\"1.0.0\",\"appIdStore\":\"test store*test id\"},"
+        + "{\"date\":\"2001-04-04T00:00:00.000Z\",\"sentiment\":\"\",\"reviewHash\":\"a1b2c3\",\"version\":\"0.0.1\",\"appIdStore\":\"test store2*test id2\"}]"));
+    reviewsJson.put("nextToken", null);
     
-    OutgoingStat<String, String> expected = new OutgoingStat<String, String>("rawReviews", reviewsJson);
+    OutgoingStat<String, JsonNode> expected = new OutgoingStat<String, JsonNode>("rawReviews", reviewsJson);
 
     assertThat(result.getName()).isEqualTo(expected.getName());
-    assertThat(result.getValues()).isEqualTo(expected.getValues());
+    assertThat(toJson(result.getValues())).isEqualTo(toJson(expected.getValues()));
+
+    // The whole window is one page, but it honours the page's sort order
+    OutgoingStat<?, ?> ascending = new RawReviewsCalculation(ReviewBatch.fromItems(reviews, true),
+        new String[]{ "1", "", "asc" }).calculate();
+    JsonNode ascendingReviews = toJson(ascending.getValues()).get("reviews");
+    assertThat(ascendingReviews.size()).isEqualTo(2);
+    assertThat(ascendingReviews.get(0).get("reviewHash").asText()).isEqualTo("a1b2c3");
+    assertThat(ascendingReviews.get(1).get("reviewHash").asText()).isEqualTo("abcdef");
   }
   
   @Test
@@ -143,12 +232,14 @@ public class StatsTests {
     LocalDate endDate = LocalDate.of(2001, 05, 23);
     OutgoingStat<?, ?> result = new SentimentOverTimeCalculation(reviews, startDate, endDate).calculate();
 
-    Map<String, Object[]> sentimentOverTime = new HashMap<String, Object[]>();
+    Map<String, Object> sentimentOverTime = new HashMap<String, Object>();
     sentimentOverTime.put("labels", new String[]{"May 21", "May 22", "May 23"});
     sentimentOverTime.put("data", new Double[]{ 2.0 / 3 * 100, 1.0 / 2 * 100, 0.0 });
     sentimentOverTime.put("totals", new Integer[]{3, 2, 3});
+    sentimentOverTime.put("outOfRange", 0);
+    sentimentOverTime.put("granularity", "day");
 
-    OutgoingStat<String, Object[]> expected = new OutgoingStat<String, Object[]>("sentimentOverTime", sentimentOverTime);
+    OutgoingStat<String, Object> expected = new OutgoingStat<String, Object>("sentimentOverTime", sentimentOverTime);
 
     assertThat(result.getName()).isEqualTo(expected.getName());
     assertThat(result.getValues()).isEqualToComparingFieldByFieldRecursively(expected.getValues());
@@ -177,4 +268,777 @@ public class StatsTests {
     assertThat(result.getValues()).isEqualToComparingFieldByFieldRecursively(result.getValues());
 	}
 
+  @Test
+  public void testReviewFetcherPagination() throws Exception {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-20T23:59:59.000Z", "1.0.0", "before", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-21T01:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-21T02:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-22T00:00:00.000Z", "1.0.0", "alsdkj", "MIXED", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-23T00:00:00.000Z", "1.0.0", "34895f", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-23T05:00:00.000Z", "1.0.0", "asldf4", "NEUTRAL", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-23T06:00:00.000Z", "1.0.0", "234i42", "NEUTRAL", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-24T00:00:00.000Z", "1.0.0", "after", "NEUTRAL", new String[0]));
+
+    // Three daily slices, two of which need more than one page
+    List<Map<String, AttributeValue>> result = new ReviewFetcher(new MockDynamo(reviews))
+        .fetch("test store*test id", "1.0.0", LocalDate.of(2001, 05, 21), LocalDate.of(2001, 05, 23));
+
+    assertThat(result).isEqualTo(reviews.subList(1, reviews.size() - 1));
+
+    // Long windows are split weekly and still return every review in order
+    result = new ReviewFetcher(new MockDynamo(reviews))
+        .fetch("test store*test id", "1.0.0", LocalDate.of(2001, 04, 01), LocalDate.of(2001, 06, 30));
+
+    assertThat(result).isEqualTo(reviews);
+  }
+
+  @Test
+  public void testReviewBatchEncoding() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"fast", "crash"}));
+    reviews.add(populateReview("test store*test id", "2001-05-22T13:00:00.000Z", "1.0.1", "a1b2c3", "NEGATIVE", new String[]{"crash"}));
+    reviews.add(populateReview("test store*test id", "2001-05-23T00:00:00.000Z", "1.0.0", "123456", "", new String[0]));
+
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, false);
+
+    assertThat(batch.size()).isEqualTo(3);
+    assertThat(batch.getEpochDay(1)).isEqualTo((int) LocalDate.of(2001, 05, 22).toEpochDay());
+    assertThat(batch.getSentiment(0)).isEqualTo(Sentiment.POSITIVE);
+    assertThat(batch.getSentiment(2)).isNull();
+
+    // Versions and keywords are dictionary-encoded
+    assertThat(batch.getVersionCount()).isEqualTo(2);
+    assertThat(batch.getVersionId(2)).isEqualTo(batch.getVersionId(0));
+    assertThat(batch.getKeywordCount()).isEqualTo(2);
+    assertThat(batch.getKeywordEnd(1) - batch.getKeywordStart(1)).isEqualTo(1);
+    assertThat(batch.getKeywordId(batch.getKeywordStart(1))).isEqualTo(batch.getKeywordId(1));
+    assertThat(batch.getKeywordStart(2)).isEqualTo(batch.getKeywordEnd(2));
+  }
+
+  @Test
+  public void testIgnoreListMatcher() {
+    IgnoreListMatcher matcher = new IgnoreListMatcher(Arrays.asList("he", "she", "his", "hers", "app"));
+
+    assertThat(matcher.matches("ushers")).isTrue();
+    assertThat(matcher.matches("this")).isTrue();
+    assertThat(matcher.matches("great apps")).isTrue();
+    assertThat(matcher.matches("shut down")).isFalse();
+    assertThat(matcher.matches("ap")).isFalse();
+    assertThat(matcher.matches("")).isFalse();
+
+    // Partial overlaps must fall back through the failure links
+    matcher = new IgnoreListMatcher(Arrays.asList("abcd", "bce"));
+    assertThat(matcher.matches("abce")).isTrue();
+    assertThat(matcher.matches("abcbcd")).isFalse();
+
+    // An empty word is contained in every keyword
+    assertThat(new IgnoreListMatcher(Arrays.asList("")).matches("anything")).isTrue();
+    assertThat(new IgnoreListMatcher(new ArrayList<String>()).matches("anything")).isFalse();
+  }
+
+  @Test
+  public void testKeywordCounterTopN() {
+    KeywordCounter counter = new KeywordCounter();
+    for (int i = 0; i < 1000; i++) {
+      counter.add("keyword" + i, i % 10);
+    }
+    counter.increment("crash");
+    counter.add("crash", 20);
+    counter.add("login", 21);
+
+    assertThat(counter.size()).isEqualTo(1002);
+    assertThat(counter.get("crash")).isEqualTo(21);
+    assertThat(counter.get("missing")).isEqualTo(0);
+
+    // Ties are broken alphabetically
+    List<Map.Entry<String, Integer>> top = counter.top(4);
+    assertThat(top.size()).isEqualTo(4);
+    assertThat(top.get(0).getKey()).isEqualTo("crash");
+    assertThat(top.get(1).getKey()).isEqualTo("login");
+    assertThat(top.get(2).getKey()).isEqualTo("keyword109");
+    assertThat(top.get(3).getKey()).isEqualTo("keyword119");
+    assertThat(top.get(3).getValue()).isEqualTo(9);
+
+    assertThat(counter.top(0)).isEmpty();
+    assertThat(counter.top(5000).size()).isEqualTo(1002);
+  }
+
+  @Test
+  public void testKeywordsCalculationCount() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"a", "b", "c", "d", "e"}));
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "a1b2c3", "POSITIVE", new String[]{"a", "b", "c", "d", "E"}));
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, false);
+
+    OutgoingStat<?, ?> result = new KeywordsCalculation(batch, new MockSSM(), new String[]{ "2" }).calculate();
+    Keyword[] positive = (Keyword[]) result.getValues().get("positive");
+    assertThat(positive.length).isEqualTo(2);
+    assertThat(positive[0].getKeyword()).isEqualTo("a");
+    assertThat(positive[1].getKeyword()).isEqualTo("b");
+
+    // Keywords are lowercased before counting
+    result = new KeywordsCalculation(batch, new MockSSM(), new String[]{ "20" }).calculate();
+    positive = (Keyword[]) result.getValues().get("positive");
+    assertThat(positive.length).isEqualTo(5);
+    assertThat(positive[4].getKeyword()).isEqualTo("e");
+    assertThat(positive[4].getPercentage()).isEqualTo(100.0);
+
+    // Invalid counts fall back to the default
+    result = new KeywordsCalculation(batch, new MockSSM(), new String[]{ "many" }).calculate();
+    assertThat(((Keyword[]) result.getValues().get("positive")).length).isEqualTo(4);
+  }
+
+  @Test
+  public void testRollupsMatchRawReviews() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"fast", "Easy"}));
+    reviews.add(populateReview("test store*test id", "2001-05-21T05:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[]{"crash"}));
+    reviews.add(populateReview("test store*test id", "2001-05-21T09:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[]{"crash", "slow"}));
+    reviews.add(populateReview("test store*test id", "2001-05-23T00:00:00.000Z", "1.0.0", "alsdkj", "MIXED", new String[]{"ignored"}));
+    reviews.add(populateReview("test store*test id", "2001-05-23T00:00:00.000Z", "1.0.0", "34895f", "POSITIVE", new String[]{"easy"}));
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, false);
+
+    // Aggregate the reviews into one rollup per day
+    Map<Integer, DailyRollup> rollupsByDay = new TreeMap<Integer, DailyRollup>();
+    for (int row = 0; row < batch.size(); row++) {
+      rollupsByDay.computeIfAbsent(batch.getEpochDay(row), DailyRollup::new).add(batch, row);
+    }
+    List<DailyRollup> rollups = new ArrayList<DailyRollup>(rollupsByDay.values());
+
+    IncomingStat[] stats = new IncomingStat[4];
+    String[] names = new String[]{ "numReviews", "overallSentiment", "sentimentOverTime", "keywords" };
+    for (int i = 0; i < names.length; i++) {
+      stats[i] = new IncomingStat();
+      stats[i].setData(names[i], null);
+    }
+
+    StatsRequest request = new StatsRequest("", "", "2001-05-21T00:00:00.000Z", "2001-05-23T00:00:00.000Z", stats);
+    request.setClients(new ClientRegistry(null, new MockSSM(), null, null));
+
+    OutgoingStat<?, ?>[] fromReviews = request.calculateStats(batch, stats);
+    OutgoingStat<?, ?>[] fromRollups = request.calculateStatsFromRollups(rollups, stats);
+
+    for (int i = 0; i < stats.length; i++) {
+      assertThat(fromRollups[i].getName()).isEqualTo(fromReviews[i].getName());
+      assertThat(fromRollups[i].getValues()).isEqualToComparingFieldByFieldRecursively(fromReviews[i].getValues());
+    }
+  }
+
+  @Test
+  public void testRollupItemDecoding() {
+    Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    item.put("appIdStore", new AttributeValue().withS("test store*test id"));
+    item.put("versionDay", new AttributeValue().withS("1.0.0#2001-05-21"));
+    item.put("total", new AttributeValue().withN("5"));
+    item.put("POSITIVE", new AttributeValue().withN("2"));
+    item.put("NEGATIVE", new AttributeValue().withN("3"));
+    item.put("kp:fast", new AttributeValue().withN("2"));
+    item.put("kn:crash", new AttributeValue().withN("3"));
+
+    DailyRollup rollup = RollupStore.fromItem(item);
+
+    assertThat(rollup.getEpochDay()).isEqualTo((int) LocalDate.of(2001, 05, 21).toEpochDay());
+    assertThat(rollup.getTotal()).isEqualTo(5);
+    assertThat(rollup.getSentimentCount(Sentiment.NEGATIVE)).isEqualTo(3);
+    assertThat(rollup.getSentimentCount(Sentiment.MIXED)).isEqualTo(0);
+    assertThat(rollup.getKeywords(Sentiment.POSITIVE).get("fast")).isEqualTo(2);
+    assertThat(rollup.getKeywords(Sentiment.NEGATIVE).get("crash")).isEqualTo(3);
+  }
+
+
+  @Test
+  public void testStatsCacheExpiryAndEviction() {
+    long[] now = new long[]{ 0 };
+    StatsCache cache = new StatsCache(2, 1000, () -> now[0]);
+
+    IncomingStat numReviews = new IncomingStat();
+    numReviews.setData("numReviews", null);
+    IncomingStat keywords = new IncomingStat();
+    keywords.setData("keywords", new String[]{ "4" });
+    IncomingStat moreKeywords = new IncomingStat();
+    moreKeywords.setData("keywords", new String[]{ "10" });
+
+    LocalDate start = LocalDate.of(2001, 05, 21);
+    LocalDate end = LocalDate.of(2001, 05, 23);
+    StatsCache.Key numReviewsKey = new StatsCache.Key("test store*test id", "1.0.0", start, end, numReviews);
+    StatsCache.Key keywordsKey = new StatsCache.Key("test store*test id", "1.0.0", start, end, keywords);
+    StatsCache.Key moreKeywordsKey = new StatsCache.Key("test store*test id", "1.0.0", start, end, moreKeywords);
+
+    OutgoingStat<String, Integer> result = new OutgoingStat<String, Integer>("numReviews", new HashMap<String, Integer>());
+    cache.put(numReviewsKey, result);
+    cache.put(keywordsKey, result);
+
+    // Keys with equal request shapes hit, and differing params miss
+    assertThat(cache.get(new StatsCache.Key("test store*test id", "1.0.0", start, end, numReviews))).isEqualTo(result);
+    assertThat(cache.get(moreKeywordsKey)).isNull();
+
+    // The least recently used entry is evicted
+    cache.put(moreKeywordsKey, result);
+    assertThat(cache.get(keywordsKey)).isNull();
+    assertThat(cache.get(numReviewsKey)).isEqualTo(result);
+
+    // Entries expire after the TTL
+    now[0] = 1000;
+    assertThat(cache.get(numReviewsKey)).isNull();
+
+    assertThat(cache.getHits()).isEqualTo(2L);
+    assertThat(cache.getMisses()).isEqualTo(3L);
+
+    // Windows ending on a day that may still receive late reviews are recalculated
+    LocalDate lastImmutableDay = LocalDate.ofEpochDay(DailyRollupCache.getLastImmutableDay());
+    assertThat(StatsCache.isCacheable(LocalDate.now(ZoneOffset.UTC))).isFalse();
+    assertThat(StatsCache.isCacheable(LocalDate.now(ZoneOffset.UTC).minusDays(1))).isFalse();
+    assertThat(StatsCache.isCacheable(lastImmutableDay.plusDays(1))).isFalse();
+    assertThat(StatsCache.isCacheable(lastImmutableDay)).isTrue();
+    assertThat(StatsCache.isCacheable(end)).isTrue();
+  }
+
+
+  @Test
+  public void testReviewPager() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-20T23:59:59.000Z", "1.0.0", "before", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-21T01:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-22T00:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-23T00:00:00.000Z", "1.0.0", "alsdkj", "MIXED", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-24T00:00:00.000Z", "1.0.0", "after", "NEUTRAL", new String[0]));
+    MockDynamo db = new MockDynamo(reviews);
+    LocalDate start = LocalDate.of(2001, 05, 21);
+    LocalDate end = LocalDate.of(2001, 05, 23);
+
+    // Pages of three, oldest first, need more than one query each
+    ReviewPager.ReviewPage page = new ReviewPager(db, new String[]{ "3", "", "asc" })
+        .fetch("test store*test id", "1.0.0", start, end);
+    assertThat(page.getReviews()).isEqualTo(reviews.subList(1, 4));
+    assertThat(page.getNextToken()).isNotNull();
+
+    page = new ReviewPager(db, new String[]{ "3", page.getNextToken(), "asc" })
+        .fetch("test store*test id", "1.0.0", start, end);
+    assertThat(page.getReviews()).isEqualTo(reviews.subList(4, 5));
+    assertThat(page.getNextToken()).isNull();
+
+    // Newest first by default, with projected fields
+    QueryRequest[] lastQuery = new QueryRequest[1];
+    MockDynamo recordingDb = new MockDynamo(reviews) {
+      @Override
+      public synchronized QueryResult query(QueryRequest request) {
+        lastQuery[0] = request;
+        return super.query(request);
+      }
+    };
+    page = new ReviewPager(recordingDb, new String[]{ "1", "", "desc", "sentiment" })
+        .fetch("test store*test id", "1.0.0", start, end);
+    assertThat(page.getReviews()).isEqualTo(reviews.subList(4, 5));
+    assertThat(lastQuery[0].getProjectionExpression()).isEqualTo("#f0, #f1, #f2");
+    assertThat(lastQuery[0].getExpressionAttributeNames().get("#f0")).isEqualTo("sentiment");
+  }
+
+
+  @Test
+  public void testSentimentOverTimeOutOfRange() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-20T23:59:59.000Z", "1.0.0", "before", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2001-05-22T00:00:00.000Z", "1.0.0", "after", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "not a date", "1.0.0", "invalid", "POSITIVE", new String[0]));
+
+    LocalDate date = LocalDate.of(2001, 05, 21);
+    OutgoingStat<?, ?> result = new SentimentOverTimeCalculation(reviews, date, date).calculate();
+
+    Map<String, Object> sentimentOverTime = new HashMap<String, Object>();
+    sentimentOverTime.put("labels", new String[]{"May 21"});
+    sentimentOverTime.put("data", new Double[]{ 100.0 });
+    sentimentOverTime.put("totals", new Integer[]{ 1 });
+    sentimentOverTime.put("outOfRange", 3);
+    sentimentOverTime.put("granularity", "day");
+
+    assertThat(result.getValues()).isEqualToComparingFieldByFieldRecursively(sentimentOverTime);
+  }
+
+  @Test
+  public void testIsoDateParsing() {
+    // Every day across several leap cycles, including the year 2000 and 2100 rules
+    for (LocalDate date = LocalDate.of(1899, 12, 1); date.getYear() < 2102; date = date.plusDays(1)) {
+      assertThat(IsoDates.parseEpochDay(date + "T12:34:56.789Z")).isEqualTo((int) date.toEpochDay());
+      assertThat(IsoDates.toEpochMonth((int) date.toEpochDay())).isEqualTo(date.getYear() * 12 + date.getMonthValue() - 1);
+    }
+    assertThat(IsoDates.parseEpochDay("2018-05-21")).isEqualTo((int) LocalDate.of(2018, 05, 21).toEpochDay());
+    assertThat(IsoDates.parseEpochDay("2018-05-21T00:00:00+05:00")).isEqualTo((int) LocalDate.of(2018, 05, 21).toEpochDay());
+
+    assertThat(IsoDates.parseEpochDay("2018-02-29T00:00:00.000Z")).isEqualTo(IsoDates.INVALID);
+    assertThat(IsoDates.parseEpochDay("2018-13-01T00:00:00.000Z")).isEqualTo(IsoDates.INVALID);
+    assertThat(IsoDates.parseEpochDay("2018-5-21T00:00:00.000Z")).isEqualTo(IsoDates.INVALID);
+    assertThat(IsoDates.parseEpochDay("May 21")).isEqualTo(IsoDates.INVALID);
+
+    assertThat(IsoDates.parseHour("2018-05-21T07:00:00.000Z")).isEqualTo(7);
+    assertThat(IsoDates.parseHour("2018-05-21T24:00:00.000Z")).isEqualTo(-1);
+    assertThat(IsoDates.parseHour("2018-05-21")).isEqualTo(-1);
+  }
+
+
+  @Test
+  public void testSentimentOverTimeGranularity() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2018-04-30T09:00:00.000Z", "1.0.0", "abcdef", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2018-04-30T09:30:00.000Z", "1.0.0", "a1b2c3", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2018-05-06T23:00:00.000Z", "1.0.0", "123456", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2018-05-07T00:00:00.000Z", "1.0.0", "alsdkj", "NEGATIVE", new String[0]));
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, false);
+
+    // 2018-04-30 is a Monday, so the window spans two ISO weeks and two months
+    LocalDate startDate = LocalDate.of(2018, 04, 30);
+    LocalDate endDate = LocalDate.of(2018, 05, 07);
+
+    Map<String, Object> weekly = new HashMap<String, Object>();
+    weekly.put("labels", new String[]{"April 30", "May 07"});
+    weekly.put("data", new Double[]{ 1.0 / 3 * 100, 100.0 });
+    weekly.put("totals", new Integer[]{ 3, 1 });
+    weekly.put("outOfRange", 0);
+    weekly.put("granularity", "week");
+    assertThat(new SentimentOverTimeCalculation(batch, startDate, endDate, new String[]{ "week" }).calculate().getValues())
+        .isEqualToComparingFieldByFieldRecursively(weekly);
+
+    Map<String, Object> monthly = new HashMap<String, Object>();
+    monthly.put("labels", new String[]{"April 2018", "May 2018"});
+    monthly.put("data", new Double[]{ 50.0, 50.0 });
+    monthly.put("totals", new Integer[]{ 2, 2 });
+    monthly.put("outOfRange", 0);
+    monthly.put("granularity", "month");
+    assertThat(new SentimentOverTimeCalculation(batch, startDate, endDate, new String[]{ "MONTH" }).calculate().getValues())
+        .isEqualToComparingFieldByFieldRecursively(monthly);
+
+    // Eight days of hours don't fit in 100 points, and eight days don't fit in 5, so use weeks
+    assertThat(new SentimentOverTimeCalculation(batch, startDate, endDate, new String[]{ "hour", "5" }).calculate().getValues())
+        .isEqualToComparingFieldByFieldRecursively(weekly);
+
+    OutgoingStat<?, ?> hourly = new SentimentOverTimeCalculation(batch, startDate, startDate, new String[]{ "hour" }).calculate();
+    Map<?, ?> hourlyValues = hourly.getValues();
+    assertThat(((Integer[]) hourlyValues.get("totals"))[9]).isEqualTo(2);
+    assertThat(((String[]) hourlyValues.get("labels"))[9]).isEqualTo("April 30 09:00");
+    assertThat(hourlyValues.get("outOfRange")).isEqualTo(2);
+    assertThat(SentimentOverTimeCalculation.supportsRollups(startDate, startDate, new String[]{ "hour" })).isFalse();
+    assertThat(SentimentOverTimeCalculation.supportsRollups(startDate, endDate, new String[]{ "hour", "5" })).isTrue();
+    assertThat(SentimentOverTimeCalculation.supportsRollups(startDate, endDate, new String[]{ "week" })).isTrue();
+  }
+
+  @Test
+  public void testMultipleVersionsShareOneQuery() throws Exception {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("multi store*multi id", "2018-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[0]));
+    reviews.add(populateReview("multi store*multi id", "2018-05-22T00:00:00.000Z", "1.0.1", "a1b2c3", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("multi store*multi id", "2018-05-23T00:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[0]));
+
+    int[] queries = new int[1];
+    MockDynamo countingDb = new MockDynamo(reviews) {
+      @Override
+      public synchronized QueryResult query(QueryRequest request) {
+        queries[0]++;
+        return super.query(request);
+      }
+    };
+
+    IncomingStat numReviews = new IncomingStat();
+    numReviews.setData("numReviews", null);
+    StatsRequest request = new StatsRequest("", "", new String[]{ "multi store*multi id" },
+        new String[]{ "1.0.0", "2.0.0", StatsRequest.ALL_VERSIONS },
+        "2018-05-21T00:00:00.000Z", "2018-05-24T00:00:00.000Z", new IncomingStat[]{ numReviews });
+    request.setClients(new ClientRegistry(countingDb, new MockSSM(), null, null));
+
+    Map<String, Object> data = request.process().getData();
+    List<?> results = (List<?>) data.get("results");
+    assertThat(results).hasSize(3);
+    String[] expectedVersions = new String[]{ "1.0.0", "2.0.0", "all" };
+    int[] expectedTotals = new int[]{ 2, 0, 3 };
+    for (int i = 0; i < expectedTotals.length; i++) {
+      Map<?, ?> group = (Map<?, ?>) results.get(i);
+      assertThat(group.get("appIdStore")).isEqualTo("multi store*multi id");
+      assertThat(group.get("version")).isEqualTo(expectedVersions[i]);
+      assertThat(((Map<?, ?>) group.get("numReviews")).get("total")).isEqualTo(expectedTotals[i]);
+    }
+
+    // The app's reviews were read once for all three versions
+    int sharedQueries = queries[0];
+    queries[0] = 0;
+    new ReviewFetcher(countingDb).fetch("multi store*multi id", null,
+        LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 24));
+    assertThat(sharedQueries).isEqualTo(queries[0]);
+  }
+
+  @Test
+  public void testReviewQueryPlanner() throws Exception {
+    ReviewQueryPlanner planner = new ReviewQueryPlanner(true);
+
+    // A single version reads the version's own slice of the versionDate index
+    QueryRequest versionQuery = planner.plan("test store*test id", "1.0.0", "2018-05-21", "2018-05-22");
+    assertThat(versionQuery.getIndexName()).isEqualTo(ReviewQueryPlanner.VERSION_DATE_INDEX);
+    assertThat(versionQuery.getFilterExpression()).isNull();
+    assertThat(versionQuery.getExpressionAttributeNames()).isNull();
+    assertThat(versionQuery.getExpressionAttributeValues().get(":strt").getS()).isEqualTo("1.0.0#2018-05-21");
+    assertThat(versionQuery.getExpressionAttributeValues().get(":en").getS()).isEqualTo("1.0.0#2018-05-22");
+    assertThat(versionQuery.getReturnConsumedCapacity()).isEqualTo("TOTAL");
+
+    // Every version falls back to the date index
+    QueryRequest allQuery = planner.plan("test store*test id", null, "2018-05-21", "2018-05-22");
+    assertThat(allQuery.getIndexName()).isEqualTo(ReviewQueryPlanner.DATE_INDEX);
+    assertThat(allQuery.getFilterExpression()).isNull();
+
+    // As does a single version until the index is enabled
+    QueryRequest filteredQuery = new ReviewQueryPlanner(false).plan("test store*test id", "1.0.0", "2018-05-21", "2018-05-22");
+    assertThat(filteredQuery.getIndexName()).isEqualTo(ReviewQueryPlanner.DATE_INDEX);
+    assertThat(filteredQuery.getFilterExpression()).isEqualTo("version = :version");
+
+    Map<String, AttributeValue> key = planner.startKey("test store*test id", "1.0.0", "2018-05-21T09:00:00.000Z", "abcdef");
+    assertThat(key.get("versionDate").getS()).isEqualTo("1.0.0#2018-05-21T09:00:00.000Z");
+    assertThat(ReviewQueryPlanner.getDate(key)).isEqualTo("2018-05-21T09:00:00.000Z");
+
+    // Consumed capacity is summed over every page of every slice
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2018-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2018-05-21T05:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2018-05-21T09:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[0]));
+    reviews.add(populateReview("test store*test id", "2018-05-22T00:00:00.000Z", "1.0.0", "alsdkj", "MIXED", new String[0]));
+    MockDynamo meteredDb = new MockDynamo(reviews) {
+      @Override
+      public synchronized QueryResult query(QueryRequest request) {
+        return super.query(request).withConsumedCapacity(new ConsumedCapacity().withCapacityUnits(0.5));
+      }
+    };
+    ReviewFetcher fetcher = new ReviewFetcher(meteredDb, new ReviewQueryPlanner(false));
+    fetcher.fetch("test store*test id", "1.0.0", LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 22));
+    assertThat(fetcher.getConsumedCapacity()).isEqualTo(1.5);
+  }
+
+  @Test
+  public void testIncrementalStatsQueryOnlyTheTail() {
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("tail store*tail id", today.minusDays(4) + "T09:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"fast"}));
+    reviews.add(populateReview("tail store*tail id", today.minusDays(2) + "T09:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[]{"crash"}));
+    reviews.add(populateReview("tail store*tail id", today.minusDays(1) + "T09:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[]{"slow"}));
+    reviews.add(populateReview("tail store*tail id", today + "T09:00:00.000Z", "1.0.0", "alsdkj", "POSITIVE", new String[]{"easy"}));
+
+    List<String> queryStarts = new ArrayList<String>();
+    MockDynamo recordingDb = new MockDynamo(reviews) {
+      @Override
+      public synchronized QueryResult query(QueryRequest request) {
+        queryStarts.add(request.getExpressionAttributeValues().get(":strt").getS());
+        return super.query(request);
+      }
+    };
+
+    IncomingStat[] stats = new IncomingStat[3];
+    String[] names = new String[]{ "numReviews", "overallSentiment", "sentimentOverTime" };
+    for (int i = 0; i < names.length; i++) {
+      stats[i] = new IncomingStat();
+      stats[i].setData(names[i], null);
+    }
+    StatsRequest request = new StatsRequest("tail store*tail id", "1.0.0",
+        today.minusDays(5) + "T00:00:00.000Z", today + "T00:00:00.000Z", stats);
+    request.setClients(new ClientRegistry(recordingDb, new MockSSM(), null, null));
+    request.setIncrementalRollups(true);
+
+    String first = toJson(request.process().getData()).toString();
+    assertThat(queryStarts.get(0)).isEqualTo(today.minusDays(5).toString());
+
+    // Days before yesterday are now cached, so the refresh only reads yesterday and today
+    queryStarts.clear();
+    String refreshed = toJson(request.process().getData()).toString();
+    assertThat(queryStarts).isNotEmpty();
+    for (String start : queryStarts) {
+      assertThat(start.compareTo(today.minusDays(1).toString())).isGreaterThanOrEqualTo(0);
+    }
+    assertThat(refreshed).isEqualTo(first);
+
+    // The merged days match a calculation over every review
+    OutgoingStat<?, ?>[] expected = request.calculateStats(ReviewBatch.fromItems(reviews, false), stats);
+    Map<?, ?> data = request.process().getData();
+    for (int i = 0; i < stats.length; i++) {
+      assertThat(toJson(data.get(names[i]))).isEqualTo(toJson(expected[i].getValues()));
+    }
+
+    // Cached days inside a wider window are reused, and only the days around them are read
+    StatsRequest wider = new StatsRequest("tail store*tail id", "1.0.0",
+        today.minusDays(8) + "T00:00:00.000Z", today + "T00:00:00.000Z", stats);
+    wider.setClients(new ClientRegistry(recordingDb, new MockSSM(), null, null));
+    wider.setIncrementalRollups(true);
+    queryStarts.clear();
+    wider.process();
+    assertThat(queryStarts).contains(today.minusDays(8).toString(), today.minusDays(1).toString());
+    for (String start : queryStarts) {
+      assertThat(start.compareTo(today.minusDays(5).toString()) < 0
+          || start.compareTo(today.minusDays(1).toString()) >= 0).isTrue();
+    }
+  }
+
+  @Test
+  public void testDailyRollupCacheWeightAndExpiry() {
+    long[] now = new long[]{ 0 };
+    DailyRollupCache cache = new DailyRollupCache(4, 1000, () -> now[0]);
+
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"fast", "easy"}));
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, false);
+    int day = (int) LocalDate.of(2001, 05, 21).toEpochDay();
+    DailyRollup withKeywords = new DailyRollup(day, true);
+    withKeywords.add(batch, 0);
+    DailyRollup withoutKeywords = new DailyRollup(day + 1, false);
+    withoutKeywords.add(batch, 0);
+    assertThat(withoutKeywords.getTotal()).isEqualTo(1);
+    assertThat(withoutKeywords.getKeywords(Sentiment.POSITIVE).size()).isEqualTo(0);
+
+    // Each day weighs one plus its keywords
+    cache.put("test store*test id", "1.0.0", withKeywords);
+    cache.put("test store*test id", "1.0.0", withoutKeywords);
+    assertThat(cache.getWeight()).isEqualTo(4L);
+
+    // Days aggregated without keywords only serve requests that don't need them
+    assertThat(cache.get("test store*test id", "1.0.0", day + 1, false)).isEqualTo(withoutKeywords);
+    assertThat(cache.get("test store*test id", "1.0.0", day + 1, true)).isNull();
+    assertThat(cache.get("test store*test id", "1.0.0", day, false)).isEqualTo(withKeywords);
+
+    // Going over the weight evicts the least recently used days
+    cache.put("test store*test id", "1.0.0", new DailyRollup(day + 2, false));
+    assertThat(cache.get("test store*test id", "1.0.0", day + 1, false)).isNull();
+    assertThat(cache.getWeight()).isEqualTo(4L);
+
+    // Days expire after the TTL, so late reviews are read again
+    now[0] = 1000;
+    assertThat(cache.get("test store*test id", "1.0.0", day, true)).isNull();
+    assertThat(cache.getWeight()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testSpaceSavingCounter() {
+    // "a" is a heavy hitter among a long tail of keys that each occur once
+    SpaceSavingCounter sketch = new SpaceSavingCounter(4);
+    Map<String, Integer> exact = new HashMap<String, Integer>();
+    for (int i = 0; i < 200; i++) {
+      String key = i % 3 == 0 ? "a" : i % 5 == 0 ? "b" : "tail" + i;
+      sketch.increment(key);
+      exact.merge(key, 1, Integer::sum);
+    }
+    sketch.add("b", 10);
+    exact.merge("b", 10, Integer::sum);
+
+    assertThat(sketch.getTotal()).isEqualTo(210L);
+    KeywordCounter counts = sketch.getCounts();
+    KeywordCounter errors = sketch.getErrors();
+    assertThat(counts.size()).isEqualTo(4);
+    assertThat(counts.top(1).get(0).getKey()).isEqualTo("a");
+    counts.forEach((key, count) -> {
+      // Estimates never undercount, and overcount by at most the recorded error
+      assertThat(count).isGreaterThanOrEqualTo(exact.get(key));
+      assertThat(count - errors.get(key)).isLessThanOrEqualTo(exact.get(key));
+      assertThat(errors.get(key)).isLessThanOrEqualTo(210 / 4);
+    });
+
+    // Approximate keyword stats report their error, exact ones don't
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"a", "b", "c"}));
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "a1b2c3", "POSITIVE", new String[]{"A", "d"}));
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, false);
+
+    Keyword[] approximate = (Keyword[]) new KeywordsCalculation(batch, new MockSSM(), new String[]{ "1", "approximate", "8" })
+        .calculate().getValues().get("positive");
+    assertThat(approximate.length).isEqualTo(1);
+    assertThat(approximate[0].getKeyword()).isEqualTo("a");
+    assertThat(approximate[0].getPercentage()).isEqualTo(100.0);
+    assertThat(approximate[0].getError()).isEqualTo(0.0);
+    assertThat(toJson(approximate[0]).has("error")).isTrue();
+
+    Keyword[] exactKeywords = (Keyword[]) new KeywordsCalculation(batch, new MockSSM(), new String[]{ "1", "exact" })
+        .calculate().getValues().get("positive");
+    assertThat(exactKeywords[0].getPercentage()).isEqualTo(100.0);
+    assertThat(toJson(exactKeywords[0]).has("error")).isFalse();
+  }
+
+  @Test
+  public void testParallelPipelinesMatchSinglePass() {
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview("test store*test id", "2001-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"fast", "Easy"}));
+    reviews.add(populateReview("test store*test id", "2001-05-21T05:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[]{"crash"}));
+    reviews.add(populateReview("test store*test id", "2001-05-22T09:00:00.000Z", "1.0.0", "123456", "NEGATIVE", new String[]{"crash", "slow"}));
+    reviews.add(populateReview("test store*test id", "2001-05-23T00:00:00.000Z", "1.0.0", "alsdkj", "MIXED", new String[]{"ignored"}));
+    ReviewBatch batch = ReviewBatch.fromItems(reviews, true);
+    LocalDate startDate = LocalDate.of(2001, 05, 21);
+    LocalDate endDate = LocalDate.of(2001, 05, 23);
+
+    // A single pass, a thread per calculation, and chunks of one and two reviews
+    int[] parallelism = new int[]{ 1, 4, 4, 3 };
+    int[] splitThreshold = new int[]{ Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0 };
+    OutgoingStat<?, ?>[][] results = new OutgoingStat<?, ?>[parallelism.length][];
+    for (int i = 0; i < parallelism.length; i++) {
+      // The ignore list is read ahead, as a request does
+      results[i] = new StatPipeline(batch, parallelism[i], splitThreshold[i])
+          .register(new RawReviewsCalculation(batch))
+          .register(new NumReviewsCalculation(batch))
+          .register(new OverallSentimentCalculation(batch))
+          .register(new SentimentOverTimeCalculation(batch, startDate, endDate))
+          .register(new KeywordsCalculation(batch, new MockSSM(), null,
+              KeywordsCalculation.prefetchIgnoreList(new MockSSM())))
+          // Approximate keywords can't be split, so they run over the whole batch
+          .register(new KeywordsCalculation(batch, new MockSSM(), new String[]{ "4", "approximate" }))
+          .run();
+    }
+
+    assertThat(results[0].length).isEqualTo(6);
+    for (int run = 1; run < results.length; run++) {
+      for (int i = 0; i < results[0].length; i++) {
+        assertThat(results[run][i].getName()).isEqualTo(results[0][i].getName());
+        assertThat(toJson(results[run][i].getValues())).isEqualTo(toJson(results[0][i].getValues()));
+      }
+    }
+  }
+
+  @Test
+  public void testReviewStoresAgree() throws Exception {
+    String app = "review store*review id";
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview(app, "2018-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"a", "b"}));
+    reviews.add(populateReview(app, "2018-05-22T00:00:00.000Z", "1.0.0", "a1b2c3", "NEGATIVE", new String[0]));
+    reviews.add(populateReview(app, "2018-05-23T00:00:00.000Z", "1.1.0", "123456", "POSITIVE", new String[]{"c"}));
+    reviews.add(populateReview(app, "2018-05-24T00:00:00.000Z", "1.0.0", "654321", "NEUTRAL", new String[0]));
+    Map<String, AttributeValue> score = new HashMap<String, AttributeValue>();
+    score.put("Positive", new AttributeValue().withN("0.9"));
+    reviews.get(0).put("sentimentScore", new AttributeValue().withM(score));
+    Map<String, AttributeValue> otherApp = populateReview("other store*other id", "2018-05-22T00:00:00.000Z", "9.0", "ffffff", "NEUTRAL", new String[0]);
+
+    MemoryReviewStore memory = new MemoryReviewStore();
+    memory.addAll(reviews);
+    memory.add(otherApp);
+
+    // A tiny initial mapping makes the file remap as it grows
+    Path path = Files.createTempFile("reviews", ".dat");
+    FileReviewStore file = new FileReviewStore(path, 64);
+    file.addAll(reviews);
+    file.add(otherApp);
+
+    LocalDate start = LocalDate.of(2018, 05, 22);
+    LocalDate end = LocalDate.of(2018, 05, 23);
+    List<Map<String, AttributeValue>> expected =
+        new DynamoReviewStore(new MockDynamo(reviews)).query(app, null, start, end);
+    assertThat(expected).isEqualTo(reviews.subList(1, 3));
+
+    for (ReviewStore store : new ReviewStore[]{ memory, file }) {
+      assertThat(store.query(app, null, start, end)).isEqualTo(expected);
+      assertThat(store.query(app, "1.1.0", start, end)).isEqualTo(reviews.subList(2, 3));
+      assertThat(store.query(app, "2.0.0", start, end)).isEmpty();
+      assertThat(store.getMinDate(app)).isEqualTo(LocalDate.of(2018, 05, 21));
+      assertThat(store.getMaxDate(app)).isEqualTo(LocalDate.of(2018, 05, 24));
+      assertThat(store.getVersions(app)).isEqualTo(new String[]{ "1.0.0", "1.1.0" });
+      assertThat(store.getMinDate("missing store*missing id")).isNull();
+    }
+
+    // Reopening the file rebuilds its index from the records
+    file.close();
+    FileReviewStore reopened = new FileReviewStore(path);
+    assertThat(reopened.query(app, null, LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 24)))
+        .isEqualTo(reviews);
+    assertThat(reopened.getVersions("other store*other id")).isEqualTo(new String[]{ "9.0" });
+    reopened.close();
+    Files.delete(path);
+
+    // Stats are calculated from a local store without DynamoDB
+    IncomingStat numReviews = new IncomingStat();
+    numReviews.setData("numReviews", null);
+    StatsRequest request = new StatsRequest(app, "1.0.0",
+        "2018-05-21T00:00:00.000Z", "2018-05-24T00:00:00.000Z", new IncomingStat[]{ numReviews });
+    request.setClients(new ClientRegistry(null, new MockSSM(), null, null));
+    request.setReviewStore(memory);
+    JsonNode stats = toJson(request.process());
+    assertThat(stats.get("numReviews").get("total").asInt()).isEqualTo(3);
+  }
+
+  @Test
+  public void testReviewSegment() throws Exception {
+    String app = "segment store*segment id";
+    List<Map<String, AttributeValue>> reviews = new ArrayList<Map<String, AttributeValue>>();
+    reviews.add(populateReview(app, "2018-05-20T09:00:00.000Z", "1.0.0", "a0", "POSITIVE", new String[]{"old"}));
+    reviews.add(populateReview(app, "2018-05-21T10:00:00.000Z", "1.0.0", "a1", "NEGATIVE", new String[]{"crash", "login"}));
+    reviews.add(populateReview(app, "2018-05-21T08:00:00.000Z", "1.1.0", "a2", "POSITIVE", new String[0]));
+    reviews.add(populateReview(app, "2018-05-23T12:00:00.000Z", "1.0.0", "a3", "NEUTRAL", new String[]{"login"}));
+    reviews.add(populateReview(app, "2018-05-24T13:00:00.000Z", "1.1.0", "a4", "MIXED", new String[]{"new"}));
+    MemoryReviewStore memory = new MemoryReviewStore();
+    memory.addAll(reviews);
+
+    // The segment holds 05-21 to 05-23, and the other days come from the memory store
+    Path directory = Files.createTempDirectory("segments");
+    Path path = SegmentReviewStore.getPath(directory, app);
+    ReviewSegment.write(path, reviews, LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 23));
+    ReviewSegment segment = ReviewSegment.open(path);
+    assertThat(segment.size()).isEqualTo(3);
+    assertThat(segment.count(LocalDate.of(2018, 05, 22), LocalDate.of(2018, 05, 30))).isEqualTo(1);
+    SegmentReviewStore store = new SegmentReviewStore(directory, memory);
+
+    LocalDate[][] windows = new LocalDate[][]{
+      { LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 23) },
+      { LocalDate.of(2018, 05, 19), LocalDate.of(2018, 05, 25) },
+      { LocalDate.of(2018, 05, 22), LocalDate.of(2018, 05, 22) },
+      { LocalDate.of(2018, 05, 24), LocalDate.of(2018, 05, 25) }
+    };
+    for (LocalDate[] window : windows) {
+      for (String version : new String[]{ null, "1.0.0", "1.1.0", "2.0.0" }) {
+        assertBatchesMatch(store.queryBatch(app, version, window[0], window[1]),
+            memory.queryBatch(app, version, window[0], window[1]));
+      }
+    }
+
+    // Apps without a segment, and reviews as items, come from the other store
+    assertThat(store.queryBatch("other store*other id", null, LocalDate.of(2018, 05, 21),
+        LocalDate.of(2018, 05, 23)).size()).isEqualTo(0);
+    assertThat(store.query(app, null, LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 23)))
+        .isEqualTo(memory.query(app, null, LocalDate.of(2018, 05, 21), LocalDate.of(2018, 05, 23)));
+
+    IncomingStat numReviews = new IncomingStat();
+    numReviews.setData("numReviews", null);
+    StatsRequest request = new StatsRequest(app, "1.0.0",
+        "2018-05-20T00:00:00.000Z", "2018-05-24T00:00:00.000Z", new IncomingStat[]{ numReviews });
+    request.setClients(new ClientRegistry(null, new MockSSM(), null, null));
+    request.setReviewStore(store);
+    assertThat(toJson(request.process()).get("numReviews").get("total").asInt()).isEqualTo(3);
+
+    // A rebuilt segment is mapped again, and a removed one falls back to the other store
+    LocalDate start = LocalDate.of(2018, 05, 21);
+    LocalDate end = LocalDate.of(2018, 05, 23);
+    ReviewSegment.write(path, reviews.subList(0, 2), start, end);
+    assertThat(store.queryBatch(app, null, start, end).size()).isEqualTo(1);
+    Files.delete(path);
+    assertThat(store.queryBatch(app, null, start, end).size()).isEqualTo(3);
+
+    Files.delete(directory);
+  }
+
+  @Test
+  public void testSegmentExportItem() throws Exception {
+    JsonNode line = readJson("{\"Item\":{\"appIdStore\":{\"S\":\"test store*test id\"},"
+        + "\"date\":{\"S\":\"2018-05-21T00:00:00.000Z\"},\"version\":{\"S\":\"1.0.0\"},"
+        + "\"reviewHash\":{\"S\":\"abcdef\"},\"sentiment\":{\"S\":\"POSITIVE\"},"
+        + "\"keywords\":{\"L\":[{\"S\":\"great\"}]}}}");
+    assertThat(SegmentExport.toItem(line.get("Item"))).isEqualTo(populateReview("test store*test id",
+        "2018-05-21T00:00:00.000Z", "1.0.0", "abcdef", "POSITIVE", new String[]{"great"}));
+  }
+
+  private void assertBatchesMatch(ReviewBatch actual, ReviewBatch expected) {
+    assertThat(actual.size()).isEqualTo(expected.size());
+    for (int row = 0; row < expected.size(); row++) {
+      assertThat(actual.getEpochDay(row)).isEqualTo(expected.getEpochDay(row));
+      assertThat(actual.getHour(row)).isEqualTo(expected.getHour(row));
+      assertThat(actual.getSentiment(row)).isEqualTo(expected.getSentiment(row));
+      assertThat(actual.getVersion(actual.getVersionId(row)))
+          .isEqualTo(expected.getVersion(expected.getVersionId(row)));
+
+      List<String> actualKeywords = new ArrayList<String>();
+      for (int i = actual.getKeywordStart(row); i < actual.getKeywordEnd(row); i++) {
+        actualKeywords.add(actual.getKeyword(actual.getKeywordId(i)));
+      }
+      List<String> expectedKeywords = new ArrayList<String>();
+      for (int i = expected.getKeywordStart(row); i < expected.getKeywordEnd(row); i++) {
+        expectedKeywords.add(expected.getKeyword(expected.getKeywordId(i)));
+      }
+      assertThat(actualKeywords).isEqualTo(expectedKeywords);
+    }
+  }
 }
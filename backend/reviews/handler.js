@@ -5,6 +5,7 @@ const aws = require('aws-sdk');
 const region = process.env.DEPLOY_REGION;
 const stage = process.env.STAGE;
 const table = process.env.TABLE_NAME;
+const rollupTable = process.env.ROLLUP_TABLE_NAME;
 
 const appStoreScraper = require('./xml-app-store-scraper');
 const gPlayScraper = require('google-play-scraper');
@@ -12,6 +13,21 @@ const gPlayScraper = require('google-play-scraper');
 const START_PAGE = 0;
 const MAX_PAGE = 9;
 
+// Version name of the rollups that count the reviews of every version
+const ALL_VERSIONS = 'all';
+
+// Maximum number of requests in a single DynamoDB BatchWriteItem request
+const MAX_BATCH_WRITE = 25;
+
+// Maximum number of times to retry the unprocessed items of a BatchWriteItem request
+const MAX_BATCH_RETRIES = 8;
+
+// Maximum number of key phrases of each sentiment stored in a rollup item, most frequent first
+const MAX_ROLLUP_KEYWORDS = 500;
+
+// Maximum size of the key phrases stored in a rollup item, well below DynamoDB's 400 KB limit
+const MAX_ROLLUP_KEYWORD_BYTES = 300 * 1024;
+
 module.exports = {
   handler,
   getReviews,
@@ -20,7 +36,14 @@ module.exports = {
   removeEmptyFields,
   findFirstStoredReview,
   truncateReviews,
-  createDynamoBatchRequest
+  createDynamoBatchRequest,
+  createRollups,
+  getRollupDays,
+  mergeReviews,
+  createRollupPutRequests,
+  limitKeywords,
+  rebuildRollups,
+  backfillVersionDates
 };
 
 async function handler () {
@@ -37,8 +60,9 @@ async function handler () {
   }
 
   let reviews = [];
+  let rollupDays = new Set();
   try {
-    reviews = await getReviews(appList);
+    reviews = await getReviews(appList, rollupDays);
   } catch (error) {
     return {
       'statusCode': 500, // Internal server error
@@ -61,8 +85,22 @@ async function handler () {
     };
   }
 
+  // Read the stored reviews of the scraped days before this run writes to the date index
+  let rollups = [];
+  try {
+    rollups = await calculateRollups(rollupDays, processedReviews);
+  } catch (error) {
+    return {
+      'statusCode': 500, // Internal server error
+      'headers': {},
+      'body': JSON.stringify({ error: `Error reading stored reviews: ${error}` }),
+      'isBase64Encoded': false
+    };
+  }
+
   try {
     await writeReviewsToDB(processedReviews);
+    await writeRollupsToDB(rollups);
   } catch (error) {
     return {
       'statusCode': 500, // Internal server error
@@ -108,8 +146,10 @@ async function getAppList() {
 /**
  * Scrapes all available reviews for the configured apps from Google Play and the App Store 
  * @param appList The list of apps to scrape
+ * @param rollupDays A set to add the rollup day of every scraped review to, stored or not
+ * @return The reviews that aren't stored yet
  */
-async function getReviews(appList) {
+async function getReviews(appList, rollupDays = new Set()) {
   let allReviews = [];
 
   let appListObject;
@@ -131,6 +171,7 @@ async function getReviews(appList) {
   for (let i = 0; i < appStoreIds.length; i++) {
     try {
       let appStoreReviews = await scrape(appStoreIds[i], appStoreScraper, 'App Store', true);
+      getRollupDays(appStoreReviews).forEach((day) => rollupDays.add(day));
       appStoreReviews = await removeDuplicates(appStoreIds[i], 'App Store', appStoreReviews);
       allReviews = allReviews.concat(appStoreReviews);
     } catch (error) {
@@ -142,6 +183,7 @@ async function getReviews(appList) {
   for (let i = 0; i < gPlayIds.length; i++) {
     try {
       let gPlayReviews = await scrape(gPlayIds[i], gPlayScraper, 'Google Play', false);
+      getRollupDays(gPlayReviews).forEach((day) => rollupDays.add(day));
       gPlayReviews = await removeDuplicates(gPlayIds[i], 'Google Play', gPlayReviews);
       allReviews = allReviews.concat(gPlayReviews);
     } catch (error) {
@@ -232,6 +274,8 @@ function convertReviewToDynamoRepresentation(id, store, alternateVersion) {
       reviewHash:  reviewHash.digest('hex'),
       date: date,
       version: version,
+      // Sort key of the versionDate index, so one version's reviews can be queried by date
+      versionDate: `${version}#${date}`,
       review: review
     };
   };
@@ -254,24 +298,34 @@ function removeEmptyFields(review) {
 }
 
 async function removeDuplicates(id, store, reviews) {
-  // Pull list of review hashes from DynamoDB, organized by date
+  if (reviews.length === 0) {
+    return reviews;
+  }
+
+  // Pull the hashes of every stored review since the oldest scraped review
   const dynamoDb = new aws.DynamoDB.DocumentClient({
     region: region
   });
 
+  const oldest = reviews.reduce(
+    (min, review) => review.date < min ? review.date : min, reviews[0].date);
   const params = {
     TableName: table,
     IndexName: 'date',
-    KeyConditionExpression: 'appIdStore = :appidstore',
+    KeyConditionExpression: 'appIdStore = :appidstore and #dte >= :oldest',
+    ProjectionExpression: 'reviewHash',
+    ExpressionAttributeNames: {
+      '#dte': 'date' // Date is a reserved word in DynamoDB
+    },
     ExpressionAttributeValues: {
-      ':appidstore': id + '*' + store
+      ':appidstore': id + '*' + store,
+      ':oldest': oldest
     }
   };
 
   let dbReviews = [];
   try {
-    let dynamoResponse = await dynamoDb.query(params).promise();
-    dbReviews = dynamoResponse.Items;
+    dbReviews = await queryAll(dynamoDb, params);
   } catch (error) {
     console.log(`Error contacting DynamoDB: ${error}`);
     throw error;
@@ -386,13 +440,13 @@ async function writeReviewsToDB(reviews){
   let dynamoDb = new aws.DynamoDB.DocumentClient();
 
   // DynamoDB only allows 25 PutRequests at a time
-  for (let i = 0; i < reviews.length; i += 25) {
+  for (let i = 0; i < reviews.length; i += MAX_BATCH_WRITE) {
     let start = i;
-    let end = i + 25 <= reviews.length ? i + 25 : reviews.length;
+    let end = i + MAX_BATCH_WRITE <= reviews.length ? i + MAX_BATCH_WRITE : reviews.length;
 
     let dynamoRequest = createDynamoBatchRequest(reviews.slice(start, end));
     try {
-      await dynamoDb.batchWrite(dynamoRequest).promise();
+      await batchWriteAll(dynamoDb, dynamoRequest);
     } catch (error) {
       console.log(`Error writing to DynamoDB: ${error}`);
       throw error;
@@ -421,3 +475,380 @@ function createDynamoBatchRequest(items) {
 
   return dynamoRequest;
 }
+
+/**
+ * Aggregate reviews into daily rollups, one per app, version and day, plus one per app and
+ * day for every version under the 'all' version.
+ * Each rollup counts the reviews per sentiment (plus a total) and the keywords
+ * of positive ('kp:' prefix) and negative ('kn:' prefix) reviews.
+ * @param reviews The reviews to aggregate
+ * @return A list of rollups with appIdStore, versionDay and counts fields
+ */
+function createRollups(reviews) {
+  let rollups = {};
+
+  const getCounts = (appIdStore, versionDay) => {
+    const key = `${appIdStore}#${versionDay}`;
+    if (rollups[key] === undefined) {
+      rollups[key] = {
+        appIdStore: appIdStore,
+        versionDay: versionDay,
+        counts: {}
+      };
+    }
+    return rollups[key].counts;
+  };
+
+  reviews.forEach((review) => {
+    // Dates are ISO strings, so the first 10 characters are the day
+    const day = review.date.substring(0, 10);
+    const versionCounts = getCounts(review.appIdStore, `${review.version}#${day}`);
+    const allCounts = getCounts(review.appIdStore, `${ALL_VERSIONS}#${day}`);
+    const increment = (name) => {
+      versionCounts[name] = (versionCounts[name] || 0) + 1;
+      allCounts[name] = (allCounts[name] || 0) + 1;
+    };
+
+    increment('total');
+    if (review.sentiment !== undefined) {
+      increment(review.sentiment);
+    }
+
+    let prefix = null;
+    if (review.sentiment === 'POSITIVE') {
+      prefix = 'kp:';
+    } else if (review.sentiment === 'NEGATIVE') {
+      prefix = 'kn:';
+    }
+
+    if (prefix !== null && review.keywords !== undefined) {
+      review.keywords.forEach((keyword) => increment(prefix + keyword));
+    }
+  });
+
+  return Object.keys(rollups).map((key) => rollups[key]);
+}
+
+/**
+ * Find the rollup day of each review
+ * @param reviews The reviews to check
+ * @return The distinct "appIdStore#yyyy-mm-dd" keys of the reviews' days
+ */
+function getRollupDays(reviews) {
+  let days = new Set();
+  reviews.forEach((review) => days.add(`${review.appIdStore}#${review.date.substring(0, 10)}`));
+  return Array.from(days);
+}
+
+/**
+ * Create the BatchWriteItem requests that store rollups, replacing their previous counts.
+ * Only the most frequent key phrases of each rollup are stored, so busy days fit in an item.
+ * @param rollups The rollups to store
+ * @return A list of DocumentClient batchWrite parameters
+ */
+function createRollupPutRequests(rollups) {
+  let requests = [];
+
+  for (let i = 0; i < rollups.length; i += MAX_BATCH_WRITE) {
+    let request = { RequestItems: {} };
+    request.RequestItems[rollupTable] = rollups.slice(i, i + MAX_BATCH_WRITE).map((rollup) => ({
+      PutRequest: {
+        Item: Object.assign({
+          appIdStore: rollup.appIdStore,
+          versionDay: rollup.versionDay
+        }, limitKeywords(rollup.counts))
+      }
+    }));
+    requests.push(request);
+  }
+
+  return requests;
+}
+
+/**
+ * Limit a rollup's key phrase counts to the most frequent phrases that fit in an item
+ * @param counts The rollup counts, including every 'kp:' and 'kn:' key phrase
+ * @return The counts with at most MAX_ROLLUP_KEYWORDS phrases of each sentiment, and at most
+ * MAX_ROLLUP_KEYWORD_BYTES of phrases in total
+ */
+function limitKeywords(counts) {
+  let limited = {};
+  let keywords = [];
+  Object.keys(counts).forEach((name) => {
+    if (name.startsWith('kp:') || name.startsWith('kn:')) {
+      keywords.push(name);
+    } else {
+      limited[name] = counts[name];
+    }
+  });
+
+  // Most frequent first, with ties broken by name so the same phrases are always kept
+  keywords.sort((a, b) => counts[b] - counts[a] || (a < b ? -1 : a > b ? 1 : 0));
+
+  let kept = { 'kp:': 0, 'kn:': 0 };
+  let bytes = 0;
+  keywords.forEach((name) => {
+    const prefix = name.substring(0, 3);
+    const size = Buffer.byteLength(name, 'utf8') + String(counts[name]).length;
+    if (kept[prefix] < MAX_ROLLUP_KEYWORDS && bytes + size <= MAX_ROLLUP_KEYWORD_BYTES) {
+      limited[name] = counts[name];
+      kept[prefix]++;
+      bytes += size;
+    }
+  });
+
+  return limited;
+}
+
+/**
+ * Calculate the rollups of some days from the reviews stored for them and the new reviews.
+ * The date index is only eventually consistent, so this runs before the new reviews are
+ * written: stored reviews are read from the index, which earlier runs wrote to long ago, and
+ * the new reviews are merged in from memory rather than read back.
+ * Rollups are overwritten rather than incremented, so storing them again, or after a failed
+ * run, leaves the same counts.
+ * @param rollupDays The "appIdStore#yyyy-mm-dd" keys of the days to calculate
+ * @param newReviews The analyzed reviews about to be stored
+ * @return The rollups of every day
+ */
+async function calculateRollups(rollupDays, newReviews) {
+  const dynamoDb = new aws.DynamoDB.DocumentClient({
+    region: region
+  });
+
+  let storedReviews = [];
+  for (const rollupDay of rollupDays) {
+    // App ids could contain '#', but the day never does
+    const separator = rollupDay.lastIndexOf('#');
+    try {
+      storedReviews = storedReviews.concat(await queryAll(dynamoDb, {
+        TableName: table,
+        IndexName: 'date',
+        KeyConditionExpression: 'appIdStore = :appidstore and begins_with(#dte, :day)',
+        ProjectionExpression: 'appIdStore, reviewHash, #dte, version, sentiment, keywords',
+        ExpressionAttributeNames: {
+          '#dte': 'date' // Date is a reserved word in DynamoDB
+        },
+        ExpressionAttributeValues: {
+          ':appidstore': rollupDay.substring(0, separator),
+          ':day': rollupDay.substring(separator + 1)
+        }
+      }));
+    } catch (error) {
+      console.log(`Error contacting DynamoDB: ${error}`);
+      throw error;
+    }
+  }
+
+  return createRollups(mergeReviews(storedReviews, newReviews));
+}
+
+/**
+ * Merge new reviews into the stored reviews, counting a review that is in both once
+ * @param storedReviews The reviews read from DynamoDB
+ * @param newReviews The reviews about to be stored
+ * @return The distinct reviews
+ */
+function mergeReviews(storedReviews, newReviews) {
+  let reviews = new Map();
+  storedReviews.concat(newReviews).forEach((review) => {
+    reviews.set(`${review.appIdStore}#${review.reviewHash}`, review);
+  });
+  return Array.from(reviews.values());
+}
+
+/**
+ * Write rollups to the rollup table, replacing their previous counts
+ * @param rollups The rollups to write
+ */
+async function writeRollupsToDB(rollups) {
+  const dynamoDb = new aws.DynamoDB.DocumentClient({
+    region: region
+  });
+
+  const requests = createRollupPutRequests(rollups);
+  for (let i = 0; i < requests.length; i++) {
+    try {
+      await batchWriteAll(dynamoDb, requests[i]);
+    } catch (error) {
+      console.log(`Error writing rollups to DynamoDB: ${error}`);
+      throw error;
+    }
+  }
+}
+
+/**
+ * Read every page of a DynamoDB query
+ * @param dynamoDb The DocumentClient to use
+ * @param params The query parameters
+ * @return The items of every page
+ */
+async function queryAll(dynamoDb, params) {
+  let items = [];
+  let response;
+  do {
+    response = await dynamoDb.query(params).promise();
+    items = items.concat(response.Items);
+    params.ExclusiveStartKey = response.LastEvaluatedKey;
+  } while (response.LastEvaluatedKey !== undefined);
+
+  return items;
+}
+
+/**
+ * Run a BatchWriteItem request, retrying its unprocessed items with a growing delay
+ * @param dynamoDb The DocumentClient to use
+ * @param request The batchWrite parameters
+ */
+async function batchWriteAll(dynamoDb, request) {
+  let requestItems = request.RequestItems;
+  for (let attempt = 0; Object.keys(requestItems).length > 0; attempt++) {
+    if (attempt > MAX_BATCH_RETRIES) {
+      throw new Error('Unprocessed items remained after retrying');
+    }
+    if (attempt > 0) {
+      await new Promise((resolve) => setTimeout(resolve, 50 * Math.pow(2, attempt)));
+    }
+
+    const response = await dynamoDb.batchWrite({ RequestItems: requestItems }).promise();
+    requestItems = response.UnprocessedItems || {};
+  }
+}
+
+/**
+ * Rebuild the rollup table from every stored review.
+ * Used to backfill rollups for reviews written before rollups existed, or to repair them.
+ * A rebuild that reads a day before the scheduled scraper stores new reviews of it can
+ * overwrite that day with lower counts, and days that are no longer scraped are never
+ * recalculated, so disable the schedule while rebuilding or run the rebuild again afterwards.
+ */
+async function rebuildRollups() {
+  let appList;
+  try {
+    appList = JSON.parse(await getAppList());
+  } catch (error) {
+    return {
+      'statusCode': 500, // Internal server error
+      'headers': {},
+      'body': JSON.stringify({ error: `Error getting app list: ${error}` }),
+      'isBase64Encoded': false
+    };
+  }
+
+  const dynamoDb = new aws.DynamoDB.DocumentClient({
+    region: region
+  });
+
+  let rebuilt = 0;
+  try {
+    for (let i = 0; i < appList.length; i++) {
+      const params = {
+        TableName: table,
+        IndexName: 'date',
+        KeyConditionExpression: 'appIdStore = :appidstore',
+        ExpressionAttributeValues: {
+          ':appidstore': appList[i].appId + '*' + appList[i].store
+        }
+      };
+
+      const reviews = await queryAll(dynamoDb, params);
+
+      // Overwrite each rollup so rebuilding is idempotent
+      const rollups = createRollups(reviews);
+      const requests = createRollupPutRequests(rollups);
+      for (let j = 0; j < requests.length; j++) {
+        await batchWriteAll(dynamoDb, requests[j]);
+      }
+      rebuilt += rollups.length;
+    }
+  } catch (error) {
+    return {
+      'statusCode': 500, // Internal server error
+      'headers': {},
+      'body': JSON.stringify({ error: `Error rebuilding rollups: ${error}` }),
+      'isBase64Encoded': false
+    };
+  }
+
+  return {
+    'statusCode': 200, // OK
+    'headers': {},
+    'body': JSON.stringify({ rollups: rebuilt }),
+    'isBase64Encoded': false
+  };
+}
+
+/**
+ * Add the versionDate attribute to every stored review that lacks one.
+ * Used to backfill the versionDate index for reviews written before it existed.
+ */
+async function backfillVersionDates() {
+  let appList;
+  try {
+    appList = JSON.parse(await getAppList());
+  } catch (error) {
+    return {
+      'statusCode': 500, // Internal server error
+      'headers': {},
+      'body': JSON.stringify({ error: `Error getting app list: ${error}` }),
+      'isBase64Encoded': false
+    };
+  }
+
+  const dynamoDb = new aws.DynamoDB.DocumentClient({
+    region: region
+  });
+
+  let updated = 0;
+  try {
+    for (let i = 0; i < appList.length; i++) {
+      const params = {
+        TableName: table,
+        KeyConditionExpression: 'appIdStore = :appidstore',
+        FilterExpression: 'attribute_not_exists(versionDate)',
+        ProjectionExpression: 'appIdStore, reviewHash, #dte, version',
+        ExpressionAttributeNames: {
+          '#dte': 'date' // Date is a reserved word in DynamoDB
+        },
+        ExpressionAttributeValues: {
+          ':appidstore': appList[i].appId + '*' + appList[i].store
+        }
+      };
+
+      let response;
+      do {
+        response = await dynamoDb.query(params).promise();
+        for (let j = 0; j < response.Items.length; j++) {
+          const review = response.Items[j];
+          await dynamoDb.update({
+            TableName: table,
+            Key: {
+              appIdStore: review.appIdStore,
+              reviewHash: review.reviewHash
+            },
+            UpdateExpression: 'SET versionDate = :versiondate',
+            ExpressionAttributeValues: {
+              ':versiondate': `${review.version}#${review.date}`
+            }
+          }).promise();
+        }
+        updated += response.Items.length;
+        params.ExclusiveStartKey = response.LastEvaluatedKey;
+      } while (response.LastEvaluatedKey !== undefined);
+    }
+  } catch (error) {
+    return {
+      'statusCode': 500, // Internal server error
+      'headers': {},
+      'body': JSON.stringify({ error: `Error backfilling version dates: ${error}` }),
+      'isBase64Encoded': false
+    };
+  }
+
+  return {
+    'statusCode': 200, // OK
+    'headers': {},
+    'body': JSON.stringify({ reviews: updated }),
+    'isBase64Encoded': false
+  };
+}
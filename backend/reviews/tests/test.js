@@ -2,8 +2,10 @@
 var assert = require('assert');
 
 const TEST_TABLE = 'testTable';
+const TEST_ROLLUP_TABLE = 'testRollupTable';
 // Set mock env variable before handler load for Dynamo Request tests
 process.env.TABLE_NAME = TEST_TABLE;
+process.env.ROLLUP_TABLE_NAME = TEST_ROLLUP_TABLE;
 
 var handler = require('../handler');
 var crypto = require('crypto');
@@ -64,6 +66,7 @@ describe('handler', function() {
         reviewHash: testReviewHash.digest('hex'),
         date: new Date('12-01-2001').toISOString(),
         version: '1.0.0',
+        versionDate: '1.0.0' + '#' + new Date('12-01-2001').toISOString(),
         review: mockReview, 
       };
 
@@ -87,6 +90,7 @@ describe('handler', function() {
         reviewHash: testReviewHash.digest('hex'),
         date: new Date('12-21-2001').toISOString(),
         version: '',
+        versionDate: '' + '#' + new Date('12-21-2001').toISOString(),
         review: mockReview, 
       };
 
@@ -117,6 +121,7 @@ describe('handler', function() {
         reviewHash: testReviewHash.digest('hex'),
         date: new Date('12-21-2001').toISOString(),
         version: '',
+        versionDate: '#' + new Date('12-21-2001').toISOString(),
         review: mockReview1 
       };
 
@@ -127,6 +132,7 @@ describe('handler', function() {
         reviewHash: testReviewHash.digest('hex'),
         date: new Date('12-21-2001').toISOString(),
         version: '',
+        versionDate: '#' + new Date('12-21-2001').toISOString(),
         review: mockReview2
       };
 
@@ -363,4 +369,180 @@ Ut et blandit quam. Mauris ut rhoncus sapien, quis dignissim elit. Praesent sit
       assert.deepEqual(handler.createDynamoBatchRequest(mockDbItems), expected);
     });
   });
+  describe('#createRollups(reviews)', function() {
+    const mockReviews = [
+      {
+        appIdStore: 'test id*test store',
+        date: '2018-11-01T08:00:00.000Z',
+        version: '1.0.0',
+        sentiment: 'POSITIVE',
+        keywords: ['great', 'fast']
+      },
+      {
+        appIdStore: 'test id*test store',
+        date: '2018-11-01T20:00:00.000Z',
+        version: '1.0.0',
+        sentiment: 'NEGATIVE',
+        keywords: ['slow']
+      },
+      {
+        appIdStore: 'test id*test store',
+        date: '2018-11-02T08:00:00.000Z',
+        version: '1.0.0',
+        sentiment: 'POSITIVE',
+        keywords: ['great']
+      }
+    ];
+    it('should aggregate reviews by app, version and day', () => {
+      let rollups = handler.createRollups(mockReviews)
+        .filter((rollup) => !rollup.versionDay.startsWith('all#'));
+      assert.deepEqual(rollups, [
+        {
+          appIdStore: 'test id*test store',
+          versionDay: '1.0.0#2018-11-01',
+          counts: {
+            'total': 2,
+            'POSITIVE': 1,
+            'NEGATIVE': 1,
+            'kp:great': 1,
+            'kp:fast': 1,
+            'kn:slow': 1
+          }
+        },
+        {
+          appIdStore: 'test id*test store',
+          versionDay: '1.0.0#2018-11-02',
+          counts: {
+            'total': 1,
+            'POSITIVE': 1,
+            'kp:great': 1
+          }
+        }
+      ]);
+    });
+    it('should aggregate every version of a day under the all version', () => {
+      let otherVersion = Object.assign({}, mockReviews[0], { version: '1.1.0', keywords: ['new'] });
+      let rollups = handler.createRollups(mockReviews.concat([otherVersion]))
+        .filter((rollup) => rollup.versionDay.startsWith('all#'));
+      assert.deepEqual(rollups, [
+        {
+          appIdStore: 'test id*test store',
+          versionDay: 'all#2018-11-01',
+          counts: {
+            'total': 3,
+            'POSITIVE': 2,
+            'NEGATIVE': 1,
+            'kp:great': 1,
+            'kp:fast': 1,
+            'kn:slow': 1,
+            'kp:new': 1
+          }
+        },
+        {
+          appIdStore: 'test id*test store',
+          versionDay: 'all#2018-11-02',
+          counts: {
+            'total': 1,
+            'POSITIVE': 1,
+            'kp:great': 1
+          }
+        }
+      ]);
+    });
+    it('should replace each rollup with its counts', () => {
+      let rollup = handler.createRollups([mockReviews[1]]).slice(0, 1);
+      assert.deepEqual(handler.createRollupPutRequests(rollup), [
+        {
+          RequestItems: {
+            [TEST_ROLLUP_TABLE]: [
+              {
+                PutRequest: {
+                  Item: {
+                    appIdStore: 'test id*test store',
+                    versionDay: '1.0.0#2018-11-01',
+                    'total': 1,
+                    'NEGATIVE': 1,
+                    'kn:slow': 1
+                  }
+                }
+              }
+            ]
+          }
+        }
+      ]);
+    });
+    it('should keep the most frequent key phrases of a large day within the item limit', () => {
+      let reviews = [];
+      for (let i = 0; i < 2000; i++) {
+        // Long, distinct phrases, plus one phrase every review shares
+        const phrase = `phrase ${i} ${'x'.repeat(300)}`;
+        reviews.push({
+          appIdStore: 'big*test store',
+          reviewHash: `hash${i}`,
+          date: '2018-11-01T08:00:00.000Z',
+          version: '1.0',
+          sentiment: i % 2 === 0 ? 'POSITIVE' : 'NEGATIVE',
+          keywords: [phrase, 'crash']
+        });
+      }
+
+      const requests = handler.createRollupPutRequests(handler.createRollups(reviews));
+      requests[0].RequestItems[TEST_ROLLUP_TABLE].forEach((request) => {
+        const item = request.PutRequest.Item;
+        const names = Object.keys(item);
+        assert.equal(item.total, 2000);
+        assert.equal(item.POSITIVE, 1000);
+        assert.equal(item['kp:crash'], 1000);
+        assert.equal(item['kn:crash'], 1000);
+        assert.ok(names.filter((name) => name.startsWith('kp:')).length <= 500);
+        assert.ok(names.filter((name) => name.startsWith('kn:')).length <= 500);
+        assert.ok(Buffer.byteLength(JSON.stringify(item), 'utf8') < 400 * 1024);
+      });
+    });
+
+    it('should keep every key phrase of a small day', () => {
+      const counts = { total: 2, POSITIVE: 2, 'kp:fast': 2, 'kp:easy': 1 };
+      assert.deepEqual(handler.limitKeywords(counts), counts);
+    });
+
+    it('should split rollups into batches of 25', () => {
+      let rollups = [];
+      for (let i = 0; i < 30; i++) {
+        rollups.push({ appIdStore: 'test id*test store', versionDay: `${i}#2018-11-01`, counts: {} });
+      }
+      let requests = handler.createRollupPutRequests(rollups);
+      assert.deepEqual(requests.map((request) => request.RequestItems[TEST_ROLLUP_TABLE].length), [25, 5]);
+    });
+  });
+  describe('#getRollupDays(reviews)', function() {
+    it('should list each app day once', () => {
+      assert.deepEqual(handler.getRollupDays([
+        { appIdStore: 'a*test store', date: '2018-11-01T08:00:00.000Z' },
+        { appIdStore: 'a*test store', date: '2018-11-01T20:00:00.000Z' },
+        { appIdStore: 'b*test store', date: '2018-11-01T08:00:00.000Z' },
+        { appIdStore: 'a*test store', date: '2018-11-02T08:00:00.000Z' }
+      ]), ['a*test store#2018-11-01', 'b*test store#2018-11-01', 'a*test store#2018-11-02']);
+    });
+  });
+
+  describe('#mergeReviews(storedReviews, newReviews)', function() {
+    it('should count reviews that are stored and new once', () => {
+      const stored = [
+        { appIdStore: 'a*test store', reviewHash: 'abc', date: '2018-11-01T08:00:00.000Z', version: '1.0', sentiment: 'POSITIVE' },
+        { appIdStore: 'b*test store', reviewHash: 'def', date: '2018-11-01T08:00:00.000Z', version: '1.0', sentiment: 'POSITIVE' }
+      ];
+      const fresh = [
+        { appIdStore: 'a*test store', reviewHash: 'abc', date: '2018-11-01T08:00:00.000Z', version: '1.0', sentiment: 'POSITIVE' },
+        { appIdStore: 'a*test store', reviewHash: 'ghi', date: '2018-11-01T09:00:00.000Z', version: '1.0', sentiment: 'NEGATIVE' }
+      ];
+
+      const merged = handler.mergeReviews(stored, fresh);
+      assert.equal(merged.length, 3);
+
+      // New reviews the date index doesn't return yet are still counted
+      const rollup = handler.createRollups(merged)
+        .find((rollup) => rollup.appIdStore === 'a*test store' && rollup.versionDay === 'all#2018-11-01');
+      assert.deepEqual(rollup.counts, { total: 2, POSITIVE: 1, NEGATIVE: 1 });
+    });
+  });
 });